@@ -0,0 +1,52 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.security.AuthenticationDebugFilter;
+import jakarta.servlet.FilterChain;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request overhead of {@link AuthenticationDebugFilter}, against a bare filter chain, for an API call
+ * and for an OAuth2 callback (the path it logs).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationDebugFilterBenchmark {
+
+    @Param({"/api/me", "/login/oauth2/code/github"})
+    public String uri;
+
+    private final AuthenticationDebugFilter filter = new AuthenticationDebugFilter();
+    private final FilterChain chain = (req, res) -> { };
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+        Stubs.silenceStdout();
+        request = new MockHttpServletRequest("GET", uri);
+        request.setQueryString("code=abc&state=xyz");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public MockHttpServletRequest baseline() throws Exception {
+        chain.doFilter(request, response);
+        return request;
+    }
+
+    @Benchmark
+    public MockHttpServletRequest withDebugFilter() throws Exception {
+        filter.doFilter(request, response, chain);
+        // OncePerRequestFilter marks the request; clear it so every invocation does the full work
+        request.removeAttribute(filter.getClass().getName() + ".FILTERED");
+        return request;
+    }
+}
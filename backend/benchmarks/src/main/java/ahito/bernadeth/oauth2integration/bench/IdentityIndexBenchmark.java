@@ -0,0 +1,102 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import ahito.bernadeth.oauth2integration.user.IdentityIndex;
+import ahito.bernadeth.oauth2integration.user.LocalProfileInvalidationBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * {@link IdentityIndex} at {@code identities} (default 1M) links, half GitHub (numeric ids) and half Google
+ * (21-digit subs), plus one e-mail per user:
+ * <ul>
+ *   <li>{@code index}: {@link IdentityIndex#find} of a random linked identity</li>
+ *   <li>{@code hashMap}: the same through {@code HashMap<String, Long>} per provider, the obvious
+ *       alternative, as the baseline</li>
+ * </ul>
+ * The retained heap of both (identities and e-mails, keys copied as if read from JDBC rows) is printed
+ * once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class IdentityIndexBenchmark {
+
+    @Param("1000000")
+    public int identities;
+
+    private AuthProvider.Provider[] providers;
+    private String[] ids;
+    private String[] emails;
+    private IdentityIndex index;
+    private Map<AuthProvider.Provider, Map<String, Long>> maps;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        providers = new AuthProvider.Provider[identities];
+        ids = new String[identities];
+        emails = new String[identities];
+        for (int n = 0; n < identities; n++) {
+            boolean github = (n & 1) == 0;
+            providers[n] = github ? AuthProvider.Provider.GITHUB : AuthProvider.Provider.GOOGLE;
+            ids[n] = github ? Long.toString(1_000_000L + n * 37L) : "1" + (10_000_000_000_000_000L + n * 7919L) + "00";
+            emails[n] = "user" + n + "@example.com";
+        }
+
+        index = measure("IdentityIndex", () -> {
+            IdentityIndex idx = new IdentityIndex(new LocalProfileInvalidationBus());
+            for (int n = 0; n < identities; n++) {
+                idx.load(providers[n], new String(ids[n]), new String(emails[n]), n + 1);
+                idx.loadEmail(new String(emails[n]), n + 1);
+            }
+            return idx;
+        });
+        maps = measure("HashMap<String, Long>", () -> {
+            Map<AuthProvider.Provider, Map<String, Long>> m = new HashMap<>();
+            Map<String, Long> byEmail = new HashMap<>();
+            for (int n = 0; n < identities; n++) {
+                m.computeIfAbsent(providers[n], p -> new HashMap<>()).put(new String(ids[n]), (long) n + 1);
+                byEmail.put(new String(emails[n]), (long) n + 1);
+            }
+            m.put(null, byEmail);
+            return m;
+        });
+    }
+
+    @Benchmark
+    public IdentityIndex.Hit index() {
+        int n = ThreadLocalRandom.current().nextInt(identities);
+        return index.find(providers[n], ids[n], emails[n]);
+    }
+
+    @Benchmark
+    public Long hashMap() {
+        int n = ThreadLocalRandom.current().nextInt(identities);
+        return maps.get(providers[n]).get(ids[n]);
+    }
+
+    private <T> T measure(String what, Supplier<T> build) {
+        long before = usedHeap();
+        T built = build.get();
+        long retained = usedHeap() - before;
+        System.out.printf("  [%s: %.1f MB retained for %,d identities + %,d e-mails, %.0f bytes/user]%n",
+                what, retained / 1e6, identities, identities, retained / (double) identities);
+        return built;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
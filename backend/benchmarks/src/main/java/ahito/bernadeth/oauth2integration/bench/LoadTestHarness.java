@@ -0,0 +1,132 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.Oauth2integrationApplication;
+import org.h2.tools.Server;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Login throughput of a small cluster, without real provider credentials.
+ * <p>
+ * Starts an H2 TCP server (PostgreSQL mode) as the shared database, a {@link MockOAuth2Provider}, and
+ * {@code -Dnodes} application instances in this JVM, each on its own port and connection pool. A
+ * {@link LoginDriver} then runs {@code -Dlogins} complete logins from {@code -Dconcurrency} clients,
+ * spread over the nodes and providers. It reports logins/s, p50/p99 login latency (all three requests),
+ * refused and broken logins, injected provider failures, and the SQL statements the database executed per
+ * login, from H2's {@code INFORMATION_SCHEMA.QUERY_STATISTICS}.
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=ahito.bernadeth.oauth2integration.bench.LoadTestHarness \
+ *     -Dnodes=2 -Dlogins=5000 -Dconcurrency=200 -Dproviders=github,google \
+ *     -DproviderLatencyMs=50 -DlatencyJitterMs=20 -DerrorRate=0.01
+ * </pre>
+ * The statistics are read after the nodes have shut down, so the coalesced last-login updates and the
+ * journalled login events they flush on the way out are counted too.
+ */
+public final class LoadTestHarness {
+
+    public static void main(String[] args) throws Exception {
+        int nodes = Integer.getInteger("nodes", 2);
+        int logins = Integer.getInteger("logins", 5000);
+        int concurrency = Integer.getInteger("concurrency", 200);
+        int users = Integer.getInteger("users", 10_000);
+        int warmUp = Integer.getInteger("warmUp", 500);
+        int latencyMs = Integer.getInteger("providerLatencyMs", 50);
+        int jitterMs = Integer.getInteger("latencyJitterMs", 0);
+        double errorRate = Double.parseDouble(System.getProperty("errorRate", "0"));
+        List<String> providers = Arrays.asList(System.getProperty("providers", "github,google").split(","));
+
+        Server db = Server.createTcpServer("-tcpPort", "0", "-ifNotExists").start();
+        // H2 gives up on a row lock after 1 s, where PostgreSQL would wait; under load that shows up as
+        // broken logins that say more about H2 than about us
+        String url = "jdbc:h2:tcp://127.0.0.1:" + db.getPort()
+                + "/mem:loadtest;MODE=PostgreSQL;DATABASE_TO_UPPER=false;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+        MockOAuth2Provider provider = new MockOAuth2Provider(latencyMs, jitterMs, errorRate);
+        List<ConfigurableApplicationContext> apps = new ArrayList<>();
+        try (Connection stats = DriverManager.getConnection(url, "sa", "")) {
+            // one at a time: the first one creates the schema
+            for (int n = 0; n < nodes; n++) {
+                apps.add(start(url, provider));
+            }
+            List<String> bases = apps.stream()
+                    .map(app -> "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port"))
+                    .toList();
+            LoginDriver driver = new LoginDriver(bases, providers, users);
+
+            driver.run(warmUp, concurrency);
+            provider.resetCounters();
+            resetStatistics(stats);
+            LoginDriver.Result r = driver.run(logins, concurrency);
+            apps.forEach(ConfigurableApplicationContext::close);
+            apps.clear();
+
+            System.out.printf("%n%d nodes, %d logins (%s) from %d clients over %d users; provider %d ms (+0..%d), "
+                            + "%.1f%% injected failures%n%n", nodes, logins, String.join(",", providers), concurrency,
+                    users, latencyMs, jitterMs, errorRate * 100);
+            System.out.printf("%10s %9s %9s %9s %9s %8s %7s%n",
+                    "logins/s", "p50 ms", "p99 ms", "max ms", "cb p50", "refused", "broken");
+            System.out.printf("%10.0f %9.1f %9.1f %9.1f %9.1f %8d %7d%n", r.throughput(), r.login(0.50),
+                    r.login(0.99), r.login(1.0), r.callback(0.50), r.refused(), r.broken());
+            System.out.println("injected provider failures: " + provider.injectedErrors());
+            printStatistics(stats, logins);
+        } finally {
+            apps.forEach(ConfigurableApplicationContext::close);
+            provider.stop();
+            db.stop();
+        }
+    }
+
+    private static ConfigurableApplicationContext start(String url, MockOAuth2Provider provider) {
+        // command-line arguments, so they win over the app's own application.properties
+        List<String> args = new ArrayList<>(provider.properties());
+        args.addAll(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=" + url,
+                "--spring.main.banner-mode=off",
+                // every simulated client shares 127.0.0.1; the login limits would turn this into a 429 test
+                "--app.rate-limit.enabled=false",
+                "--logging.level.root=WARN",
+                "--logging.level.org.apache.catalina.util.SessionIdGeneratorBase=ERROR"));
+        return new SpringApplicationBuilder(Oauth2integrationApplication.class).run(args.toArray(String[]::new));
+    }
+
+    // turning the statistics off drops what was collected so far
+    private static void resetStatistics(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.execute("SET QUERY_STATISTICS FALSE");
+            s.execute("SET QUERY_STATISTICS_MAX_ENTRIES 1000");
+            s.execute("SET QUERY_STATISTICS TRUE");
+        }
+    }
+
+    private static void printStatistics(Connection c, int logins) throws SQLException {
+        record Row(String sql, long count, double avgMs) {
+        }
+        List<Row> rows = new ArrayList<>();
+        try (Statement s = c.createStatement();
+             ResultSet rs = s.executeQuery("""
+                     SELECT SQL_STATEMENT, EXECUTION_COUNT, AVERAGE_EXECUTION_TIME
+                       FROM INFORMATION_SCHEMA.QUERY_STATISTICS ORDER BY EXECUTION_COUNT DESC""")) {
+            while (rs.next()) {
+                String sql = rs.getString(1).replaceAll("\\s+", " ").trim();
+                if (!sql.contains("QUERY_STATISTICS")) {
+                    rows.add(new Row(sql, rs.getLong(2), rs.getDouble(3)));
+                }
+            }
+        }
+        long total = rows.stream().mapToLong(Row::count).sum();
+        System.out.printf("%nSQL statements: %,d, %.2f per login%n", total, total / (double) logins);
+        System.out.printf("%9s %8s  %s%n", "count", "avg ms", "statement");
+        rows.stream().limit(Integer.getInteger("topStatements", 10)).forEach(row -> System.out.printf(
+                "%9d %8.3f  %s%n", row.count(), row.avgMs(), row.sql().length() > 110
+                        ? row.sql().substring(0, 110) + "..." : row.sql()));
+    }
+}
@@ -0,0 +1,77 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.Oauth2integrationApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Concurrent-login capacity: platform vs. virtual request threads.
+ * <p>
+ * Boots the real application against a {@link MockOAuth2Provider} GitHub (token, {@code /user} and
+ * {@code /user/emails} each answering after {@code -DproviderLatencyMs}) and drives complete
+ * authorization-code logins through it from {@code -Dconcurrency} clients with a {@link LoginDriver}. The
+ * callback is timed, since that is where the three provider round-trips happen. Each mode gets a fresh
+ * application context and database.
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=ahito.bernadeth.oauth2integration.bench.LoginCapacityHarness \
+ *     -Dlogins=5000 -Dconcurrency=800 -DproviderLatencyMs=150 -Dmodes=platform,virtual
+ * </pre>
+ * The virtual mode needs a Java 21 runtime and is skipped (with a note) on older ones.
+ */
+public final class LoginCapacityHarness {
+
+    private static final int USERS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int logins = Integer.getInteger("logins", 3000);
+        int concurrency = Integer.getInteger("concurrency", 600);
+        int latencyMs = Integer.getInteger("providerLatencyMs", 150);
+        List<String> modes = Arrays.asList(System.getProperty("modes", "platform,virtual").split(","));
+
+        MockOAuth2Provider github = new MockOAuth2Provider(latencyMs, 0, 0);
+        try {
+            System.out.printf("%d logins, %d concurrent clients, %d ms per provider call%n%n",
+                    logins, concurrency, latencyMs);
+            System.out.printf("%-9s %10s %9s %9s %9s %7s%n", "mode", "logins/s", "p50 ms", "p99 ms", "max ms", "errors");
+            for (String mode : modes) {
+                boolean virtual = "virtual".equals(mode.trim());
+                if (virtual && !JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+                    System.out.printf("%-9s skipped: needs Java 21, running on %s%n", "virtual",
+                            Runtime.version().feature());
+                    continue;
+                }
+                try (ConfigurableApplicationContext app = start(virtual, github)) {
+                    String base = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port");
+                    LoginDriver driver = new LoginDriver(List.of(base), List.of("github"), USERS);
+                    driver.run(Math.min(500, logins), concurrency); // warm-up
+                    LoginDriver.Result r = driver.run(logins, concurrency);
+                    System.out.printf("%-9s %10.0f %9.1f %9.1f %9.1f %7d%n", virtual ? "virtual" : "platform",
+                            r.throughput(), r.callback(0.50), r.callback(0.99), r.callback(1.0),
+                            r.refused() + r.broken());
+                }
+            }
+        } finally {
+            github.stop();
+        }
+    }
+
+    private static ConfigurableApplicationContext start(boolean virtual, MockOAuth2Provider github) {
+        // command-line arguments, so they win over the app's own application.properties
+        List<String> args = new ArrayList<>(github.properties());
+        args.addAll(List.of(
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtual,
+                "--spring.datasource.url=jdbc:h2:mem:capacity-" + (virtual ? "virtual" : "platform")
+                        + ";MODE=PostgreSQL;DATABASE_TO_UPPER=false;DB_CLOSE_DELAY=-1",
+                // every simulated client shares 127.0.0.1; the login limits would turn this into a 429 test
+                "--app.rate-limit.enabled=false",
+                "--logging.level.root=WARN",
+                "--logging.level.org.apache.catalina.util.SessionIdGeneratorBase=ERROR"));
+        return new SpringApplicationBuilder(Oauth2integrationApplication.class).run(args.toArray(String[]::new));
+    }
+}
@@ -0,0 +1,164 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives complete {@code oauth2Login} authorization-code flows, the way a browser would, against one or
+ * more application nodes and a {@link MockOAuth2Provider}:
+ * <ol>
+ *   <li>{@code GET /oauth2/authorization/{registrationId}} on a node, a 302 to the provider;</li>
+ *   <li>the provider's authorize endpoint, a 302 back to the node's callback with a code;</li>
+ *   <li>the callback, where the token and userinfo calls happen, a 302 to the frontend.</li>
+ * </ol>
+ * A client keeps its cookies for one login only, and sends all three requests to the same node.
+ * Login {@code i} uses node {@code i % nodes} and registration {@code i % registrations}, for a random
+ * user out of {@code users}.
+ */
+final class LoginDriver {
+
+    private final List<String> nodes;
+    private final List<String> registrations;
+    private final int users;
+
+    LoginDriver(List<String> nodes, List<String> registrations, int users) {
+        this.nodes = nodes;
+        this.registrations = registrations;
+        this.users = users;
+    }
+
+    Result run(int logins, int concurrency) throws InterruptedException {
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        AtomicInteger broken = new AtomicInteger();
+        long[] loginNanos = new long[logins];
+        long[] callbackNanos = new long[logins];
+
+        long started = System.nanoTime();
+        for (int c = 0; c < concurrency; c++) {
+            clients.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < logins) {
+                    loginNanos[i] = -1;
+                    callbackNanos[i] = -1;
+                    try {
+                        long t0 = System.nanoTime();
+                        long callback = login(http, nodes.get(i % nodes.size()),
+                                registrations.get(i % registrations.size()),
+                                ThreadLocalRandom.current().nextInt(1, users + 1));
+                        if (callback < 0) {
+                            refused.incrementAndGet();
+                        } else {
+                            loginNanos[i] = System.nanoTime() - t0;
+                            callbackNanos[i] = callback;
+                        }
+                    } catch (Exception e) {
+                        if (broken.getAndIncrement() == 0) {
+                            System.err.println("first broken login: " + e);
+                        }
+                    }
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(30, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - started;
+
+        return new Result(sortedSuccesses(loginNanos), sortedSuccesses(callbackNanos), refused.get(), broken.get(),
+                elapsed);
+    }
+
+    /** One login; returns the callback's latency, or -1 if the app sent the browser to its error page. */
+    private static long login(HttpClient http, String node, String registrationId, int user)
+            throws IOException, InterruptedException {
+        Map<String, String> cookies = new HashMap<>();
+
+        HttpResponse<Void> start = send(http, URI.create(node + "/oauth2/authorization/" + registrationId), cookies);
+        URI authorize = location(start, 302);
+        // the "browser" signs in at the provider as user n
+        HttpResponse<Void> approved = send(http, URI.create(authorize + "&login_hint=" + user), cookies);
+        URI callback = location(approved, 302);
+
+        long t0 = System.nanoTime();
+        HttpResponse<Void> done = send(http, callback, cookies);
+        long latency = System.nanoTime() - t0;
+        return location(done, 302).toString().contains("error") ? -1 : latency;
+    }
+
+    private static HttpResponse<Void> send(HttpClient http, URI uri, Map<String, String> cookies)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder req = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).GET();
+        if (!cookies.isEmpty()) {
+            req.header("Cookie", String.join("; ", cookies.entrySet().stream()
+                    .map(e -> e.getKey() + "=" + e.getValue()).toList()));
+        }
+        HttpResponse<Void> resp = http.send(req.build(), HttpResponse.BodyHandlers.discarding());
+        for (String c : resp.headers().allValues("Set-Cookie")) {
+            String pair = c.split(";", 2)[0];
+            int eq = pair.indexOf('=');
+            cookies.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return resp;
+    }
+
+    private static URI location(HttpResponse<?> resp, int expectedStatus) {
+        if (resp.statusCode() != expectedStatus) {
+            throw new IllegalStateException(resp.uri() + " returned " + resp.statusCode());
+        }
+        return resp.uri().resolve(resp.headers().firstValue("Location").orElseThrow());
+    }
+
+    private static long[] sortedSuccesses(long[] nanos) {
+        return Arrays.stream(nanos).filter(n -> n >= 0).sorted().toArray();
+    }
+
+    /**
+     * @param refused logins the app turned down (error redirect), e.g. after an injected provider failure
+     * @param broken  logins that did not complete at all: timeouts, unexpected statuses
+     */
+    record Result(long[] loginNanos, long[] callbackNanos, int refused, int broken, long elapsedNanos) {
+
+        int succeeded() {
+            return loginNanos.length;
+        }
+
+        double throughput() {
+            return succeeded() / (elapsedNanos / 1e9);
+        }
+
+        /** Whole-login latency percentile in ms. */
+        double login(double p) {
+            return percentile(loginNanos, p);
+        }
+
+        /** Callback latency percentile in ms. */
+        double callback(double p) {
+            return percentile(callbackNanos, p);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) return Double.NaN;
+            int i = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+            return sorted[Math.max(0, i)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.audit.LoginEventJournal;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost the audit trail adds to each login, 8 logins in parallel, against H2. A "login" is
+ * {@code loginWork} tokens of CPU (the rest of the login, minus provider waits) followed by:
+ * <ul>
+ *   <li>{@code baseline}: no audit at all</li>
+ *   <li>{@code journal}: {@link LoginEventJournal#record}, batched by its writer thread</li>
+ *   <li>{@code directInsert}: one synchronous {@code INSERT INTO login_event} per login</li>
+ * </ul>
+ * Written / dropped totals are printed after each iteration. With {@code loginWork=0} logins arrive far
+ * faster than any database can insert and the journal mostly measures its drop path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginEventJournalBenchmark {
+
+    private static final String INSERT =
+            "INSERT INTO login_event (user_id, provider, occurred_at, new_user) VALUES (?, ?, ?, ?)";
+
+    @Param("20000")
+    public long loginWork;
+
+    private HikariDataSource pool;
+    private JdbcTemplate jdbc;
+    private LoginEventJournal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new HikariDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:login-event-bench;MODE=PostgreSQL;DATABASE_TO_UPPER=false;DB_CLOSE_DELAY=-1");
+        pool.setUsername("sa");
+        pool.setMaximumPoolSize(8);
+        jdbc = new JdbcTemplate(pool);
+        // same shape (and index) Hibernate creates for LoginEvent
+        jdbc.execute("""
+                CREATE TABLE login_event (
+                    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                    user_id BIGINT NOT NULL,
+                    provider VARCHAR(16) NOT NULL,
+                    occurred_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+                    new_user BOOLEAN NOT NULL)""");
+        jdbc.execute("CREATE INDEX idx_login_event_user_time ON login_event (user_id, occurred_at)");
+
+        journal = new LoginEventJournal(jdbc, true, 8192, 500, Duration.ofSeconds(1));
+        journal.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        System.out.printf("  [journal: %d written, %d dropped]%n", journal.written(), journal.dropped());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        journal.stop();
+        pool.close();
+    }
+
+    @Benchmark
+    public long baseline() {
+        return login();
+    }
+
+    @Benchmark
+    public boolean journal() {
+        return journal.record(login(), AuthProvider.Provider.GOOGLE, false);
+    }
+
+    @Benchmark
+    public int directInsert() {
+        return jdbc.update(INSERT, login(), AuthProvider.Provider.GOOGLE.name(),
+                new Timestamp(System.currentTimeMillis()), false);
+    }
+
+    private long login() {
+        Blackhole.consumeCPU(loginWork);
+        return ThreadLocalRandom.current().nextLong(1, 1_000_000);
+    }
+}
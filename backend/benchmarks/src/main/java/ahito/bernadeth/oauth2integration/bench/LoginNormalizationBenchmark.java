@@ -0,0 +1,77 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.audit.LoginEventJournal;
+import ahito.bernadeth.oauth2integration.metrics.LoginMetrics;
+import ahito.bernadeth.oauth2integration.security.AppOAuth2UserService;
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.trace.LoginTracer;
+import ahito.bernadeth.oauth2integration.user.LocalProfileInvalidationBus;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.ProviderIdentity;
+import ahito.bernadeth.oauth2integration.user.ProvisionedUser;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AppOAuth2UserService#loadUser} minus the network and the database: userinfo, GitHub's
+ * /user/emails and provisioning are stubbed, so this is attribute normalization plus principal building.
+ * With {@code trace=on} the trace writer logs through Logback like it would in production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginNormalizationBenchmark {
+
+    @Param({"google", "github", "gitlab", "microsoft"})
+    public String provider;
+
+    /** off = app.login-trace.enabled=false; on = every login traced */
+    @Param({"off", "on"})
+    public String trace;
+
+    private AppOAuth2UserService service;
+    private OAuth2UserRequest request;
+
+    @Setup
+    public void setUp() {
+        Stubs.silenceStdout();
+        OAuth2User providerUser = Stubs.providerUser(provider);
+        request = Stubs.userRequest(provider);
+
+        UserProvisioningService provisioning = new UserProvisioningService(null, null, null, null) {
+            @Override
+            public ProvisionedUser provision(ProviderIdentity id, LoginTrace trace) {
+                return new ProvisionedUser(new UserProfile(42L, id.email(), id.name(), id.picture(), null,
+                        Instant.EPOCH), false);
+            }
+        };
+        ProfileCache profiles = new ProfileCache(10_000, Duration.ofMinutes(10), new LocalProfileInvalidationBus());
+
+        LoginTracer tracer = new LoginTracer("on".equals(trace), 1.0, 1024);
+
+        service = new AppOAuth2UserService(provisioning, profiles, Stubs.providerAdapters(), tracer,
+                new LoginMetrics(new SimpleMeterRegistry()), new LoginEventJournal(null, false, 0, 1, Duration.ZERO),
+                Stubs.avatars(profiles), null) {
+            @Override
+            protected OAuth2User fetchUserInfo(OAuth2UserRequest req) {
+                return providerUser;
+            }
+        };
+    }
+
+    @Benchmark
+    public OAuth2User loadUser() {
+        return service.loadUser(request);
+    }
+}
@@ -0,0 +1,181 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local GitHub and Google (plain OAuth2, no OpenID Connect) for load tests: authorize, token, userinfo
+ * and {@code /user/emails}.
+ * <p>
+ * The authorize endpoint approves at once and redirects back with a single-use code for user
+ * {@code login_hint} (a number; the "browser" picks who logs in). Every other call waits
+ * {@code latencyMs} plus up to {@code jitterMs}, and then fails with a 503 with probability
+ * {@code errorRate}. Failures are counted per endpoint.
+ * {@link #properties} points an application at it.
+ */
+final class MockOAuth2Provider {
+
+    private static final List<String> ENDPOINTS = List.of("token", "userinfo", "emails");
+
+    private final HttpServer server;
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+    private final int latencyMs;
+    private final int jitterMs;
+    private final double errorRate;
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private final AtomicLong nextCode = new AtomicLong();
+    private final Map<String, LongAdder> injected = new ConcurrentHashMap<>();
+
+    MockOAuth2Provider(int latencyMs, int jitterMs, double errorRate) throws IOException {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+        ENDPOINTS.forEach(e -> injected.put(e, new LongAdder()));
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+
+        server.createContext("/login/oauth/authorize", this::authorize);
+        server.createContext("/google/authorize", this::authorize);
+        server.createContext("/login/oauth/access_token", ex -> token(ex, "github"));
+        server.createContext("/google/token", ex -> token(ex, "google"));
+        server.createContext("/user/emails", ex -> {
+            int user = user(ex);
+            respond(ex, "emails", "[{\"email\":\"user" + user + "@example.com\",\"primary\":true,\"verified\":true}]");
+        });
+        // no public e-mail, like most GitHub accounts, so the app asks /user/emails too
+        server.createContext("/user", ex -> {
+            int user = user(ex);
+            respond(ex, "userinfo", "{\"id\":" + user + ",\"login\":\"user" + user + "\",\"name\":\"User " + user
+                    + "\",\"avatar_url\":\"https://avatars.example.com/u/" + user + "\",\"email\":null}");
+        });
+        server.createContext("/google/userinfo", ex -> {
+            int user = user(ex);
+            respond(ex, "userinfo", "{\"sub\":\"1098765432" + (10_000_000_000L + user) + "\",\"email\":\"user" + user
+                    + "@example.com\",\"email_verified\":true,\"name\":\"User " + user
+                    + "\",\"picture\":\"https://avatars.example.com/g/" + user + "\"}");
+        });
+        server.setExecutor(workers);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** Command-line properties that register GitHub and Google against this provider. */
+    List<String> properties() {
+        String base = baseUrl();
+        List<String> p = new ArrayList<>();
+        for (String reg : List.of("google", "github")) {
+            p.add("--spring.security.oauth2.client.registration." + reg + ".client-id=bench");
+            p.add("--spring.security.oauth2.client.registration." + reg + ".client-secret=bench");
+        }
+        p.add("--spring.security.oauth2.client.provider.github.authorization-uri=" + base + "/login/oauth/authorize");
+        p.add("--spring.security.oauth2.client.provider.github.token-uri=" + base + "/login/oauth/access_token");
+        p.add("--spring.security.oauth2.client.provider.github.user-info-uri=" + base + "/user");
+        p.add("--app.github.api-base-url=" + base);
+        // without openid there is no ID token to sign, and the login goes through the userinfo endpoint
+        p.add("--spring.security.oauth2.client.registration.google.scope=profile,email");
+        p.add("--spring.security.oauth2.client.provider.google.authorization-uri=" + base + "/google/authorize");
+        p.add("--spring.security.oauth2.client.provider.google.token-uri=" + base + "/google/token");
+        p.add("--spring.security.oauth2.client.provider.google.user-info-uri=" + base + "/google/userinfo");
+        return p;
+    }
+
+    /** Injected failures per endpoint so far. */
+    Map<String, Long> injectedErrors() {
+        Map<String, Long> counts = new HashMap<>();
+        injected.forEach((e, n) -> counts.put(e, n.sum()));
+        return counts;
+    }
+
+    void resetCounters() {
+        injected.values().forEach(LongAdder::reset);
+    }
+
+    void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    private void authorize(HttpExchange ex) throws IOException {
+        Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+        String code = "c" + nextCode.incrementAndGet();
+        codes.put(code, Integer.parseInt(q.getOrDefault("login_hint", "1")));
+        String location = q.get("redirect_uri") + "?code=" + code + "&state="
+                + URLEncoder.encode(q.get("state"), StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Location", location);
+        ex.sendResponseHeaders(302, -1);
+        ex.close();
+    }
+
+    private void token(HttpExchange ex, String provider) throws IOException {
+        String form = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        Integer user = codes.remove(query(form).get("code"));
+        if (user == null) {
+            send(ex, 400, "{\"error\":\"invalid_grant\"}");
+            return;
+        }
+        respond(ex, "token", "{\"access_token\":\"tok-" + user + "\",\"token_type\":\"bearer\",\"expires_in\":3600,"
+                + "\"scope\":\"" + ("github".equals(provider) ? "read:user,user:email" : "profile email") + "\"}");
+    }
+
+    private static int user(HttpExchange ex) {
+        String auth = ex.getRequestHeaders().getFirst("Authorization");
+        return Integer.parseInt(auth.substring(auth.indexOf("tok-") + 4));
+    }
+
+    private void respond(HttpExchange ex, String endpoint, String json) throws IOException {
+        try {
+            Thread.sleep(latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextInt(jitterMs + 1) : 0));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            injected.get(endpoint).increment();
+            send(ex, 503, "{\"message\":\"injected failure\"}");
+            return;
+        }
+        send(ex, 200, json);
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static Map<String, String> query(String raw) {
+        Map<String, String> q = new HashMap<>();
+        if (raw == null || raw.isEmpty()) {
+            return q;
+        }
+        for (String p : raw.split("&")) {
+            int eq = p.indexOf('=');
+            if (eq > 0) {
+                q.put(URLDecoder.decode(p.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(p.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return q;
+    }
+}
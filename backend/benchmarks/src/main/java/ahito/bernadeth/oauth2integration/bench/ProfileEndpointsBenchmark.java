@@ -0,0 +1,152 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.user.LocalProfileInvalidationBus;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.User;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import ahito.bernadeth.oauth2integration.user.UserProfileService;
+import ahito.bernadeth.oauth2integration.user.UserRepository;
+import ahito.bernadeth.oauth2integration.web.CurrentUserArgumentResolver;
+import ahito.bernadeth.oauth2integration.web.UserController;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller work plus JSON encode/decode for {@code GET /api/me} and {@code POST /api/profile}, using
+ * the same Jackson setup Spring MVC uses. The repository is an in-memory stub. The {@code @CurrentUser}
+ * profile is resolved as in a browser session that has already made a request (the session copy).
+ * <p>
+ * {@code me} is a first (or unconditional) request; {@code meNotModified} is the browser revalidating an
+ * unchanged profile with {@code If-None-Match}. Bytes per response (app-set headers + body) are printed
+ * after each iteration.
+ * <p>
+ * {@code meMap} / {@code updateProfileMap} encode and decode the same payloads as the untyped
+ * {@code Map} bodies the controller used before its DTO records, for comparison. {@code jackson} toggles
+ * the Blackbird module that {@code JacksonConfig} registers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileEndpointsBenchmark {
+
+    private static final TypeReference<Map<String, String>> MAP_BODY = new TypeReference<>() {};
+
+    @Param({"blackbird", "reflection"})
+    public String jackson;
+
+    private UserController controller;
+    private CurrentUserArgumentResolver currentUser;
+    private MockHttpServletRequest request;
+    private OAuth2User principal;
+    private ObjectMapper mapper;
+    private byte[] updateBody;
+    private String etag;
+    private long responses;
+    private long bytes;
+
+    @Setup
+    public void setUp() {
+        User user = Stubs.user();
+        UserRepository users = Stubs.userRepository(user);
+        ProfileCache profiles = new ProfileCache(10_000, Duration.ofMinutes(10), new LocalProfileInvalidationBus());
+        controller = new UserController(profiles, new UserProfileService(users));
+        currentUser = new CurrentUserArgumentResolver(profiles, users);
+        principal = Stubs.appPrincipal(user);
+        request = new MockHttpServletRequest("GET", "/api/me");
+        request.setSession(new MockHttpSession());
+        request.setUserPrincipal(new OAuth2AuthenticationToken(principal, principal.getAuthorities(), "google"));
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if ("blackbird".equals(jackson)) {
+            builder.modulesToInstall(new BlackbirdModule());
+        }
+        mapper = builder.build();
+        updateBody = """
+                {"displayName":"Ada King","bio":"Countess of Lovelace. Wrote the first algorithm intended for a machine."}"""
+                .getBytes(StandardCharsets.UTF_8);
+        etag = controller.me(principal, currentUser(), null).getHeaders().getETag();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        responses = 0;
+        bytes = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        System.out.printf("  [%d bytes/response]%n", bytes / Math.max(1, responses));
+    }
+
+    @Benchmark
+    public byte[] me() throws Exception {
+        ResponseEntity<UserController.MeResponse> res = controller.me(principal, currentUser(), null);
+        return count(res, mapper.writeValueAsBytes(res.getBody()));
+    }
+
+    @Benchmark
+    public byte[] meNotModified() throws Exception {
+        ResponseEntity<UserController.MeResponse> res = controller.me(principal, currentUser(), etag);
+        return count(res, res.getBody() == null ? new byte[0] : mapper.writeValueAsBytes(res.getBody()));
+    }
+
+    @Benchmark
+    public byte[] meMap() throws Exception {
+        UserController.MeResponse me = controller.me(principal, currentUser(), null).getBody();
+        return mapper.writeValueAsBytes(Map.of(
+                "authenticated", me.authenticated(),
+                "email", me.email(),
+                "name", me.name(),
+                "picture", me.picture(),
+                "avatar", me.avatar(),
+                "bio", me.bio()));
+    }
+
+    @Benchmark
+    public byte[] updateProfile() throws Exception {
+        UserController.ProfileUpdate body = mapper.readValue(updateBody, UserController.ProfileUpdate.class);
+        return mapper.writeValueAsBytes(controller.updateProfile(principal, currentUser(), body).getBody());
+    }
+
+    @Benchmark
+    public byte[] updateProfileMap() throws Exception {
+        Map<String, String> body = mapper.readValue(updateBody, MAP_BODY);
+        UserController.ProfileUpdate update = new UserController.ProfileUpdate(body.get("displayName"), body.get("bio"));
+        UserController.ProfileResponse res =
+                (UserController.ProfileResponse) controller.updateProfile(principal, currentUser(), update).getBody();
+        return mapper.writeValueAsBytes(Map.of(
+                "ok", res.ok(),
+                "email", res.email(),
+                "displayName", res.displayName(),
+                "bio", res.bio(),
+                "avatarUrl", res.avatarUrl()));
+    }
+
+    // a new request in the same session
+    private UserProfile currentUser() {
+        request.clearAttributes();
+        return currentUser.resolve(request);
+    }
+
+    private byte[] count(ResponseEntity<?> res, byte[] body) {
+        responses++;
+        bytes += body.length;
+        res.getHeaders().forEach((name, values) -> values.forEach(v -> bytes += name.length() + v.length() + 4));
+        return body;
+    }
+}
@@ -0,0 +1,39 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.provider.ProviderAccount;
+import ahito.bernadeth.oauth2integration.provider.ProviderAdapter;
+import ahito.bernadeth.oauth2integration.provider.ProviderAdapters;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attribute normalization alone, per provider: the registry lookup plus {@link ProviderAdapter#extract}
+ * on a realistic userinfo map. {@link LoginNormalizationBenchmark} has the same providers end to end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderAdapterBenchmark {
+
+    @Param({"google", "github", "gitlab", "microsoft"})
+    public String provider;
+
+    private ProviderAdapters adapters;
+    private Map<String, Object> attributes;
+
+    @Setup
+    public void setUp() {
+        adapters = Stubs.providerAdapters();
+        attributes = Stubs.providerAttributes(provider);
+    }
+
+    @Benchmark
+    public ProviderAccount extract() {
+        return adapters.forRegistration(provider).extract(attributes);
+    }
+}
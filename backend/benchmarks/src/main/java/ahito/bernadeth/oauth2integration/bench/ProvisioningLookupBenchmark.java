@@ -0,0 +1,206 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import ahito.bernadeth.oauth2integration.user.IdentityIndex;
+import ahito.bernadeth.oauth2integration.user.LastLoginRecorder;
+import ahito.bernadeth.oauth2integration.user.LocalProfileInvalidationBus;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.ProviderIdentity;
+import ahito.bernadeth.oauth2integration.user.ProvisionedUser;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningRepository;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Returning-user login against a table of {@code users} (default 1M) seeded users, each linked to Google.
+ * <ul>
+ *   <li>{@code upsertAlways}: the previous path, user upsert + link insert on every login</li>
+ *   <li>{@code lookupFirst}: {@link UserProvisioningService#provision} with an empty {@link IdentityIndex},
+ *       one projection read that finds nothing to write</li>
+ *   <li>{@code indexed}: the same with the index warmed (as at startup), so the account is resolved
+ *       without a query; the profile then comes from the {@link ProfileCache} or one primary-key read</li>
+ * </ul>
+ * Statements per login are printed after each iteration (counted at the JDBC connection).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ProvisioningLookupBenchmark {
+
+    @Param("1000000")
+    public int users;
+
+    private HikariDataSource pool;
+    private TransactionTemplate tx;
+    private UserProvisioningRepository repository;
+    private UserProvisioningService service;
+    private UserProvisioningService indexedService;
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder logins = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        pool = new HikariDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:provisioning-bench;MODE=PostgreSQL;DATABASE_TO_UPPER=false;DB_CLOSE_DELAY=-1");
+        pool.setUsername("sa");
+        pool.setMaximumPoolSize(4);
+
+        JdbcTemplate jdbc = new JdbcTemplate(pool);
+        // same shape (and indexes) Hibernate creates for User / AuthProvider
+        jdbc.execute("""
+                CREATE TABLE users (
+                    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                    email VARCHAR(255) NOT NULL UNIQUE,
+                    display_name VARCHAR(255) NOT NULL,
+                    avatar_url VARCHAR(255),
+                    bio VARCHAR(1000),
+                    created_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+                    updated_at TIMESTAMP(6) WITH TIME ZONE NOT NULL)""");
+        jdbc.execute("""
+                CREATE TABLE auth_provider (
+                    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                    user_id BIGINT NOT NULL REFERENCES users (id),
+                    provider VARCHAR(16) NOT NULL,
+                    provider_user_id VARCHAR(255) NOT NULL,
+                    provider_email VARCHAR(255),
+                    UNIQUE (provider, provider_user_id))""");
+        jdbc.execute("CREATE INDEX idx_auth_provider_user_id ON auth_provider (user_id)");
+        jdbc.update("""
+                INSERT INTO users (id, email, display_name, avatar_url, bio, created_at, updated_at)
+                SELECT X, 'user' || X || '@example.com', 'User ' || X, 'https://avatars.example.com/' || X,
+                       REPEAT('bio ', 60), CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+                  FROM SYSTEM_RANGE(1, ?)""", users);
+        jdbc.execute("ALTER TABLE users ALTER COLUMN id RESTART WITH " + (users + 1));
+        jdbc.update("""
+                INSERT INTO auth_provider (user_id, provider, provider_user_id, provider_email)
+                SELECT id, 'GOOGLE', 'g-' || id, email FROM users""");
+        jdbc.execute("ANALYZE");
+
+        DataSource counted = counting(pool);
+        JdbcTemplate countedJdbc = new JdbcTemplate(counted);
+        tx = new TransactionTemplate(new DataSourceTransactionManager(counted));
+        repository = new UserProvisioningRepository(countedJdbc, counted);
+        LastLoginRecorder lastLogins = new LastLoginRecorder(countedJdbc, Duration.ZERO);
+        LocalProfileInvalidationBus bus = new LocalProfileInvalidationBus();
+        ProfileCache profiles = new ProfileCache(10_000, Duration.ofMinutes(10), bus);
+        // never learns anything: every login takes the query
+        IdentityIndex none = new IdentityIndex(bus) {
+            @Override
+            public Hit find(AuthProvider.Provider provider, String providerUserId, String providerEmail) {
+                return null;
+            }
+
+            @Override
+            public boolean put(AuthProvider.Provider provider, String providerUserId, String providerEmail,
+                               long userId, long seenGeneration) {
+                return false;
+            }
+
+            @Override
+            public boolean putEmail(String email, long userId, long seenGeneration) {
+                return false;
+            }
+        };
+        service = new UserProvisioningService(repository, lastLogins, none, profiles);
+
+        IdentityIndex warmed = new IdentityIndex(bus);
+        for (long n = 1; n <= users; n++) {
+            warmed.load(AuthProvider.Provider.GOOGLE, "g-" + n, "user" + n + "@example.com", n);
+            warmed.loadEmail("user" + n + "@example.com", n);
+        }
+        // random returning users rarely hit a 10k cache, so this is mostly one primary-key read
+        indexedService = new UserProvisioningService(repository, lastLogins, warmed, profiles);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        statements.reset();
+        logins.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        System.out.printf("  [%.2f statements/login]%n", statements.sum() / (double) Math.max(1, logins.sum()));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        pool.close();
+    }
+
+    @Benchmark
+    public ProvisionedUser upsertAlways() {
+        ProviderIdentity id = returningUser();
+        return tx.execute(status -> {
+            ProvisionedUser user = repository.upsertUser(id.email(), id.name(), id.picture());
+            repository.insertLinkIfAbsent(user.profile().id(), id.provider(), id.providerUserId(), id.email());
+            return user;
+        });
+    }
+
+    @Benchmark
+    public ProvisionedUser lookupFirst() {
+        ProviderIdentity id = returningUser();
+        return tx.execute(status -> service.provision(id, LoginTrace.NOOP));
+    }
+
+    @Benchmark
+    public ProvisionedUser indexed() {
+        ProviderIdentity id = returningUser();
+        return tx.execute(status -> indexedService.provision(id, LoginTrace.NOOP));
+    }
+
+    private ProviderIdentity returningUser() {
+        logins.increment();
+        long n = ThreadLocalRandom.current().nextLong(1, users + 1);
+        // user n (id n) is linked as g-n
+        return new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + n, "user" + n + "@example.com", true,
+                "User " + n, "https://avatars.example.com/" + n);
+    }
+
+    // counts every statement prepared on connections from this pool
+    private DataSource counting(DataSource target) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    return result instanceof Connection c ? countingConnection(c) : result;
+                });
+    }
+
+    private Connection countingConnection(Connection target) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("prepareStatement") || name.equals("createStatement") || name.equals("prepareCall")) {
+                        statements.increment();
+                    }
+                    return invoke(target, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.ratelimit.LocalRateLimitStore;
+import ahito.bernadeth.oauth2integration.ratelimit.RateLimit;
+import ahito.bernadeth.oauth2integration.ratelimit.RateLimitRule;
+import ahito.bernadeth.oauth2integration.ratelimit.RateLimiter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter cost under contention, 64 threads taking tokens at once:
+ * <ul>
+ *   <li>{@code gcra}: {@link LocalRateLimitStore}, one CAS on one {@code long} per request</li>
+ *   <li>{@code synchronizedBucket}: the textbook token bucket (tokens + last refill, refilled under the
+ *       bucket's monitor), as the baseline</li>
+ *   <li>{@code callbackCheck}: {@link RateLimiter#check} on an OAuth2 callback, i.e. path matching, key
+ *       building and the two rules (per IP, per provider) that apply</li>
+ * </ul>
+ * With {@code keys=1} every thread hits the same bucket, like one client (or the per-provider rule) under
+ * a flood. With 10000 keys requests spread across clients. The limit is high enough that every token is
+ * granted, so each call is a write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(64)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimitBenchmark {
+
+    private static final RateLimit UNREACHABLE = new RateLimit(1_000_000_000, Duration.ofMillis(1));
+
+    @Param({"1", "10000"})
+    public int keys;
+
+    private LocalRateLimitStore store;
+    private SynchronizedBuckets synchronizedBuckets;
+    private RateLimiter limiter;
+    private String[] keyNames;
+    private String[] addresses;
+
+    @Setup
+    public void setUp() {
+        store = new LocalRateLimitStore(100_000);
+        synchronizedBuckets = new SynchronizedBuckets();
+        RateLimitRule perIp = new RateLimitRule(List.of("/login/oauth2/code/*"), List.of(),
+                List.of(RateLimitRule.Key.IP), UNREACHABLE.limit(), UNREACHABLE.period());
+        RateLimitRule perProvider = new RateLimitRule(List.of("/login/oauth2/code/*"), List.of(),
+                List.of(RateLimitRule.Key.PROVIDER), UNREACHABLE.limit(), UNREACHABLE.period());
+        limiter = new RateLimiter(Map.of("login-callback", perIp, "provider-callback", perProvider),
+                new LocalRateLimitStore(100_000));
+        keyNames = new String[keys];
+        addresses = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            keyNames[i] = "login-callback|10.0." + (i >> 8) + "." + (i & 0xff);
+            addresses[i] = "10.0." + (i >> 8) + "." + (i & 0xff);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        MockHttpServletRequest request;
+
+        @Setup
+        public void setUp() {
+            request = new MockHttpServletRequest("GET", "/login/oauth2/code/github");
+            request.setQueryString("code=abc&state=xyz");
+        }
+    }
+
+    @Benchmark
+    public long gcra() {
+        return store.tryAcquire(keyNames[pick()], UNREACHABLE);
+    }
+
+    @Benchmark
+    public long synchronizedBucket() {
+        return synchronizedBuckets.tryAcquire(keyNames[pick()], UNREACHABLE);
+    }
+
+    @Benchmark
+    public Object callbackCheck(Client client) {
+        client.request.setRemoteAddr(addresses[pick()]);
+        return limiter.check(client.request);
+    }
+
+    private int pick() {
+        return keys == 1 ? 0 : ThreadLocalRandom.current().nextInt(keys);
+    }
+
+    /** Conventional token bucket: a token count refilled from elapsed time, guarded per bucket. */
+    static final class SynchronizedBuckets {
+
+        private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+        long tryAcquire(String key, RateLimit limit) {
+            return buckets.computeIfAbsent(key, k -> new Bucket(limit.limit())).take(limit);
+        }
+
+        static final class Bucket {
+            private double tokens;
+            private long refilledAt = System.nanoTime();
+
+            Bucket(int capacity) {
+                tokens = capacity;
+            }
+
+            synchronized long take(RateLimit limit) {
+                long now = System.nanoTime();
+                tokens = Math.min(limit.limit(), tokens + (double) (now - refilledAt) / limit.intervalNanos());
+                refilledAt = now;
+                if (tokens >= 1) {
+                    tokens--;
+                    return 0;
+                }
+                return (long) ((1 - tokens) * limit.intervalNanos());
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.security.SessionTokenCodec;
+import ahito.bernadeth.oauth2integration.security.StatelessSessionFilter;
+import ahito.bernadeth.oauth2integration.user.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.Cookie;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request authentication cost: restoring the security context from the HttpSession (default mode)
+ * versus verifying the signed session cookie ({@code app.session.mode=stateless}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionAuthenticationBenchmark {
+
+    private final HttpSessionSecurityContextRepository sessionRepository = new HttpSessionSecurityContextRepository();
+    private final FilterChain chain = (req, res) -> { };
+
+    private MockHttpServletRequest sessionRequest;
+    private StatelessSessionFilter statelessFilter;
+    private MockHttpServletRequest tokenRequest;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+        User user = Stubs.user();
+        OAuth2User principal = Stubs.appPrincipal(user);
+        OAuth2AuthenticationToken auth = new OAuth2AuthenticationToken(principal, principal.getAuthorities(), "google");
+
+        MockHttpSession session = new MockHttpSession();
+        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY,
+                new SecurityContextImpl(auth));
+        sessionRequest = new MockHttpServletRequest("GET", "/api/me");
+        sessionRequest.setSession(session);
+
+        SessionTokenCodec codec = new SessionTokenCodec("benchmark-secret-benchmark-secret", List.of(),
+                Duration.ofHours(8), new ObjectMapper());
+        statelessFilter = new StatelessSessionFilter(codec, "APP_SESSION");
+        tokenRequest = new MockHttpServletRequest("GET", "/api/me");
+        tokenRequest.setCookies(new Cookie("APP_SESSION", codec.issue(user.getId(), user.getEmail(),
+                user.getDisplayName(), user.getAvatarUrl(), "google")));
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public SecurityContext httpSession() {
+        return sessionRepository.loadDeferredContext(sessionRequest).get();
+    }
+
+    @Benchmark
+    public SecurityContext signedToken() throws Exception {
+        statelessFilter.doFilter(tokenRequest, response, chain);
+        tokenRequest.removeAttribute(statelessFilter.getClass().getName() + ".FILTERED");
+        SecurityContext ctx = SecurityContextHolder.getContext();
+        SecurityContextHolder.clearContext();
+        return ctx;
+    }
+}
@@ -0,0 +1,167 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of the packaged application, as a container would see it: launch a fresh JVM, poll
+ * {@code /api/public/ping} until it answers 200, then read the process's resident set size.
+ * <ul>
+ *   <li>{@code dev}: the jar with the default profile (Thymeleaf, H2 console, debug beans, ddl-auto=update)</li>
+ *   <li>{@code prod}: the same jar with {@code --spring.profiles.active=prod} (Flyway + validate, no dev beans)</li>
+ *   <li>{@code prod-aot-cds}: {@code scripts/start-prod.sh}'s setup, i.e. prod plus Spring AOT and the CDS
+ *       archive; needs {@code mvn -Paot package} first and is skipped without it</li>
+ * </ul>
+ * Every mode runs against its own in-memory H2 database.
+ * <pre>
+ * (cd .. &amp;&amp; mvn -Paot package -DskipTests)
+ * mvn exec:java -Dexec.mainClass=ahito.bernadeth.oauth2integration.bench.StartupHarness -Druns=5
+ * </pre>
+ * {@code -Dapp.target} points at the backend's {@code target} directory, and {@code -DjvmArgs} is added
+ * to every launch (e.g. {@code -Xmx256m}, to mimic a container limit).
+ */
+public final class StartupHarness {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(3);
+
+    public static void main(String[] args) throws Exception {
+        Path target = Path.of(System.getProperty("app.target", "../target")).toAbsolutePath().normalize();
+        int runs = Integer.getInteger("runs", 3);
+        List<String> modes = Arrays.asList(System.getProperty("modes", "dev,prod,prod-aot-cds").split(","));
+        List<String> jvmArgs = System.getProperty("jvmArgs", "").isBlank()
+                ? List.of() : Arrays.asList(System.getProperty("jvmArgs").trim().split("\\s+"));
+
+        System.out.printf("%d runs per mode, median (min) of each; %s%n%n", runs, target);
+        System.out.printf("%-13s %22s %18s%n", "mode", "first request ms", "RSS MB");
+        for (String mode : modes) {
+            Launch launch = launch(mode.trim(), target);
+            if (launch == null) {
+                System.out.printf("%-13s skipped: %s not found (run `mvn -Paot package` in the backend)%n", mode,
+                        target.resolve("cds/application.jsa"));
+                continue;
+            }
+            List<Long> millis = new ArrayList<>();
+            List<Long> rss = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                long[] r = run(launch, jvmArgs, mode.trim() + "-" + i);
+                millis.add(r[0]);
+                rss.add(r[1]);
+            }
+            System.out.printf("%-13s %14d (%5d) %10s (%5s)%n", mode, median(millis), Collections.min(millis),
+                    mb(median(rss)), mb(Collections.min(rss)));
+        }
+    }
+
+    private record Launch(Path dir, List<String> jvm, Path jar, List<String> app) {
+    }
+
+    private static Launch launch(String mode, Path target) throws IOException {
+        return switch (mode) {
+            case "dev" -> new Launch(target, List.of(), execJar(target), List.of());
+            case "prod" -> new Launch(target, List.of(), execJar(target), List.of("--spring.profiles.active=prod"));
+            case "prod-aot-cds" -> {
+                Path cds = target.resolve("cds");
+                if (!Files.exists(cds.resolve("application.jsa"))) {
+                    yield null;
+                }
+                yield new Launch(cds, List.of("-XX:SharedArchiveFile=application.jsa", "-Dspring.aot.enabled=true"),
+                        execJar(cds), List.of("--spring.profiles.active=prod"));
+            }
+            default -> throw new IllegalArgumentException("unknown mode " + mode);
+        };
+    }
+
+    /** Milliseconds from launch to the first 200, and the RSS at that point (bytes, -1 if unknown). */
+    private static long[] run(Launch launch, List<String> jvmArgs, String db) throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.addAll(launch.jvm());
+        cmd.addAll(jvmArgs);
+        cmd.add("-jar");
+        cmd.add(launch.jar().toString());
+        cmd.addAll(launch.app());
+        cmd.add("--server.port=" + port);
+        cmd.add("--spring.datasource.url=jdbc:h2:mem:startup-" + db + ";DB_CLOSE_DELAY=-1");
+        cmd.add("--logging.level.root=WARN");
+
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+        HttpRequest ping = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/api/public/ping"))
+                .timeout(Duration.ofSeconds(2)).build();
+
+        long start = System.nanoTime();
+        Process app = new ProcessBuilder(cmd).directory(launch.dir().toFile())
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            while (true) {
+                if (!app.isAlive()) {
+                    throw new IllegalStateException("application exited with " + app.exitValue() + ": " + cmd);
+                }
+                if (System.nanoTime() - start > TIMEOUT.toNanos()) {
+                    throw new IllegalStateException("no answer within " + TIMEOUT + ": " + cmd);
+                }
+                try {
+                    if (http.send(ping, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        break;
+                    }
+                } catch (IOException notUpYet) {
+                    // connection refused until Tomcat is listening
+                }
+                Thread.sleep(5);
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return new long[]{millis, rss(app.pid())};
+        } finally {
+            app.destroy();
+            if (!app.waitFor(30, TimeUnit.SECONDS)) {
+                app.destroyForcibly();
+            }
+        }
+    }
+
+    private static Path execJar(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith("-exec.jar")).findFirst()
+                    .orElseThrow(() -> new IllegalStateException("no *-exec.jar in " + dir + "; build the backend first"));
+        }
+    }
+
+    // Linux only; elsewhere the column shows n/a
+    private static long rss(long pid) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D+", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // fall through
+        }
+        return -1;
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static String mb(long bytes) {
+        return bytes < 0 ? "n/a" : Long.toString(bytes / (1024 * 1024));
+    }
+}
@@ -0,0 +1,170 @@
+package ahito.bernadeth.oauth2integration.bench;
+
+import ahito.bernadeth.oauth2integration.avatar.AvatarService;
+import ahito.bernadeth.oauth2integration.provider.GithubAdapter;
+import ahito.bernadeth.oauth2integration.provider.GitlabAdapter;
+import ahito.bernadeth.oauth2integration.provider.GoogleAdapter;
+import ahito.bernadeth.oauth2integration.provider.MicrosoftAdapter;
+import ahito.bernadeth.oauth2integration.provider.ProviderAdapters;
+import ahito.bernadeth.oauth2integration.security.GithubEmailClient;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.User;
+import ahito.bernadeth.oauth2integration.user.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Hand-rolled stand-ins for the provider and the database, so the benchmarks measure our code only.
+ */
+final class Stubs {
+
+    static final Map<String, Object> GOOGLE_ATTRIBUTES = Map.of(
+            "sub", "109876543210987654321",
+            "email", "ada@example.com",
+            "email_verified", true,
+            "name", "Ada Lovelace",
+            "given_name", "Ada",
+            "family_name", "Lovelace",
+            "picture", "https://lh3.googleusercontent.com/a/ACg8ocJ-example=s96-c",
+            "locale", "en");
+
+    // no public e-mail, so the /user/emails fallback path runs too
+    static final Map<String, Object> GITHUB_ATTRIBUTES = Map.of(
+            "id", 583231,
+            "login", "octocat",
+            "name", "The Octocat",
+            "avatar_url", "https://avatars.githubusercontent.com/u/583231?v=4",
+            "html_url", "https://github.com/octocat",
+            "type", "User",
+            "site_admin", false);
+
+    static final Map<String, Object> GITLAB_ATTRIBUTES = Map.of(
+            "id", 1234567,
+            "username", "ada",
+            "name", "Ada Lovelace",
+            "email", "ada@example.com",
+            "state", "active",
+            "avatar_url", "https://gitlab.com/uploads/-/system/user/avatar/1234567/avatar.png",
+            "web_url", "https://gitlab.com/ada",
+            "created_at", "2015-12-10T09:10:11.123Z");
+
+    // no mail (unlicensed account), so the sign-in name stands in
+    static final Map<String, Object> MICROSOFT_ATTRIBUTES = Map.of(
+            "id", "87d349ed-44d7-43e1-9a83-5f2406dee5bd",
+            "displayName", "Ada Lovelace",
+            "givenName", "Ada",
+            "surname", "Lovelace",
+            "userPrincipalName", "ada@contoso.onmicrosoft.com",
+            "preferredLanguage", "en-US");
+
+    private Stubs() {
+    }
+
+    static OAuth2UserRequest userRequest(String registrationId) {
+        ClientRegistration registration = ClientRegistration.withRegistrationId(registrationId)
+                .clientId("bench")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("http://localhost/authorize")
+                .tokenUri("http://localhost/token")
+                .userInfoUri("http://localhost/userinfo")
+                .userNameAttributeName("google".equals(registrationId) ? "sub" : "id")
+                .build();
+        OAuth2AccessToken token = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "bench-token",
+                Instant.now(), Instant.now().plusSeconds(3600));
+        return new OAuth2UserRequest(registration, token);
+    }
+
+    static Map<String, Object> providerAttributes(String registrationId) {
+        return switch (registrationId) {
+            case "github" -> GITHUB_ATTRIBUTES;
+            case "gitlab" -> GITLAB_ATTRIBUTES;
+            case "microsoft" -> MICROSOFT_ATTRIBUTES;
+            default -> GOOGLE_ATTRIBUTES;
+        };
+    }
+
+    static OAuth2User providerUser(String registrationId) {
+        return new DefaultOAuth2User(Set.of(new SimpleGrantedAuthority("OAUTH2_USER")),
+                providerAttributes(registrationId), "google".equals(registrationId) ? "sub" : "id");
+    }
+
+    /** All built-in adapters, with GitHub's /user/emails answered locally. */
+    static ProviderAdapters providerAdapters() {
+        GithubEmailClient githubEmails = new GithubEmailClient("http://localhost", Duration.ofSeconds(1),
+                Duration.ofSeconds(1), Duration.ofMinutes(1), 5, Duration.ofSeconds(30), false, new ObjectMapper()) {
+            @Override
+            public CompletableFuture<String> fetchPrimaryEmail(String accessToken) {
+                return CompletableFuture.completedFuture("octocat@example.com");
+            }
+        };
+        return new ProviderAdapters(List.of(new GoogleAdapter(), new GithubAdapter(githubEmails),
+                new GitlabAdapter(), new MicrosoftAdapter(List.of())),
+                new DefaultListableBeanFactory().getBeanProvider(ClientRegistrationRepository.class));
+    }
+
+    /** Avatar service with an empty host allowlist: the login-time prefetch check runs, nothing is fetched. */
+    static AvatarService avatars(ProfileCache profiles) {
+        try {
+            return new AvatarService(profiles, null, Files.createTempDirectory("bench-avatars"), List.of(),
+                    DataSize.ofMegabytes(2), Duration.ofSeconds(5), Duration.ofHours(1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** The principal {@code AppOAuth2UserService} hands to Spring Security. */
+    static OAuth2User appPrincipal(User u) {
+        return new DefaultOAuth2User(Set.of(new SimpleGrantedAuthority("ROLE_USER")), Map.of(
+                "id", u.getId(),
+                "email", u.getEmail(),
+                "name", u.getDisplayName(),
+                "picture", u.getAvatarUrl()), "email");
+    }
+
+    static User user() {
+        Instant now = Instant.now();
+        return new User(42L, "ada@example.com", "Ada Lovelace",
+                "https://lh3.googleusercontent.com/a/ACg8ocJ-example=s96-c",
+                "Mathematician. Wrote the first algorithm intended for a machine.", now, now, null);
+    }
+
+    /** Single-row UserRepository; only the methods the controllers call are implemented. */
+    static UserRepository userRepository(User row) {
+        return (UserRepository) Proxy.newProxyInstance(Stubs.class.getClassLoader(),
+                new Class<?>[]{UserRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findById", "findByEmail" -> Optional.of(row);
+                    case "save" -> args[0];
+                    case "flush" -> null;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /** The login path still prints a lot; keep the terminal out of the measurement. */
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
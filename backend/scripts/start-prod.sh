@@ -0,0 +1,9 @@
+#!/bin/sh
+# Starts the build from `mvn -Paot package` (prod profile, Spring AOT, CDS archive).
+# DATABASE_URL / DATABASE_USERNAME / DATABASE_PASSWORD and the OAuth2 client variables come from the
+# environment; extra arguments go to the application (e.g. --server.port=9090). JAVA_OPTS for the JVM.
+# DB_PROFILE=postgresql or mysql adds that database's driver and pool tuning.
+set -e
+cd "$(dirname "$0")/../target/cds"
+exec java -XX:SharedArchiveFile=application.jsa -Xshare:auto -Dspring.aot.enabled=true $JAVA_OPTS \
+    -jar oauth2integration-*-exec.jar --spring.profiles.active=prod${DB_PROFILE:+,$DB_PROFILE} "$@"
@@ -0,0 +1,33 @@
+package ahito.bernadeth.oauth2integration.audit;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * One successful login (audit trail). Rows are written in batches by {@link LoginEventJournal}, never
+ * through JPA; the entity describes the table and serves ad-hoc reads.
+ */
+@Entity
+@Table(name = "login_event",
+        indexes = @Index(name = "idx_login_event_user_time", columnList = "user_id, occurred_at"))
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
+public class LoginEvent {
+    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private AuthProvider.Provider provider;
+
+    @Column(nullable = false)
+    private Instant occurredAt;
+
+    @Column(nullable = false)
+    private boolean newUser;
+}
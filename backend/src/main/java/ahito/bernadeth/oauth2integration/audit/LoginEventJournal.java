@@ -0,0 +1,227 @@
+package ahito.bernadeth.oauth2integration.audit;
+
+import ahito.bernadeth.oauth2integration.support.MpscRingBuffer;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous {@code login_event} journal.
+ * <p>
+ * {@link #record} copies the event into a preallocated slot of a lock-free ring and returns; it never
+ * blocks, allocates or touches the database, so the login path costs the same with the journal on. A
+ * single writer thread drains the ring and inserts JDBC batches of {@code app.login-events.batch-size}
+ * rows, or whatever has accumulated after {@code app.login-events.flush-interval}.
+ * <p>
+ * Back-pressure: when the ring is full (the database is down or far behind) the <em>new</em> event is
+ * dropped and counted ({@code login.events.dropped}); logins always win over the audit trail. A batch the
+ * database rejects is logged and counted as failed, not retried. On shutdown the writer stops after the
+ * web server has, and flushes everything still buffered before the connection pool closes.
+ */
+@Component
+public class LoginEventJournal implements SmartLifecycle, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(LoginEventJournal.class);
+
+    private static final String INSERT =
+            "INSERT INTO login_event (user_id, provider, occurred_at, new_user) VALUES (?, ?, ?, ?)";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final JdbcTemplate jdbc;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final MpscRingBuffer<Slot> ring;
+
+    // writer-thread-only staging area, reused for every batch
+    private final long[] userIds;
+    private final String[] providers;
+    private final long[] times;
+    private final boolean[] newUsers;
+    private int staged;
+    private final BatchPreparedStatementSetter batch = new StagedRows();
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private volatile boolean running;
+    // set by stop(): nothing drains the ring any more. Before start() it is drained once the writer starts.
+    private volatile boolean stopped;
+    private Thread writer;
+
+    public LoginEventJournal(JdbcTemplate jdbc,
+                             @Value("${app.login-events.enabled:true}") boolean enabled,
+                             @Value("${app.login-events.buffer-size:8192}") int bufferSize,
+                             @Value("${app.login-events.batch-size:500}") int batchSize,
+                             @Value("${app.login-events.flush-interval:1s}") Duration flushInterval) {
+        this.jdbc = jdbc;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.ring = enabled ? new MpscRingBuffer<>(bufferSize, Slot::new) : null;
+        this.userIds = new long[batchSize];
+        this.providers = new String[batchSize];
+        this.times = new long[batchSize];
+        this.newUsers = new boolean[batchSize];
+    }
+
+    /** @return false if the event was dropped (journal full, stopped or disabled) */
+    public boolean record(long userId, AuthProvider.Provider provider, boolean newUser) {
+        if (!enabled) return false;
+        if (stopped) {
+            dropped.increment();
+            return false;
+        }
+        long pos = ring.claim();
+        if (pos < 0) {
+            dropped.increment();
+            return false;
+        }
+        Slot s = ring.slot(pos);
+        s.userId = userId;
+        s.provider = provider;
+        s.at = System.currentTimeMillis();
+        s.newUser = newUser;
+        ring.publish(pos);
+        return true;
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long written() {
+        return written.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) return;
+        FunctionCounter.builder("login.events.written", written, LongAdder::sum).register(registry);
+        FunctionCounter.builder("login.events.dropped", dropped, LongAdder::sum)
+                .description("Login events dropped because the journal was full or stopped").register(registry);
+        FunctionCounter.builder("login.events.failed", failed, LongAdder::sum)
+                .description("Login events in batches the database rejected").register(registry);
+        Gauge.builder("login.events.buffered", ring, MpscRingBuffer::size).register(registry);
+    }
+
+    // ---- lifecycle ----
+
+    @Override
+    public void start() {
+        if (!enabled || running) return;
+        stopped = false;
+        running = true;
+        writer = new Thread(this::runWriter, "login-event-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!running) return;
+        stopped = true;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // stop after the web server (no more logins), start early; lower phases start first and stop last
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    // ---- writer thread ----
+
+    private void runWriter() {
+        long lastFlush = System.nanoTime();
+        while (true) {
+            boolean stopping = !running;
+            int drained = ring.drain(this::stage, batchSize - staged);
+            if (staged > 0 && (staged == batchSize || stopping
+                    || System.nanoTime() - lastFlush >= flushIntervalNanos)) {
+                flush();
+                lastFlush = System.nanoTime();
+                continue;
+            }
+            if (drained == 0) {
+                if (stopping) break; // ring empty, nothing staged
+                LockSupport.parkNanos(Math.min(IDLE_PARK_NANOS, flushIntervalNanos));
+            }
+        }
+        log.debug("Login event writer stopped: written={} dropped={} failed={}",
+                written.sum(), dropped.sum(), failed.sum());
+    }
+
+    private void stage(Slot s) {
+        userIds[staged] = s.userId;
+        providers[staged] = s.provider.name();
+        times[staged] = s.at;
+        newUsers[staged] = s.newUser;
+        staged++;
+    }
+
+    private void flush() {
+        int n = staged;
+        try {
+            jdbc.batchUpdate(INSERT, batch);
+            written.add(n);
+        } catch (RuntimeException e) {
+            failed.add(n);
+            log.warn("Dropped {} login events, batch insert failed: {}", n, e.toString());
+        } finally {
+            staged = 0;
+        }
+    }
+
+    private final class StagedRows implements BatchPreparedStatementSetter {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+            ps.setLong(1, userIds[i]);
+            ps.setString(2, providers[i]);
+            ps.setTimestamp(3, new Timestamp(times[i]));
+            ps.setBoolean(4, newUsers[i]);
+        }
+
+        @Override
+        public int getBatchSize() {
+            return staged;
+        }
+    }
+
+    /** Ring slot; overwritten in place for every login. */
+    private static final class Slot {
+        long userId;
+        AuthProvider.Provider provider;
+        long at;
+        boolean newUser;
+    }
+}
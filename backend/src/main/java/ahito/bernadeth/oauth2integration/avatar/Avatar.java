@@ -0,0 +1,12 @@
+package ahito.bernadeth.oauth2integration.avatar;
+
+import java.nio.file.Path;
+
+/**
+ * One resized avatar on disk.
+ *
+ * @param etag quoted strong validator; derived from the image content, so two URLs serving the same
+ *             picture share it
+ */
+public record Avatar(Path file, long length, String etag) {
+}
@@ -0,0 +1,259 @@
+package ahito.bernadeth.oauth2integration.avatar;
+
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import ahito.bernadeth.oauth2integration.user.UserRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Serves provider profile pictures from our own disk instead of hotlinking the provider CDN.
+ * <p>
+ * A picture is fetched per source URL, resized to {@link AvatarStore#SIZES} and kept in a
+ * content-addressed {@link AvatarStore}. The first request for an unknown URL fetches inline (concurrent
+ * requests share the fetch); logins call {@link #prefetch} so a new or changed URL is usually on disk
+ * before anyone asks for it. Some providers keep the URL when the picture changes (GitHub's
+ * {@code avatar_url}), so a URL fetched more than {@code app.avatar.refresh-after} ago is fetched again in
+ * the background, on login or on the next request, while the copy we have is still served. Only hosts in {@code app.avatar.allowed-hosts} are fetched, redirects are
+ * not followed, and a URL that failed is not retried for a minute.
+ */
+@Service
+public class AvatarService {
+
+    private static final Logger log = LoggerFactory.getLogger(AvatarService.class);
+    private static final long RETRY_AFTER_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int MAX_INDEXED_URLS = 10_000;
+
+    private final AvatarStore store;
+    private final ProfileCache profiles;
+    private final UserRepository users;
+    private final Set<String> allowedHosts;
+    private final long maxBytes;
+    private final Duration timeout;
+    private final HttpClient http;
+    private final ExecutorService prefetcher;
+
+    private final long refreshAfterMillis;
+
+    // url → content hash, so repeat requests skip the disk lookup; bounded, misses fall back to disk
+    private final ConcurrentHashMap<String, AvatarStore.Source> index = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inflight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> failedAt = new ConcurrentHashMap<>();
+
+    public AvatarService(ProfileCache profiles, UserRepository users,
+                         @Value("${app.avatar.cache-dir}") Path cacheDir,
+                         @Value("${app.avatar.allowed-hosts}") List<String> allowedHosts,
+                         @Value("${app.avatar.max-bytes:2MB}") DataSize maxBytes,
+                         @Value("${app.avatar.fetch-timeout:5s}") Duration timeout,
+                         @Value("${app.avatar.refresh-after:1h}") Duration refreshAfter) throws IOException {
+        this.store = new AvatarStore(cacheDir);
+        this.profiles = profiles;
+        this.users = users;
+        this.allowedHosts = allowedHosts.stream().map(h -> h.trim().toLowerCase(Locale.ROOT))
+                .filter(h -> !h.isEmpty()).collect(Collectors.toUnmodifiableSet());
+        this.maxBytes = maxBytes.toBytes();
+        this.timeout = timeout;
+        this.refreshAfterMillis = refreshAfter.toMillis();
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        // small and lossy: a dropped prefetch only means the first request fetches inline
+        this.prefetcher = new ThreadPoolExecutor(1, 2, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000), r -> {
+            Thread t = new Thread(r, "avatar-prefetch");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /** The user's avatar at the stored size closest to {@code size}; empty if they have none we can serve. */
+    public Optional<Avatar> avatar(long userId, int size) {
+        String url = profiles.get(userId, id -> users.findById(id).map(UserProfile::from))
+                .map(UserProfile::avatarUrl)
+                .orElse(null);
+        if (url == null || !allowed(url)) {
+            return Optional.empty();
+        }
+        String content = resolve(url);
+        if (content == null) {
+            return Optional.empty();
+        }
+        int snapped = AvatarStore.snap(size);
+        Path file = store.blob(content, snapped);
+        try {
+            return Optional.of(new Avatar(file, Files.size(file), "\"" + content.substring(0, 32) + "-" + snapped + "\""));
+        } catch (IOException e) {
+            // cache dir wiped under us; forget the mapping so the next request refetches
+            index.remove(url);
+            return Optional.empty();
+        }
+    }
+
+    /** Makes sure a recent copy of {@code url} is on disk, in the background. Cheap when it already is. */
+    public void prefetch(String url) {
+        if (url == null) {
+            return;
+        }
+        AvatarStore.Source known = index.get(url);
+        if ((known != null && !stale(known)) || !allowed(url)) {
+            return;
+        }
+        prefetcher.execute(() -> refresh(url));
+    }
+
+    /** True if {@code url} is already cached (for tests and diagnostics). */
+    boolean isCached(String url) {
+        return index.containsKey(url);
+    }
+
+    @PreDestroy
+    void close() {
+        prefetcher.shutdownNow();
+    }
+
+    // content hash for url: memory, then disk, then one shared fetch; a stale copy is served while it is refetched
+    private String resolve(String url) {
+        AvatarStore.Source known = known(url);
+        if (known == null) {
+            return fetch(url);
+        }
+        if (stale(known)) {
+            prefetcher.execute(() -> refresh(url));
+        }
+        return known.content();
+    }
+
+    private void refresh(String url) {
+        AvatarStore.Source known = known(url);
+        if (known == null || stale(known)) {
+            fetch(url);
+        }
+    }
+
+    private AvatarStore.Source known(String url) {
+        AvatarStore.Source known = index.get(url);
+        if (known != null) {
+            return known;
+        }
+        try {
+            known = store.sourceFor(url);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (known != null) {
+            remember(url, known);
+        }
+        return known;
+    }
+
+    // one fetch per url at a time, shared by everyone asking; null if it failed (then not retried for a minute)
+    private String fetch(String url) {
+        Long failed = failedAt.get(url);
+        if (failed != null && System.nanoTime() - failed < RETRY_AFTER_NANOS) {
+            return null;
+        }
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inflight.putIfAbsent(url, mine);
+        if (running != null) {
+            return running.join();
+        }
+        String content;
+        try {
+            content = fetchAndStore(url);
+            if (content != null) {
+                remember(url, new AvatarStore.Source(content, System.currentTimeMillis()));
+            }
+            mine.complete(content);
+        } finally {
+            inflight.remove(url, mine);
+            mine.complete(null);
+        }
+        return content;
+    }
+
+    private void remember(String url, AvatarStore.Source source) {
+        if (index.size() < MAX_INDEXED_URLS || index.containsKey(url)) {
+            index.put(url, source);
+        }
+    }
+
+    private boolean stale(AvatarStore.Source source) {
+        return System.currentTimeMillis() - source.fetchedAtMillis() >= refreshAfterMillis;
+    }
+
+    private String fetchAndStore(String url) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(timeout).GET().build();
+            HttpResponse<InputStream> resp = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = resp.body()) {
+                if (resp.statusCode() != 200) {
+                    throw new IOException("HTTP " + resp.statusCode());
+                }
+                String content = store.store(url, readLimited(body));
+                failedAt.remove(url);
+                log.debug("Cached avatar {} as {}", url, content);
+                return content;
+            }
+        } catch (IOException | RuntimeException e) {
+            long now = System.nanoTime();
+            if (failedAt.size() >= MAX_INDEXED_URLS) {
+                failedAt.values().removeIf(at -> now - at >= RETRY_AFTER_NANOS);
+            }
+            failedAt.put(url, now);
+            log.warn("Could not fetch avatar {}: {}", url, e.toString());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private byte[] readLimited(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            if (out.size() + n > maxBytes) {
+                throw new IOException("Avatar larger than " + maxBytes + " bytes");
+            }
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    // runs on every login (prefetch), so no URI parsing: take scheme://host[:port]/ literally; anything
+    // unusual in the authority (user info, backslashes, ...) simply doesn't match an allowed host
+    boolean allowed(String url) {
+        int start = url.startsWith("https://") ? 8 : url.startsWith("http://") ? 7 : -1;
+        if (start < 0) {
+            return false;
+        }
+        int end = start;
+        while (end < url.length() && "/?#:".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        return allowedHosts.contains(url.substring(start, end).toLowerCase(Locale.ROOT));
+    }
+}
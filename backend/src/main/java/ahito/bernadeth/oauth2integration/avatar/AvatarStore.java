@@ -0,0 +1,155 @@
+package ahito.bernadeth.oauth2integration.avatar;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+
+/**
+ * Content-addressed avatar files.
+ * <pre>
+ *   blobs/ab/abcd…-64.png     one file per source image (SHA-256 of its bytes) and size
+ *   sources/12/12ef…          source URL (by its SHA-256) → content hash
+ * </pre>
+ * Files are written to a temp name and moved into place, so readers never see a partial image and a
+ * crash leaves at most a stray temp file. Blobs are never rewritten: a new picture is a new hash. A source
+ * mapping is rewritten whenever its URL is fetched again, and its file time says when that was.
+ */
+final class AvatarStore {
+
+    /** Sizes we render; requests are snapped to the nearest one so the cache stays small. */
+    static final int[] SIZES = {64, 128, 256};
+
+    // larger sources are refused before decoding (a 100x100 PNG can claim to be 50000x50000)
+    private static final long MAX_PIXELS = 4096L * 4096L;
+
+    private final Path blobs;
+    private final Path sources;
+
+    AvatarStore(Path root) throws IOException {
+        this.blobs = Files.createDirectories(root.resolve("blobs"));
+        this.sources = Files.createDirectories(root.resolve("sources"));
+    }
+
+    static int snap(int requested) {
+        int best = SIZES[0];
+        for (int s : SIZES) {
+            if (Math.abs(s - requested) < Math.abs(best - requested)) best = s;
+        }
+        return best;
+    }
+
+    /** Content hash stored for this source URL and when it was fetched, or null if it never was. */
+    Source sourceFor(String url) throws IOException {
+        Path p = sourcePath(url);
+        if (!Files.exists(p)) {
+            return null;
+        }
+        return new Source(Files.readString(p, StandardCharsets.US_ASCII), Files.getLastModifiedTime(p).toMillis());
+    }
+
+    Path blob(String content, int size) {
+        return blobs.resolve(content.substring(0, 2)).resolve(content + "-" + size + ".png");
+    }
+
+    /**
+     * Decodes {@code image}, writes every size (unless this content is already stored) and records
+     * {@code url → content}. @return the content hash
+     */
+    String store(String url, byte[] image) throws IOException {
+        String content = sha256(image);
+        if (!Files.exists(blob(content, SIZES[SIZES.length - 1]))) {
+            BufferedImage source = decode(image);
+            Files.createDirectories(blob(content, SIZES[0]).getParent());
+            for (int size : SIZES) {
+                BufferedImage resized = squareThumbnail(source, size);
+                writeAtomically(blob(content, size), out -> ImageIO.write(resized, "png", out));
+            }
+        }
+        Path source = sourcePath(url);
+        Files.createDirectories(source.getParent());
+        writeAtomically(source, out -> out.write(content.getBytes(StandardCharsets.US_ASCII)));
+        return content;
+    }
+
+    private Path sourcePath(String url) {
+        String key = sha256(url.getBytes(StandardCharsets.UTF_8));
+        return sources.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static BufferedImage decode(byte[] image) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Not an image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXELS) {
+                    throw new IOException("Image too large: " + reader.getWidth(0) + "x" + reader.getHeight(0));
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // center crop to a square, then scale; avatars are shown round or square, never letterboxed
+    static BufferedImage squareThumbnail(BufferedImage source, int size) {
+        int side = Math.min(source.getWidth(), source.getHeight());
+        int x = (source.getWidth() - side) / 2;
+        int y = (source.getHeight() - side) / 2;
+        BufferedImage out = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, size, size, x, y, x + side, y + side, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    record Source(String content, long fetchedAtMillis) {
+    }
+
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static void writeAtomically(Path target, Writer writer) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), ".tmp-", null);
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                writer.write(out);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
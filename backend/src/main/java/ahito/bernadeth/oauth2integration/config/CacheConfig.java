@@ -0,0 +1,45 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.user.LocalProfileInvalidationBus;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.ProfileInvalidationBus;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class CacheConfig {
+
+    // swap for a shared implementation when running more than one node
+    @Bean
+    @ConditionalOnMissingBean
+    ProfileInvalidationBus profileInvalidationBus() {
+        return new LocalProfileInvalidationBus();
+    }
+
+    @Bean
+    ProfileCache profileCache(@Value("${app.profile-cache.max-size:10000}") int maxSize,
+                              @Value("${app.profile-cache.ttl:10m}") Duration ttl,
+                              ProfileInvalidationBus bus) {
+        return new ProfileCache(maxSize, ttl, bus);
+    }
+
+    @Bean
+    MeterBinder profileCacheMetrics(ProfileCache cache) {
+        return registry -> {
+            FunctionCounter.builder("profile.cache.requests", cache, c -> c.stats().hits())
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("profile.cache.requests", cache, c -> c.stats().misses())
+                    .tag("result", "miss").register(registry);
+            FunctionCounter.builder("profile.cache.evictions", cache, c -> c.stats().evictions())
+                    .register(registry);
+            Gauge.builder("profile.cache.size", cache, c -> c.stats().size()).register(registry);
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.user.AccountLinkService;
+import ahito.bernadeth.oauth2integration.user.IdentityIndex;
+import ahito.bernadeth.oauth2integration.user.ProfileInvalidationBus;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IdentityIndexConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(IdentityIndexConfig.class);
+
+    @Bean
+    IdentityIndex identityIndex(ProfileInvalidationBus bus) {
+        return new IdentityIndex(bus);
+    }
+
+    // in the background: the node serves (and fills the index with) logins while the tables stream in
+    @Bean
+    ApplicationListener<ApplicationReadyEvent> identityIndexWarmUp(AccountLinkService links,
+                                                                   @Value("${app.identity-index.warm-up:true}")
+                                                                   boolean warmUp) {
+        return event -> {
+            if (!warmUp) {
+                return;
+            }
+            Thread t = new Thread(() -> {
+                try {
+                    links.warmIdentityIndex();
+                } catch (RuntimeException e) {
+                    log.warn("Identity index warm-up failed; it fills up with logins instead", e);
+                }
+            }, "identity-index-warmup");
+            t.setDaemon(true);
+            t.start();
+        };
+    }
+
+    @Bean
+    MeterBinder identityIndexMetrics(IdentityIndex index) {
+        return registry -> {
+            FunctionCounter.builder("identity.index.lookups", index, i -> i.stats().hits())
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("identity.index.lookups", index, i -> i.stats().misses())
+                    .tag("result", "miss").register(registry);
+            Gauge.builder("identity.index.size", index, i -> i.stats().identities())
+                    .tag("key", "identity").register(registry);
+            Gauge.builder("identity.index.size", index, i -> i.stats().emails())
+                    .tag("key", "email").register(registry);
+        };
+    }
+}
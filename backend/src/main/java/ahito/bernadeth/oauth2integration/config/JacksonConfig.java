@@ -0,0 +1,16 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class JacksonConfig {
+
+    // picked up by Boot's ObjectMapper, so every MVC body (and the benchmarks' copy) gets it
+    @Bean
+    Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+}
@@ -0,0 +1,68 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.security.JdbcOAuth2StateStore;
+import ahito.bernadeth.oauth2integration.security.LocalOAuth2StateStore;
+import ahito.bernadeth.oauth2integration.security.OAuth2StateStore;
+import ahito.bernadeth.oauth2integration.security.StoredAuthorizationRequestRepository;
+import ahito.bernadeth.oauth2integration.security.StoredOAuth2AuthorizedClientService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+
+import java.time.Duration;
+
+/**
+ * {@code app.oauth2-store.type}: where {@code oauth2Login} keeps authorization requests and provider tokens.
+ * With {@code session}, nothing here is created and Spring's defaults stay in place. Otherwise the
+ * authorized-client service replaces Boot's in-memory one, and {@link SecurityConfig} picks up the
+ * authorization-request repository.
+ */
+@Configuration
+@ConditionalOnExpression("'${app.oauth2-store.type:memory}' != 'session'")
+public class OAuth2StoreConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "app.oauth2-store.type", havingValue = "memory", matchIfMissing = true)
+    LocalOAuth2StateStore localOAuth2StateStore(@Value("${app.oauth2-store.max-entries:100000}") int maxEntries) {
+        return new LocalOAuth2StateStore(maxEntries);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.oauth2-store.type", havingValue = "jdbc")
+    JdbcOAuth2StateStore jdbcOAuth2StateStore(JdbcTemplate jdbc,
+                                              @Value("${app.oauth2-store.sweep-interval:1m}") Duration sweepInterval) {
+        return new JdbcOAuth2StateStore(jdbc, sweepInterval);
+    }
+
+    @Bean
+    StoredAuthorizationRequestRepository storedAuthorizationRequestRepository(
+            OAuth2StateStore store, @Value("${app.session.secure-cookie:false}") boolean secureCookie) {
+        return new StoredAuthorizationRequestRepository(store, secureCookie);
+    }
+
+    @Bean
+    OAuth2AuthorizedClientService authorizedClientService(OAuth2StateStore store,
+                                                          ClientRegistrationRepository registrations,
+                                                          @Value("${app.oauth2-store.client-ttl:8h}") Duration ttl) {
+        return new StoredOAuth2AuthorizedClientService(store, registrations, ttl);
+    }
+
+    @Bean
+    MeterBinder oauth2StoreMetrics(OAuth2StateStore store) {
+        return registry -> {
+            if (store instanceof LocalOAuth2StateStore local) {
+                Gauge.builder("oauth2.store.entries", local, LocalOAuth2StateStore::size).register(registry);
+                FunctionCounter.builder("oauth2.store.evictions", local, LocalOAuth2StateStore::evictions)
+                        .register(registry);
+            }
+        };
+    }
+}
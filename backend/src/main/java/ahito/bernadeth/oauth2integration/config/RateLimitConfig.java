@@ -0,0 +1,50 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.ratelimit.LocalRateLimitStore;
+import ahito.bernadeth.oauth2integration.ratelimit.RateLimitRule;
+import ahito.bernadeth.oauth2integration.ratelimit.RateLimitStore;
+import ahito.bernadeth.oauth2integration.ratelimit.RateLimiter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.Map;
+
+@Configuration
+@ConditionalOnProperty(name = "app.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitConfig {
+
+    // per node; swap for a shared implementation to enforce one limit across nodes
+    @Bean
+    @ConditionalOnMissingBean
+    RateLimitStore rateLimitStore(@Value("${app.rate-limit.max-keys:100000}") int maxKeys) {
+        return new LocalRateLimitStore(maxKeys);
+    }
+
+    @Bean
+    RateLimiter rateLimiter(Environment env, RateLimitStore store) {
+        Map<String, RateLimitRule> rules = Binder.get(env)
+                .bind("app.rate-limit.rules", Bindable.mapOf(String.class, RateLimitRule.class))
+                .orElse(Map.of());
+        return new RateLimiter(rules, store);
+    }
+
+    @Bean
+    MeterBinder rateLimitStoreMetrics(RateLimitStore store) {
+        return registry -> {
+            if (store instanceof LocalRateLimitStore local) {
+                Gauge.builder("rate.limit.keys", local, LocalRateLimitStore::size).register(registry);
+                FunctionCounter.builder("rate.limit.evictions", local, LocalRateLimitStore::evictions)
+                        .register(registry);
+            }
+        };
+    }
+}
@@ -1,36 +1,64 @@
 package ahito.bernadeth.oauth2integration.config;
 
+import ahito.bernadeth.oauth2integration.ratelimit.RateLimitFilter;
+import ahito.bernadeth.oauth2integration.ratelimit.RateLimiter;
+import ahito.bernadeth.oauth2integration.security.AdminAuthorizationManager;
 import ahito.bernadeth.oauth2integration.security.AppOAuth2UserService;
 import ahito.bernadeth.oauth2integration.security.AuthenticationDebugFilter;
+import ahito.bernadeth.oauth2integration.security.HttpCookieOAuth2AuthorizationRequestRepository;
+import ahito.bernadeth.oauth2integration.security.SessionTokenCodec;
+import ahito.bernadeth.oauth2integration.security.SessionTokenSuccessHandler;
+import ahito.bernadeth.oauth2integration.security.StatelessSessionFilter;
+import ahito.bernadeth.oauth2integration.security.StoredAuthorizationRequestRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.client.web.OAuth2AuthorizationRequestRedirectFilter;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.access.expression.WebExpressionAuthorizationManager;
+import org.springframework.security.web.savedrequest.NullRequestCache;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+import org.springframework.web.util.UriUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @Configuration
 public class SecurityConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(SecurityConfig.class);
+
     // React dev server origin
     private static final String FRONTEND = "http://localhost:5173";
 
+    private static final WebExpressionAuthorizationManager LOCALHOST_ONLY =
+            new WebExpressionAuthorizationManager("hasIpAddress('127.0.0.1') or hasIpAddress('::1')");
+
     @Bean
     SecurityFilterChain filterChain(HttpSecurity http, AppOAuth2UserService appOAuth2UserService,
-                                    AuthenticationDebugFilter authDebugFilter) throws Exception {
-        System.out.println("🔧 SecurityConfig: Configuring filter chain...");
-        System.out.println("🔧 AppOAuth2UserService instance: " + appOAuth2UserService);
-        System.out.println("🔧 AuthenticationDebugFilter instance: " + authDebugFilter);
+                                    ObjectProvider<AuthenticationDebugFilter> authDebugFilter,
+                                    ObjectProvider<SessionTokenCodec> sessionTokens,
+                                    ObjectProvider<RateLimiter> rateLimiter,
+                                    ObjectProvider<StoredAuthorizationRequestRepository> storedAuthorizationRequests,
+                                    @Value("${app.session.cookie-name:APP_SESSION}") String sessionCookie,
+                                    @Value("${app.session.secure-cookie:false}") boolean secureCookie,
+                                    @Value("${app.admin-user-ids:}") List<Long> adminUserIds) throws Exception {
+        // Add our debug filter (dev only, see app.debug.enabled)
+        authDebugFilter.ifAvailable(f -> http.addFilterBefore(f,
+                org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter.class));
 
         http
-                // Add our debug filter
-                .addFilterBefore(authDebugFilter, org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter.class)
-
                 // SPA dev: disable CSRF for now (we're using same-site session cookie)
                 .csrf(csrf -> csrf.disable())
 
@@ -45,25 +73,29 @@ public class SecurityConfig {
                         .requestMatchers(HttpMethod.GET, "/", "/error", "/api/public/**").permitAll()
                         // OAuth2 endpoints used during login
                         .requestMatchers("/oauth2/**", "/login/**").permitAll()
+                        // liveness for load balancers; the rest of Actuator (metrics, Prometheus) is local-only
+                        .requestMatchers("/actuator/health/**").permitAll()
+                        .requestMatchers("/actuator/**").access(LOCALHOST_ONLY)
+                        // bulk user reads for admin tooling / sync jobs
+                        .requestMatchers("/api/admin/**").access(new AdminAuthorizationManager(adminUserIds))
                         // H2 console (dev only)
                         .requestMatchers("/h2-console/**").permitAll()
                         // everything else requires auth
                         .anyRequest().authenticated()
                 )
 
-                .oauth2Login(oauth -> {
-                    System.out.println("🔧 Configuring OAuth2 login...");
-                    oauth
-                            // make sure our user provisioning runs (creates/updates DB user + avatar, etc.)
-                            .userInfoEndpoint(ui -> {
-                                System.out.println("🔧 Setting custom userService: " + appOAuth2UserService);
-                                ui.userService(appOAuth2UserService);
-                            })
-                            // after successful login, go back to the React profile page
-                            .defaultSuccessUrl(FRONTEND + "/profile", true)
-                            // on failure, land on Home with an error flag
-                            .failureUrl(FRONTEND + "/?error=oauth");
-                })
+                .oauth2Login(oauth -> oauth
+                        // make sure our user provisioning runs (creates/updates DB user + avatar, etc.)
+                        .userInfoEndpoint(ui -> ui.userService(appOAuth2UserService))
+                        // after successful login, go back to the React profile page
+                        .defaultSuccessUrl(FRONTEND + "/profile", true)
+                        // on failure, land on Home with an error flag; a refused account link goes back to the profile
+                        .failureHandler((request, response, e) -> response.sendRedirect(
+                                isLinkedElsewhere(e)
+                                        ? FRONTEND + "/profile?link-error=linked-elsewhere&provider="
+                                                + registrationId(request.getRequestURI())
+                                        : FRONTEND + "/?error=oauth"))
+                )
 
                 .logout(logout -> logout
                         // when logging out, send the browser back to Home with a logout flag
@@ -71,10 +103,49 @@ public class SecurityConfig {
                         .permitAll()
                 );
 
-        System.out.println("✅ SecurityConfig: Filter chain configured successfully");
+        // app.oauth2-store.type=memory|jdbc: the in-flight login lives in that store instead of the HttpSession
+        StoredAuthorizationRequestRepository authorizationRequests = storedAuthorizationRequests.getIfAvailable();
+        if (authorizationRequests != null) {
+            http.oauth2Login(oauth -> oauth
+                    .authorizationEndpoint(ae -> ae.authorizationRequestRepository(authorizationRequests)));
+        }
+
+        // Opt-in (app.session.mode=stateless): no HttpSession at all; the principal travels in a signed cookie
+        SessionTokenCodec tokens = sessionTokens.getIfAvailable();
+        if (tokens != null) {
+            log.info("Stateless session mode enabled");
+            http
+                    .sessionManagement(sm -> sm.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                    .requestCache(rc -> rc.requestCache(new NullRequestCache()))
+                    .addFilterBefore(new StatelessSessionFilter(tokens, sessionCookie),
+                            OAuth2AuthorizationRequestRedirectFilter.class)
+                    .oauth2Login(oauth -> oauth
+                            .authorizationEndpoint(ae -> ae.authorizationRequestRepository(
+                                    new HttpCookieOAuth2AuthorizationRequestRepository(tokens, secureCookie)))
+                            .successHandler(new SessionTokenSuccessHandler(tokens, sessionCookie, secureCookie,
+                                    FRONTEND + "/profile")))
+                    .logout(logout -> logout.deleteCookies(sessionCookie));
+        }
+
+        // Throttle before the OAuth2 filters call out to providers. Added last so that, in stateless mode,
+        // it runs after StatelessSessionFilter and sees the user.
+        RateLimiter limiter = rateLimiter.getIfAvailable();
+        if (limiter != null) {
+            http.addFilterBefore(new RateLimitFilter(limiter), OAuth2AuthorizationRequestRedirectFilter.class);
+        }
         return http.build();
     }
 
+    private static boolean isLinkedElsewhere(AuthenticationException e) {
+        return e instanceof OAuth2AuthenticationException o
+                && AppOAuth2UserService.LINKED_ELSEWHERE.equals(o.getError().getErrorCode());
+    }
+
+    // /login/oauth2/code/{registrationId}
+    private static String registrationId(String callbackUri) {
+        return UriUtils.encode(callbackUri.substring(callbackUri.lastIndexOf('/') + 1), StandardCharsets.UTF_8);
+    }
+
     @Bean
     CorsConfigurationSource corsConfigurationSource() {
         CorsConfiguration cfg = new CorsConfiguration();
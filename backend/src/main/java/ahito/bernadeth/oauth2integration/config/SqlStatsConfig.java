@@ -0,0 +1,53 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.metrics.CountingDataSource;
+import ahito.bernadeth.oauth2integration.metrics.SqlStatementsFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * {@code app.sql-stats}: SQL statements per request for the configured endpoints (see
+ * {@link SqlStatementsFilter}). The application's DataSource is wrapped in a {@link CountingDataSource}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.sql-stats.enabled", havingValue = "true", matchIfMissing = true)
+public class SqlStatsConfig {
+
+    // static: post-processors are created before the rest of the configuration
+    @Bean
+    static BeanPostProcessor countingDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof DataSource ds && !(bean instanceof CountingDataSource)
+                        ? new CountingDataSource(ds) : bean;
+            }
+        };
+    }
+
+    // ahead of Spring Security, so the login callback's provisioning is counted
+    @Bean
+    FilterRegistrationBean<SqlStatementsFilter> sqlStatementsFilter(Environment env, MeterRegistry registry,
+                                                                    @Value("${app.sql-stats.warn-threshold:20}")
+                                                                    int warnThreshold) {
+        Map<String, String> endpoints = Binder.get(env)
+                .bind("app.sql-stats.endpoints", Bindable.mapOf(String.class, String.class))
+                .orElse(Map.of());
+        FilterRegistrationBean<SqlStatementsFilter> registration =
+                new FilterRegistrationBean<>(new SqlStatementsFilter(endpoints, warnThreshold, registry));
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+        return registration;
+    }
+}
@@ -0,0 +1,41 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.security.SessionTokenCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Only active with {@code app.session.mode=stateless}; {@link SecurityConfig} switches the chain over
+ * to signed-token sessions when it finds the codec.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.session.mode", havingValue = "stateless")
+public class StatelessSessionConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(StatelessSessionConfig.class);
+
+    @Bean
+    SessionTokenCodec sessionTokenCodec(@Value("${app.session.token-secret:}") String secret,
+                                        @Value("${app.session.previous-token-secrets:}") List<String> previous,
+                                        @Value("${app.session.token-ttl:8h}") Duration ttl,
+                                        ObjectMapper mapper) {
+        if (secret.isBlank()) {
+            // fine for a single dev node; every node must share the same secret in production
+            byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            secret = Base64.getEncoder().encodeToString(random);
+            log.warn("app.session.token-secret is not set; using a random per-process secret");
+        }
+        return new SessionTokenCodec(secret, previous, ttl, mapper);
+    }
+}
@@ -0,0 +1,46 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.ProfileInvalidationBus;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import ahito.bernadeth.oauth2integration.user.UserRepository;
+import ahito.bernadeth.oauth2integration.web.CurrentUserArgumentResolver;
+import ahito.bernadeth.oauth2integration.web.ProfileStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final ProfileCache profiles;
+    private final UserRepository users;
+
+    public WebConfig(ProfileCache profiles, UserRepository users) {
+        this.profiles = profiles;
+        this.users = users;
+    }
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new CurrentUserArgumentResolver(profiles, users));
+    }
+
+    // a change is pushed from the cache when it has the profile (edits and logins on this node put it there)
+    @Bean
+    ProfileStream profileStream(ProfileInvalidationBus bus, ObjectMapper mapper,
+                                @Value("${app.profile-stream.max-subscribers:10000}") int maxSubscribers,
+                                @Value("${app.profile-stream.max-per-user:8}") int maxPerUser,
+                                @Value("${app.profile-stream.heartbeat-interval:25s}") Duration heartbeat,
+                                @Value("${app.profile-stream.slow-consumer-timeout:10s}") Duration slowConsumer,
+                                @Value("${app.profile-stream.writer-threads:4}") int writerThreads) {
+        return new ProfileStream(bus, id -> profiles.get(id, key -> users.findById(key).map(UserProfile::from)),
+                mapper, maxSubscribers, maxPerUser, heartbeat, slowConsumer, writerThreads);
+    }
+}
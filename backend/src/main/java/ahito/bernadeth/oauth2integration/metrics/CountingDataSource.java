@@ -0,0 +1,110 @@
+package ahito.bernadeth.oauth2integration.metrics;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Wraps the pool so that the statements executed inside a {@link SqlStatements} scope are counted and
+ * timed. Statements created outside a scope (background writers, start-up) are handed out unwrapped, so
+ * they cost nothing. {@link #unwrap} still reaches the pool, e.g. {@code HikariDataSource}.
+ */
+public class CountingDataSource extends DelegatingDataSource {
+
+    private static final ClassLoader LOADER = CountingDataSource.class.getClassLoader();
+
+    public CountingDataSource(DataSource target) {
+        super(target);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    private static Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(LOADER, new Class<?>[]{Connection.class},
+                new ConnectionHandler(connection));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+            }
+            Object result = CountingDataSource.invoke(target, method, args);
+            // createStatement, prepareStatement, prepareCall: the return type is the interface to proxy
+            if (result instanceof Statement && SqlStatements.active()) {
+                return Proxy.newProxyInstance(LOADER, new Class<?>[]{method.getReturnType()},
+                        new StatementHandler(result, (Connection) proxy));
+            }
+            return result;
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Object target;
+        private final Connection connection;
+
+        StatementHandler(Object target, Connection connection) {
+            this.target = target;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getConnection":
+                    return connection;
+                default:
+            }
+            if (!name.startsWith("execute")) {
+                return CountingDataSource.invoke(target, method, args);
+            }
+            long start = System.nanoTime();
+            try {
+                return CountingDataSource.invoke(target, method, args);
+            } finally {
+                SqlStatements.record(System.nanoTime() - start);
+            }
+        }
+    }
+}
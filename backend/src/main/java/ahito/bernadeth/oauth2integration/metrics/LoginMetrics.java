@@ -0,0 +1,86 @@
+package ahito.bernadeth.oauth2integration.metrics;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-provider login meters. Everything is registered up front, so recording is an array lookup and a
+ * lock-free histogram update, never a registry lookup.
+ * <ul>
+ *   <li>{@code login.stage} timer, tags {@code provider} and {@code stage}
+ *       ({@code userinfo}, {@code email_fetch}, {@code provisioning}, {@code total})</li>
+ *   <li>{@code login.users} counter, tag {@code outcome} = {@code new} | {@code returning}</li>
+ *   <li>{@code login.email.noreply_fallback} counter</li>
+ *   <li>{@code login.failures} counter</li>
+ * </ul>
+ */
+@Component
+public class LoginMetrics {
+
+    public enum Stage {
+        USERINFO, EMAIL_FETCH, PROVISIONING, TOTAL;
+
+        final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private final MeterRegistry registry;
+    private final Map<AuthProvider.Provider, Timer[]> timers = new EnumMap<>(AuthProvider.Provider.class);
+    private final Map<AuthProvider.Provider, Counter> newUsers = new EnumMap<>(AuthProvider.Provider.class);
+    private final Map<AuthProvider.Provider, Counter> returningUsers = new EnumMap<>(AuthProvider.Provider.class);
+    private final Map<AuthProvider.Provider, Counter> noreplyFallbacks = new EnumMap<>(AuthProvider.Provider.class);
+    private final Map<AuthProvider.Provider, Counter> failures = new EnumMap<>(AuthProvider.Provider.class);
+
+    public LoginMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (AuthProvider.Provider p : AuthProvider.Provider.values()) {
+            String provider = p.name().toLowerCase(Locale.ROOT);
+            Timer[] byStage = new Timer[Stage.values().length];
+            for (Stage s : Stage.values()) {
+                byStage[s.ordinal()] = Timer.builder("login.stage")
+                        .description("Time spent per login stage")
+                        .tag("provider", provider)
+                        .tag("stage", s.tag)
+                        .publishPercentileHistogram()
+                        .register(registry);
+            }
+            timers.put(p, byStage);
+            newUsers.put(p, Counter.builder("login.users").tag("provider", provider).tag("outcome", "new")
+                    .register(registry));
+            returningUsers.put(p, Counter.builder("login.users").tag("provider", provider).tag("outcome", "returning")
+                    .register(registry));
+            noreplyFallbacks.put(p, Counter.builder("login.email.noreply_fallback").tag("provider", provider)
+                    .description("Logins that fell back to a stand-in address (GitHub noreply)").register(registry));
+            failures.put(p, Counter.builder("login.failures").tag("provider", provider).register(registry));
+        }
+    }
+
+    /** Monotonic start timestamp for {@link #record}. */
+    public long start() {
+        return registry.config().clock().monotonicTime();
+    }
+
+    public void record(AuthProvider.Provider provider, Stage stage, long startedAt) {
+        timers.get(provider)[stage.ordinal()]
+                .record(registry.config().clock().monotonicTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+
+    public void loggedIn(AuthProvider.Provider provider, boolean newUser) {
+        (newUser ? newUsers : returningUsers).get(provider).increment();
+    }
+
+    public void noreplyFallback(AuthProvider.Provider provider) {
+        noreplyFallbacks.get(provider).increment();
+    }
+
+    public void failed(AuthProvider.Provider provider) {
+        failures.get(provider).increment();
+    }
+}
@@ -0,0 +1,68 @@
+package ahito.bernadeth.oauth2integration.metrics;
+
+/**
+ * Counts the JDBC statements run on the current thread while a {@link Scope} is open, and the time spent
+ * executing them. {@link CountingDataSource} reports into it, {@link SqlStatementsFilter} opens a scope
+ * per request, and tests open their own to hold code to a statement budget:
+ * <pre>
+ * try (SqlStatements.Scope sql = SqlStatements.open()) {
+ *     provisioning.provision(identity, LoginTrace.NOOP);
+ *     assertThat(sql.statements()).isLessThanOrEqualTo(2);
+ * }
+ * </pre>
+ * A batch counts once, as it is one round trip. Work handed to other threads (login events, last-login
+ * flushes) is not counted. Scopes nest; an outer scope counts everything its inner ones do.
+ */
+public final class SqlStatements {
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private SqlStatements() {
+    }
+
+    public static Scope open() {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    static boolean active() {
+        return CURRENT.get() != null;
+    }
+
+    static void record(long nanos) {
+        for (Scope s = CURRENT.get(); s != null; s = s.outer) {
+            s.statements++;
+            s.nanos += nanos;
+        }
+    }
+
+    public static final class Scope implements AutoCloseable {
+
+        private final Scope outer;
+        private int statements;
+        private long nanos;
+
+        private Scope(Scope outer) {
+            this.outer = outer;
+        }
+
+        public int statements() {
+            return statements;
+        }
+
+        /** Time spent in {@code execute*} calls, not counting reading the results. */
+        public long nanos() {
+            return nanos;
+        }
+
+        @Override
+        public void close() {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+}
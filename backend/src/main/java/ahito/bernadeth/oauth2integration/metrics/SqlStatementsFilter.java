@@ -0,0 +1,93 @@
+package ahito.bernadeth.oauth2integration.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the SQL statements of requests to the configured endpoints ({@code app.sql-stats.endpoints.<name>},
+ * one path pattern each), including the login callback, which provisions the user inside the security
+ * filter chain.
+ * <ul>
+ *   <li>{@code db.statements} summary, tag {@code endpoint}: statements per request</li>
+ *   <li>{@code db.statements.time} timer, tag {@code endpoint}: time spent executing them per request</li>
+ * </ul>
+ * Every request is logged at DEBUG on {@code sql.stats}; one running more than {@code warnThreshold}
+ * statements is logged at WARN, as that is usually a query in a loop.
+ */
+public class SqlStatementsFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger("sql.stats");
+
+    private record Endpoint(String name, PathPattern pattern, DistributionSummary statements, Timer time) {
+    }
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final int warnThreshold;
+
+    public SqlStatementsFilter(Map<String, String> endpoints, int warnThreshold, MeterRegistry registry) {
+        this.warnThreshold = warnThreshold;
+        endpoints.forEach((name, pattern) -> this.endpoints.add(new Endpoint(name,
+                PathPatternParser.defaultInstance.parse(pattern),
+                DistributionSummary.builder("db.statements")
+                        .description("SQL statements per request")
+                        .tag("endpoint", name)
+                        .register(registry),
+                Timer.builder("db.statements.time")
+                        .description("Time per request spent executing SQL statements")
+                        .tag("endpoint", name)
+                        .register(registry))));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Endpoint endpoint = match(request);
+        if (endpoint == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        try (SqlStatements.Scope sql = SqlStatements.open()) {
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                endpoint.statements().record(sql.statements());
+                endpoint.time().record(sql.nanos(), TimeUnit.NANOSECONDS);
+                if (sql.statements() > warnThreshold) {
+                    log.warn("{} {}: {} SQL statements in one request", request.getMethod(),
+                            request.getRequestURI(), sql.statements());
+                } else if (log.isDebugEnabled()) {
+                    log.debug("{} {}: {} SQL statements, {} us", request.getMethod(), request.getRequestURI(),
+                            sql.statements(), TimeUnit.NANOSECONDS.toMicros(sql.nanos()));
+                }
+            }
+        }
+    }
+
+    private Endpoint match(HttpServletRequest request) {
+        PathContainer path = PathContainer.parsePath(
+                request.getRequestURI().substring(request.getContextPath().length()));
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.pattern().matches(path)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+}
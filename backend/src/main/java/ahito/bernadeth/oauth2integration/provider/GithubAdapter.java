@@ -0,0 +1,56 @@
+package ahito.bernadeth.oauth2integration.provider;
+
+import ahito.bernadeth.oauth2integration.security.GithubEmailClient;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static ahito.bernadeth.oauth2integration.provider.ProviderAdapter.string;
+
+/**
+ * GitHub {@code /user}. The e-mail is often hidden there, so {@code /user/emails} runs alongside it, and
+ * the noreply address is the last resort. GitHub only shows a verified address on the profile, and the
+ * noreply address is GitHub's own, unique per account id.
+ */
+@Component
+public class GithubAdapter implements ProviderAdapter {
+
+    private final GithubEmailClient emails;
+
+    public GithubAdapter(GithubEmailClient emails) {
+        this.emails = emails;
+    }
+
+    @Override
+    public String registrationId() {
+        return "github";
+    }
+
+    @Override
+    public AuthProvider.Provider provider() {
+        return AuthProvider.Provider.GITHUB;
+    }
+
+    @Override
+    public ProviderAccount extract(Map<String, Object> a) {
+        String login = string(a.get("login"));
+        String name = string(a.get("name"));
+        String id = string(a.get("id"));
+        return new ProviderAccount(id, string(a.get("email")), true,
+                name != null ? name : login != null ? login : "GitHub User",
+                string(a.get("avatar_url")),
+                login != null ? id + "+" + login + "@users.noreply.github.com" : null);
+    }
+
+    @Override
+    public boolean needsEmailFetch() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<String> fetchEmail(String accessToken) {
+        return emails.fetchPrimaryEmail(accessToken);
+    }
+}
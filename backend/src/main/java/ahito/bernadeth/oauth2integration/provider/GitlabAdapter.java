@@ -0,0 +1,36 @@
+package ahito.bernadeth.oauth2integration.provider;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+import static ahito.bernadeth.oauth2integration.provider.ProviderAdapter.string;
+
+/**
+ * GitLab {@code /api/v4/user} (scope {@code read_user}), which includes the primary e-mail, so no
+ * secondary fetch. GitLab lets an account set an address before confirming it, so the e-mail is only
+ * verified once {@code confirmed_at} is set.
+ */
+@Component
+public class GitlabAdapter implements ProviderAdapter {
+
+    @Override
+    public String registrationId() {
+        return "gitlab";
+    }
+
+    @Override
+    public AuthProvider.Provider provider() {
+        return AuthProvider.Provider.GITLAB;
+    }
+
+    @Override
+    public ProviderAccount extract(Map<String, Object> a) {
+        String username = string(a.get("username"));
+        String name = string(a.get("name"));
+        return new ProviderAccount(string(a.get("id")), string(a.get("email")), a.get("confirmed_at") != null,
+                name != null ? name : username != null ? username : "GitLab User",
+                string(a.get("avatar_url")), null);
+    }
+}
@@ -0,0 +1,34 @@
+package ahito.bernadeth.oauth2integration.provider;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+import static ahito.bernadeth.oauth2integration.provider.ProviderAdapter.string;
+
+/**
+ * Google OpenID userinfo: {@code sub}, {@code email}, {@code name}, {@code picture}. The e-mail only counts
+ * as verified with {@code email_verified}.
+ */
+@Component
+public class GoogleAdapter implements ProviderAdapter {
+
+    @Override
+    public String registrationId() {
+        return "google";
+    }
+
+    @Override
+    public AuthProvider.Provider provider() {
+        return AuthProvider.Provider.GOOGLE;
+    }
+
+    @Override
+    public ProviderAccount extract(Map<String, Object> a) {
+        String email = string(a.get("email"));
+        String name = string(a.get("name"));
+        return new ProviderAccount(string(a.get("sub")), email, Boolean.TRUE.equals(a.get("email_verified")),
+                name != null ? name : email, string(a.get("picture")), null);
+    }
+}
@@ -0,0 +1,59 @@
+package ahito.bernadeth.oauth2integration.provider;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static ahito.bernadeth.oauth2integration.provider.ProviderAdapter.string;
+
+/**
+ * Microsoft Graph {@code /v1.0/me} (scope {@code User.Read}). {@code mail} is empty for many personal and
+ * unlicensed accounts; the sign-in name ({@code userPrincipalName}) is an address too, so it stands in.
+ * Graph serves the photo as binary from a separate endpoint, so there is no avatar URL.
+ * <p>
+ * Neither is proof of ownership: a tenant admin can put any address in {@code mail} or the sign-in name,
+ * and Graph says nothing about it. The e-mail only counts as verified when its domain is one of
+ * {@code app.microsoft.verified-email-domains}, i.e. domains of tenants we trust.
+ */
+@Component
+public class MicrosoftAdapter implements ProviderAdapter {
+
+    private final Set<String> verifiedDomains;
+
+    public MicrosoftAdapter(@Value("${app.microsoft.verified-email-domains:}") Collection<String> verifiedDomains) {
+        this.verifiedDomains = verifiedDomains.stream()
+                .map(String::trim)
+                .filter(d -> !d.isEmpty())
+                .map(d -> d.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    @Override
+    public String registrationId() {
+        return "microsoft";
+    }
+
+    @Override
+    public AuthProvider.Provider provider() {
+        return AuthProvider.Provider.MICROSOFT;
+    }
+
+    @Override
+    public ProviderAccount extract(Map<String, Object> a) {
+        String mail = string(a.get("mail"));
+        String upn = string(a.get("userPrincipalName"));
+        if (mail == null && upn != null && upn.indexOf('@') > 0) {
+            mail = upn;
+        }
+        boolean verified = mail != null
+                && verifiedDomains.contains(mail.substring(mail.lastIndexOf('@') + 1).toLowerCase(Locale.ROOT));
+        String name = string(a.get("displayName"));
+        return new ProviderAccount(string(a.get("id")), mail, verified, name != null ? name : mail, null, null);
+    }
+}
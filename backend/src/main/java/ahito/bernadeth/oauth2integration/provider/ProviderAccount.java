@@ -0,0 +1,14 @@
+package ahito.bernadeth.oauth2integration.provider;
+
+/**
+ * A provider's userinfo attributes, normalized.
+ *
+ * @param email         null if the provider didn't include one
+ * @param emailVerified whether the provider vouches that the account owns {@code email}; only then may a
+ *                      login be matched to an existing user by it
+ * @param fallbackEmail stand-in address if neither userinfo nor the secondary fetch produce an e-mail
+ *                      (GitHub's noreply address), or null
+ */
+public record ProviderAccount(String providerUserId, String email, boolean emailVerified, String name,
+                              String picture, String fallbackEmail) {
+}
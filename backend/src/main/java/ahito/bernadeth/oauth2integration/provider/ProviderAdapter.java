@@ -0,0 +1,37 @@
+package ahito.bernadeth.oauth2integration.provider;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Everything provider-specific about a login: which client registration it serves, how its userinfo
+ * attributes map onto an account, and whether the e-mail needs a second call. Adapters are Spring beans;
+ * {@link ProviderAdapters} picks them up by {@link #registrationId()}.
+ */
+public interface ProviderAdapter {
+
+    /** {@code spring.security.oauth2.client.registration.<id>} this adapter handles. */
+    String registrationId();
+
+    AuthProvider.Provider provider();
+
+    /** Reads each attribute once; {@link ProviderAccount#email()} may be null if the provider hid it. */
+    ProviderAccount extract(Map<String, Object> attributes);
+
+    /** True if {@link #fetchEmail} should be started, before the userinfo call so the two overlap. */
+    default boolean needsEmailFetch() {
+        return false;
+    }
+
+    /** Secondary e-mail lookup; completes with null when there is none. */
+    default CompletableFuture<String> fetchEmail(String accessToken) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /** String value of an attribute without a cast; ids come back as numbers from some providers. */
+    static String string(Object value) {
+        return value == null ? null : value instanceof String s ? s : value.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package ahito.bernadeth.oauth2integration.provider;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registration id → {@link ProviderAdapter}, built once at startup. Startup fails if a configured client
+ * registration has no adapter, instead of that provider's logins being normalized as somebody else's.
+ */
+@Component
+public class ProviderAdapters {
+
+    private final Map<String, ProviderAdapter> byRegistration = new HashMap<>();
+
+    public ProviderAdapters(List<ProviderAdapter> adapters,
+                            ObjectProvider<ClientRegistrationRepository> registrations) {
+        for (ProviderAdapter adapter : adapters) {
+            ProviderAdapter clash = byRegistration.put(adapter.registrationId(), adapter);
+            if (clash != null) {
+                throw new IllegalStateException("Two adapters for registration '" + adapter.registrationId() + "': "
+                        + clash.getClass().getSimpleName() + ", " + adapter.getClass().getSimpleName());
+            }
+        }
+        if (registrations.getIfAvailable() instanceof Iterable<?> configured) {
+            List<String> missing = new ArrayList<>();
+            for (Object r : configured) {
+                String id = ((ClientRegistration) r).getRegistrationId();
+                if (!byRegistration.containsKey(id)) missing.add(id);
+            }
+            if (!missing.isEmpty()) {
+                throw new IllegalStateException("No provider adapter for OAuth2 registration(s) " + missing);
+            }
+        }
+    }
+
+    /** @throws OAuth2AuthenticationException ({@code unsupported_provider}) for an unknown registration */
+    public ProviderAdapter forRegistration(String registrationId) {
+        ProviderAdapter adapter = byRegistration.get(registrationId);
+        if (adapter == null) {
+            throw new OAuth2AuthenticationException(new OAuth2Error("unsupported_provider",
+                    "No provider adapter for registration '" + registrationId + "'", null));
+        }
+        return adapter;
+    }
+}
@@ -0,0 +1,91 @@
+package ahito.bernadeth.oauth2integration.ratelimit;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory buckets, lock-free. Each key is one {@code long}, its GCRA "theoretical arrival time": the
+ * instant the bucket will be full again. Taking a token is a compare-and-set that pushes it forward by
+ * one interval; it is refused if that would put it more than a full bucket ahead of now.
+ * <p>
+ * A key whose time has passed is a full bucket, which is what an absent key means too, so idle keys can
+ * be dropped without changing any answer. The map is swept when it grows past {@code maxKeys}. If it is
+ * still full (a spray of distinct keys), arbitrary keys go as well. Memory stays bounded, at the cost of
+ * forgetting some partly drained buckets. A request racing the sweep on a key that is being dropped may
+ * go uncounted, too.
+ * <p>
+ * Several limiters (nodes) wired to the same instance share their counters, which is how the tests and
+ * benchmarks stand in for a shared store.
+ */
+public class LocalRateLimitStore implements RateLimitStore {
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final AtomicLong evictions = new AtomicLong();
+    private final int maxKeys;
+    private final LongSupplier nanoClock;
+
+    public LocalRateLimitStore(int maxKeys) {
+        this(maxKeys, System::nanoTime);
+    }
+
+    LocalRateLimitStore(int maxKeys, LongSupplier nanoClock) {
+        this.maxKeys = maxKeys;
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public long tryAcquire(String key, RateLimit limit) {
+        long now = nanoClock.getAsLong();
+        AtomicLong tat = buckets.get(key);
+        if (tat == null) {
+            if (buckets.size() >= maxKeys) {
+                sweep(now);
+            }
+            tat = buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+        }
+        long interval = limit.intervalNanos();
+        long burst = limit.burstNanos();
+        for (;;) {
+            long current = tat.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - burst;
+            if (wait > 0) {
+                return wait;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    // one sweeper at a time; everybody else just inserts (the map may overshoot maxKeys briefly)
+    private void sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int before = buckets.size();
+            buckets.values().removeIf(tat -> tat.get() <= now);
+            int target = maxKeys - maxKeys / 4;
+            for (Iterator<AtomicLong> it = buckets.values().iterator(); it.hasNext() && buckets.size() > target; ) {
+                it.next();
+                it.remove();
+            }
+            evictions.addAndGet(Math.max(0, before - buckets.size()));
+        } finally {
+            sweeping.set(false);
+        }
+    }
+}
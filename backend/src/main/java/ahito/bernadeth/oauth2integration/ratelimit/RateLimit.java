@@ -0,0 +1,26 @@
+package ahito.bernadeth.oauth2integration.ratelimit;
+
+import java.time.Duration;
+
+/**
+ * {@code limit} requests per {@code period}: a token bucket holding {@code limit} tokens that refills one
+ * token every {@code period / limit}.
+ */
+public record RateLimit(int limit, Duration period) {
+
+    public RateLimit {
+        if (limit < 1 || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("rate limit needs limit >= 1 and a positive period: " + limit + "/" + period);
+        }
+    }
+
+    /** Time it takes to earn back one token. */
+    public long intervalNanos() {
+        return Math.max(1, period.toNanos() / limit);
+    }
+
+    /** How far ahead of real time a bucket may run: a full bucket's worth. */
+    public long burstNanos() {
+        return intervalNanos() * limit;
+    }
+}
@@ -0,0 +1,45 @@
+package ahito.bernadeth.oauth2integration.ratelimit;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers {@code 429} with {@code Retry-After} once a rule's bucket is empty, before the request reaches
+ * the OAuth2 filters (and so the provider) or the controllers (and so the database).
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final byte[] BODY = "{\"ok\":false,\"error\":\"rate-limited\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final RateLimiter limiter;
+
+    public RateLimitFilter(RateLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RateLimiter.Rejection rejected = limiter.check(request);
+        if (rejected == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(rejected.retryAfterNanos() + 999_999_999L));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(seconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(BODY.length);
+        response.getOutputStream().write(BODY);
+    }
+}
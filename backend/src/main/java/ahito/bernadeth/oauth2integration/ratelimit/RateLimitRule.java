@@ -0,0 +1,24 @@
+package ahito.bernadeth.oauth2integration.ratelimit;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * One {@code app.rate-limit.rules.<name>.*} entry: which requests it covers, what a bucket is keyed by,
+ * and the limit per bucket. Every matching rule must have a token for a request to go through.
+ *
+ * @param paths   path patterns ({@code /login/oauth2/code/*})
+ * @param methods HTTP methods covered; empty means all
+ * @param key     what a bucket is per; several parts make a combined key (per IP <em>and</em> provider)
+ */
+public record RateLimitRule(List<String> paths, List<String> methods, List<Key> key, int limit, Duration period) {
+
+    public enum Key {
+        /** client address, as Tomcat sees it (set {@code server.forward-headers-strategy} behind a proxy) */
+        IP,
+        /** our user id once logged in; anonymous requests fall back to their IP */
+        USER,
+        /** the registration id at the end of an OAuth2 path ({@code /oauth2/authorization/github}) */
+        PROVIDER
+    }
+}
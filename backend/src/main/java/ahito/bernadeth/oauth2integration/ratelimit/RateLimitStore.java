@@ -0,0 +1,16 @@
+package ahito.bernadeth.oauth2integration.ratelimit;
+
+/**
+ * Where the buckets live. The default is {@link LocalRateLimitStore}, one per node; to share counters
+ * between nodes, drop in an implementation backed by a shared store (e.g. Redis running the same
+ * GCRA update in a script) as a bean.
+ */
+public interface RateLimitStore {
+
+    /**
+     * Takes one token from {@code key}'s bucket.
+     *
+     * @return 0 if the request may go ahead, otherwise the nanoseconds until a token is available
+     */
+    long tryAcquire(String key, RateLimit limit);
+}
@@ -0,0 +1,117 @@
+package ahito.bernadeth.oauth2integration.ratelimit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.server.PathContainer;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the configured {@link RateLimitRule}s to a request, taking tokens from the {@link RateLimitStore}.
+ * Requests no rule matches cost one path parse and a few pattern matches, nothing else.
+ */
+public class RateLimiter implements MeterBinder {
+
+    /** The rule that refused a request, and how long until it would let it through. */
+    public record Rejection(String rule, long retryAfterNanos) {
+    }
+
+    private record Route(String name, List<PathPattern> paths, Set<String> methods, List<RateLimitRule.Key> key,
+                         RateLimit limit, AtomicLong rejected) {
+
+        boolean matches(HttpServletRequest request, PathContainer path) {
+            if (!methods.isEmpty() && !methods.contains(request.getMethod())) {
+                return false;
+            }
+            for (PathPattern pattern : paths) {
+                if (pattern.matches(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final List<Route> routes = new ArrayList<>();
+    private final RateLimitStore store;
+
+    public RateLimiter(Map<String, RateLimitRule> rules, RateLimitStore store) {
+        this.store = store;
+        rules.forEach((name, rule) -> {
+            if (rule.paths() == null || rule.paths().isEmpty() || rule.key() == null || rule.key().isEmpty()) {
+                throw new IllegalStateException("app.rate-limit.rules." + name + " needs paths and key");
+            }
+            List<PathPattern> paths = rule.paths().stream().map(PathPatternParser.defaultInstance::parse).toList();
+            Set<String> methods = rule.methods() == null ? Set.of() : rule.methods().stream()
+                    .map(m -> m.toUpperCase(Locale.ROOT)).collect(Collectors.toUnmodifiableSet());
+            routes.add(new Route(name, paths, methods, List.copyOf(rule.key()),
+                    new RateLimit(rule.limit(), rule.period()), new AtomicLong()));
+        });
+    }
+
+    /** Returns {@code null} if the request may go ahead. */
+    public Rejection check(HttpServletRequest request) {
+        PathContainer path = PathContainer.parsePath(
+                request.getRequestURI().substring(request.getContextPath().length()));
+        for (Route route : routes) {
+            if (!route.matches(request, path)) {
+                continue;
+            }
+            long wait = store.tryAcquire(key(route, request), route.limit());
+            if (wait > 0) {
+                route.rejected().incrementAndGet();
+                return new Rejection(route.name(), wait);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Route route : routes) {
+            FunctionCounter.builder("rate.limit.rejected", route.rejected(), AtomicLong::get)
+                    .tag("rule", route.name()).register(registry);
+        }
+    }
+
+    private static String key(Route route, HttpServletRequest request) {
+        StringBuilder key = new StringBuilder(64).append(route.name());
+        for (RateLimitRule.Key part : route.key()) {
+            key.append('|');
+            switch (part) {
+                case IP -> key.append(request.getRemoteAddr());
+                case USER -> {
+                    Object id = userId();
+                    if (id != null) {
+                        key.append('u').append(id);
+                    } else {
+                        key.append(request.getRemoteAddr());
+                    }
+                }
+                case PROVIDER -> {
+                    String uri = request.getRequestURI();
+                    key.append(uri, uri.lastIndexOf('/') + 1, uri.length());
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    private static Object userId() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null && auth.getPrincipal() instanceof OAuth2User user ? user.getAttribute("id") : null;
+    }
+}
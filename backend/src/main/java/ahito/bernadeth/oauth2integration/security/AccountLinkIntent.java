@@ -0,0 +1,56 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.web.util.WebUtils;
+
+import java.time.Duration;
+
+/**
+ * "The next login with this provider is to be linked to the signed-in user", carried across the provider
+ * redirect in a short-lived cookie. Set by {@code POST /api/account/links/{registrationId}}, consumed by
+ * {@link AppOAuth2UserService}.
+ * <p>
+ * Not signed: it only counts when the callback request is still authenticated as the same user, so a
+ * forged cookie can at most link an identity its owner just authenticated with to their own account.
+ */
+public record AccountLinkIntent(long userId, String registrationId, boolean merge) {
+
+    static final String COOKIE_NAME = "ACCOUNT_LINK";
+    private static final Duration MAX_AGE = Duration.ofMinutes(5);
+
+    public void write(HttpServletResponse response, boolean secure) {
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie(userId + "." + registrationId + "." + (merge ? 1 : 0),
+                MAX_AGE, secure).toString());
+    }
+
+    /** @return the intent on the request, or {@code null} if there is none or it is malformed */
+    public static AccountLinkIntent read(HttpServletRequest request) {
+        Cookie cookie = WebUtils.getCookie(request, COOKIE_NAME);
+        if (cookie == null) {
+            return null;
+        }
+        String[] parts = cookie.getValue().split("\\.");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new AccountLinkIntent(Long.parseLong(parts[0]), parts[1], "1".equals(parts[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static void clear(HttpServletResponse response, boolean secure) {
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie("", Duration.ZERO, secure).toString());
+    }
+
+    private static ResponseCookie cookie(String value, Duration maxAge, boolean secure) {
+        // Lax: the provider's redirect back to /login/oauth2/code/* is a top-level GET, so it carries the cookie
+        return ResponseCookie.from(COOKIE_NAME, value).path("/").httpOnly(true).secure(secure).sameSite("Lax")
+                .maxAge(maxAge).build();
+    }
+}
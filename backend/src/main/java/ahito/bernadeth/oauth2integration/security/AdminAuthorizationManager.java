@@ -0,0 +1,48 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
+import org.springframework.security.authorization.AuthorizationResult;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.security.web.access.intercept.RequestAuthorizationContext;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Grants the admin API to logged-in users whose id is listed in {@code app.admin-user-ids}.
+ * <p>
+ * The id, not the e-mail: an e-mail only says what some provider reported, while the id is the account
+ * the login resolved to. Checked per request against the principal rather than baked into authorities at
+ * login, so it works the same for HttpSession and stateless-token sessions and a list change needs no
+ * re-login.
+ */
+public class AdminAuthorizationManager implements AuthorizationManager<RequestAuthorizationContext> {
+
+    private final Set<Long> adminUserIds;
+
+    public AdminAuthorizationManager(Collection<Long> adminUserIds) {
+        this.adminUserIds = Set.copyOf(adminUserIds);
+    }
+
+    @Override
+    public AuthorizationResult authorize(Supplier<Authentication> authentication, RequestAuthorizationContext context) {
+        return new AuthorizationDecision(isAdmin(authentication.get()));
+    }
+
+    // still abstract in Spring Security 6, but only reached through authorize
+    @Override
+    @Deprecated
+    public AuthorizationDecision check(Supplier<Authentication> authentication, RequestAuthorizationContext context) {
+        return new AuthorizationDecision(isAdmin(authentication.get()));
+    }
+
+    private boolean isAdmin(Authentication auth) {
+        if (auth == null || !auth.isAuthenticated() || !(auth.getPrincipal() instanceof OAuth2User user)) {
+            return false;
+        }
+        return user.getAttribute("id") instanceof Number id && adminUserIds.contains(id.longValue());
+    }
+}
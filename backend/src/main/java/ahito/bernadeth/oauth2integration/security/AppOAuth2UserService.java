@@ -1,253 +1,201 @@
 package ahito.bernadeth.oauth2integration.security;
 
+import ahito.bernadeth.oauth2integration.audit.LoginEventJournal;
+import ahito.bernadeth.oauth2integration.avatar.AvatarService;
+import ahito.bernadeth.oauth2integration.metrics.LoginMetrics;
+import ahito.bernadeth.oauth2integration.provider.ProviderAccount;
+import ahito.bernadeth.oauth2integration.provider.ProviderAdapter;
+import ahito.bernadeth.oauth2integration.provider.ProviderAdapters;
+import ahito.bernadeth.oauth2integration.trace.LoginStage;
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.trace.LoginTracer;
+import ahito.bernadeth.oauth2integration.user.AccountLinkService;
 import ahito.bernadeth.oauth2integration.user.AuthProvider;
-import ahito.bernadeth.oauth2integration.user.AuthProviderRepository;
-import ahito.bernadeth.oauth2integration.user.User;
-import ahito.bernadeth.oauth2integration.user.UserRepository;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.*;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.ProviderIdentity;
+import ahito.bernadeth.oauth2integration.user.ProvisionedUser;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.client.userinfo.DefaultOAuth2UserService;
 import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
 import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class AppOAuth2UserService extends DefaultOAuth2UserService {
 
-    private final UserRepository users;
-    private final AuthProviderRepository authProviders;
-
-    public AppOAuth2UserService(UserRepository users, AuthProviderRepository authProviders) {
-        this.users = users;
-        this.authProviders = authProviders;
-        System.out.println("🏗️  AppOAuth2UserService CONSTRUCTOR called!");
-        System.out.println("🏗️  Instance: " + this);
+    private static final Logger log = LoggerFactory.getLogger(AppOAuth2UserService.class);
+
+    /** OAuth2 error code of a link attempt for an identity that belongs to another account. */
+    public static final String LINKED_ELSEWHERE = "account_linked_elsewhere";
+
+    private final UserProvisioningService provisioning;
+    private final ProfileCache profiles;
+    private final ProviderAdapters adapters;
+    private final LoginTracer tracer;
+    private final LoginMetrics metrics;
+    private final LoginEventJournal events;
+    private final AvatarService avatars;
+    private final AccountLinkService links;
+
+    public AppOAuth2UserService(UserProvisioningService provisioning, ProfileCache profiles,
+                                ProviderAdapters adapters, LoginTracer tracer, LoginMetrics metrics,
+                                LoginEventJournal events, AvatarService avatars, AccountLinkService links) {
+        this.provisioning = provisioning;
+        this.profiles = profiles;
+        this.adapters = adapters;
+        this.tracer = tracer;
+        this.metrics = metrics;
+        this.events = events;
+        this.avatars = avatars;
+        this.links = links;
     }
 
+    /**
+     * Runs without a transaction: the provider round-trips (userinfo, plus the adapter's e-mail fetch if it
+     * needs one) happen here, and the DB work is delegated to {@link UserProvisioningService#provision} at the very end.
+     */
     @Override
-    @Transactional
     public OAuth2User loadUser(OAuth2UserRequest req) {
-        System.out.println("\n========================================");
-        System.out.println("🚀 OAUTH2 LOGIN STARTED - loadUser() CALLED!");
-        System.out.println("🚀 This instance: " + this);
-        System.out.println("🚀 Request: " + req);
-        System.out.println("========================================");
-
-        OAuth2User o = super.loadUser(req);
-
-        // Which provider? ("google" | "github")
         final String regId = req.getClientRegistration().getRegistrationId();
-        System.out.println("🔍 Provider Registration ID: " + regId);
-
-        final AuthProvider.Provider providerType =
-                "github".equalsIgnoreCase(regId) ? AuthProvider.Provider.GITHUB : AuthProvider.Provider.GOOGLE;
-        System.out.println("📋 Provider Type Enum: " + providerType);
-
-        // Normalize attributes
-        Map<String, Object> a = o.getAttributes();
-        System.out.println("📦 Raw OAuth2 Attributes: " + a.keySet());
-
-        String providerUserId;
-        String email;
-        String name;
-        String picture = null;
-
-        if (providerType == AuthProvider.Provider.GITHUB) {
-            System.out.println("\n--- Processing GITHUB Login ---");
-            providerUserId = String.valueOf(a.get("id"));
-            System.out.println("🆔 GitHub User ID: " + providerUserId);
-
-            email = (String) a.get("email");
-            System.out.println("📧 GitHub email from attributes: " + email);
-
-            if (email == null) {
-                System.out.println("⚠️  Email is null, fetching from GitHub API...");
-                email = fetchGithubPrimaryEmail(req);
-                System.out.println("📧 Fetched email from API: " + email);
-            }
-            if (email == null && a.get("login") != null) {
-                email = a.get("login") + "@users.noreply.github.com";
-                System.out.println("📧 Using fallback noreply email: " + email);
-            }
-            Object ghName = a.get("name");
-            Object login = a.get("login");
-            name = ghName != null ? ghName.toString() : (login != null ? login.toString() : "GitHub User");
-            picture = (String) a.get("avatar_url");
-
-        } else {
-            System.out.println("\n--- Processing GOOGLE Login ---");
-            providerUserId = (String) a.get("sub");
-            System.out.println("🆔 Google User ID (sub): " + providerUserId);
-
-            email = (String) a.get("email");
-            System.out.println("📧 Google email: " + email);
-
-            Object nm = a.get("name");
-            name = nm != null ? nm.toString() : email;
-            picture = (String) a.get("picture");
-        }
+        final ProviderAdapter adapter = adapters.forRegistration(regId);
+        final AuthProvider.Provider providerType = adapter.provider();
 
-        System.out.println("\n--- Extracted User Info ---");
-        System.out.println("👤 Name: " + name);
-        System.out.println("📧 Email: " + email);
-        System.out.println("🖼️  Picture URL: " + picture);
-        System.out.println("🆔 Provider User ID: " + providerUserId);
-
-        // ----- Find or create local user -----
-        System.out.println("\n--- Finding/Creating User ---");
-        User user = users.findByEmail(email).orElse(null);
-
-        if (user == null) {
-            System.out.println("➕ User not found, creating new user...");
-            User nu = new User();
-            nu.setEmail(email);
-            nu.setDisplayName(name);
-            nu.setAvatarUrl(picture);
-            nu.setBio(null);
-            user = users.save(nu);
-            System.out.println("✅ New user created with ID: " + user.getId());
-        } else {
-            System.out.println("✅ Existing user found with ID: " + user.getId());
+        long started = metrics.start();
+        LoginTrace trace = tracer.start(regId);
+        try {
+            OAuth2User principal = loadUser(req, regId, adapter, trace);
+            metrics.record(providerType, LoginMetrics.Stage.TOTAL, started);
+            return principal;
+        } catch (RuntimeException e) {
+            metrics.failed(providerType);
+            throw e;
+        } finally {
+            tracer.finish(trace);
         }
+    }
 
-        // Keep user info up to date
-        boolean changed = false;
-        if (name != null && !name.equals(user.getDisplayName())) {
-            System.out.println("🔄 Updating display name: " + user.getDisplayName() + " → " + name);
-            user.setDisplayName(name);
-            changed = true;
-        }
-        if (picture != null && (user.getAvatarUrl() == null || !picture.equals(user.getAvatarUrl()))) {
-            System.out.println("🔄 Updating avatar URL");
-            user.setAvatarUrl(picture);
-            changed = true;
+    private OAuth2User loadUser(OAuth2UserRequest req, String regId, ProviderAdapter adapter, LoginTrace trace) {
+        log.debug("OAuth2 login started: registration={}", regId);
+        final AuthProvider.Provider providerType = adapter.provider();
+
+        // e.g. GitHub often hides the e-mail from /user, so start /user/emails now and let it overlap with userinfo
+        CompletableFuture<String> fetchedEmail = adapter.needsEmailFetch()
+                ? adapter.fetchEmail(req.getAccessToken().getTokenValue())
+                : null;
+
+        long stageStart = metrics.start();
+        trace.begin(LoginStage.USERINFO_FETCH);
+        OAuth2User o = fetchUserInfo(req);
+        trace.end(LoginStage.USERINFO_FETCH);
+        metrics.record(providerType, LoginMetrics.Stage.USERINFO, stageStart);
+
+        ProviderAccount account = adapter.extract(o.getAttributes());
+        String email = account.email();
+        boolean emailVerified = account.emailVerified();
+        if (email == null && fetchedEmail != null) {
+            stageStart = metrics.start();
+            trace.begin(LoginStage.EMAIL_FETCH);
+            email = fetchedEmail.join(); // verified addresses only
+            emailVerified = true;
+            trace.end(LoginStage.EMAIL_FETCH);
+            metrics.record(providerType, LoginMetrics.Stage.EMAIL_FETCH, stageStart);
         }
-        if (changed) {
-            users.save(user);
-            System.out.println("✅ User info updated");
+        if (email == null && account.fallbackEmail() != null) {
+            // the provider's own stand-in for this account, so no one else can come with it
+            email = account.fallbackEmail();
+            emailVerified = true;
+            trace.emailFallback();
+            metrics.noreplyFallback(providerType);
+            log.debug("No {} e-mail available for {}, using {}", regId, account.providerUserId(), email);
         }
 
-        // Ensure AuthProvider record exists for this user + provider
-        System.out.println("\n--- Checking AuthProvider Record ---");
-        System.out.println("🔍 Looking for: Provider=" + providerType + ", ProviderUserId=" + providerUserId);
-
-        Optional<AuthProvider> existing =
-                authProviders.findByProviderAndProviderUserId(providerType, providerUserId);
-
-        System.out.println("🔍 Existing AuthProvider found: " + existing.isPresent());
-
-        if (existing.isEmpty()) {
-            System.out.println("➕ Creating new AuthProvider record...");
-            System.out.println("   - Provider: " + providerType);
-            System.out.println("   - Provider User ID: " + providerUserId);
-            System.out.println("   - Provider Email: " + email);
-            System.out.println("   - Linked to User ID: " + user.getId());
-
-            try {
-                AuthProvider link = AuthProvider.builder()
-                        .provider(providerType)
-                        .providerUserId(providerUserId)
-                        .providerEmail(email)
-                        .user(user)
-                        .build();
-
-                AuthProvider saved = authProviders.save(link);
-                System.out.println("✅ AuthProvider saved with ID: " + saved.getId());
-
-            } catch (Exception e) {
-                System.err.println("❌ ERROR saving AuthProvider: " + e.getMessage());
-                e.printStackTrace();
-                throw e;
-            }
-        } else {
-            System.out.println("✅ AuthProvider record already exists with ID: " + existing.get().getId());
-        }
+        // Provider calls are done; only now borrow a connection, and only for the provisioning tx
+        stageStart = metrics.start();
+        ProviderIdentity identity =
+                new ProviderIdentity(providerType, account.providerUserId(), email, emailVerified, account.name(),
+                        account.picture());
+        AccountLinkIntent intent = linkIntent(regId);
+        ProvisionedUser provisioned = intent != null
+                ? link(intent, identity)
+                : provisioning.provision(identity, trace);
+        metrics.record(providerType, LoginMetrics.Stage.PROVISIONING, stageStart);
+        UserProfile user = provisioned.profile();
+        trace.user(user.id(), provisioned.created());
+        metrics.loggedIn(providerType, provisioned.created());
+        // audit trail; hands off to the journal's writer thread, never waits on the DB
+        events.record(user.id(), providerType, provisioned.created());
+
+        // warm the /api/me cache (after commit) so the SPA's first poll after the redirect doesn't hit the DB
+        profiles.put(user);
+        // new user or a new picture URL: have /api/avatar ready before the SPA asks (no-op if already cached)
+        avatars.prefetch(user.avatarUrl());
 
         // Return unified principal
-        System.out.println("\n--- Creating OAuth2User Principal ---");
         Map<String, Object> principalAttrs = Map.of(
-                "id", user.getId(),
-                "email", user.getEmail(),
-                "name", user.getDisplayName(),
-                "picture", user.getAvatarUrl() != null ? user.getAvatarUrl() : ""
+                "id", user.id(),
+                "email", user.email(),
+                "name", user.displayName(),
+                "picture", user.avatarUrl() != null ? user.avatarUrl() : ""
         );
-        System.out.println("📋 Principal attributes: " + principalAttrs);
 
-        DefaultOAuth2User principal = new DefaultOAuth2User(
+        log.debug("OAuth2 login completed: registration={} userId={} newUser={}",
+                regId, user.id(), provisioned.created());
+        return new DefaultOAuth2User(
                 Set.of(new SimpleGrantedAuthority("ROLE_USER")),
                 principalAttrs,
                 "email"
         );
+    }
 
-        System.out.println("✅ OAuth2User created successfully");
-        System.out.println("========================================");
-        System.out.println("🎉 OAUTH2 LOGIN COMPLETED");
-        System.out.println("========================================\n");
-
-        return principal;
+    // "Link another account" started from the profile page: the identity joins the signed-in user
+    private ProvisionedUser link(AccountLinkIntent intent, ProviderIdentity identity) {
+        AccountLinkService.LinkOutcome outcome = links.link(intent.userId(), identity, intent.merge());
+        if (outcome.result() == AccountLinkService.LinkResult.LINKED_ELSEWHERE) {
+            throw new OAuth2AuthenticationException(new OAuth2Error(LINKED_ELSEWHERE,
+                    "This " + intent.registrationId() + " account is linked to another user", null));
+        }
+        if (outcome.profile() == null) {
+            throw new OAuth2AuthenticationException(new OAuth2Error("invalid_user", "The account no longer exists", null));
+        }
+        log.debug("Account link: userId={} provider={} result={}", intent.userId(), identity.provider(),
+                outcome.result());
+        return new ProvisionedUser(outcome.profile(), false);
     }
 
-    /**
-     * Call GitHub's /user/emails with the access token to get the primary/verified email.
-     * Requires the "user:email" scope (you already configured this).
-     */
-    private String fetchGithubPrimaryEmail(OAuth2UserRequest req) {
-        try {
-            String token = req.getAccessToken().getTokenValue();
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + token);
-            headers.set(HttpHeaders.ACCEPT, "application/vnd.github+json");
-
-            HttpEntity<Void> entity = new HttpEntity<>(headers);
-
-            RestTemplate rt = new RestTemplate();
-            ResponseEntity<List<Map<String, Object>>> resp = rt.exchange(
-                    "https://api.github.com/user/emails",
-                    HttpMethod.GET,
-                    entity,
-                    new ParameterizedTypeReference<List<Map<String, Object>>>() {}
-            );
-
-            if (!resp.getStatusCode().is2xxSuccessful() || resp.getBody() == null) {
-                System.out.println("⚠️  GitHub API returned non-success status or null body");
-                return null;
-            }
-
-            // Prefer primary+verified
-            for (Map<String, Object> e : resp.getBody()) {
-                Boolean primary = (Boolean) e.get("primary");
-                Boolean verified = (Boolean) e.get("verified");
-                String email = (String) e.get("email");
-                if (Boolean.TRUE.equals(primary) && Boolean.TRUE.equals(verified)) {
-                    System.out.println("✅ Found primary+verified email: " + email);
-                    return email;
-                }
-            }
-            // Else any verified
-            for (Map<String, Object> e : resp.getBody()) {
-                Boolean verified = (Boolean) e.get("verified");
-                String email = (String) e.get("email");
-                if (Boolean.TRUE.equals(verified)) {
-                    System.out.println("✅ Found verified email: " + email);
-                    return email;
-                }
-            }
-            // Else first available
-            if (!resp.getBody().isEmpty()) {
-                Object email = resp.getBody().get(0).get("email");
-                System.out.println("⚠️  Using first available email: " + email);
-                return email != null ? email.toString() : null;
-            }
-        } catch (Exception e) {
-            System.err.println("❌ Error fetching GitHub email: " + e.getMessage());
+    // only honoured while the callback is still authenticated as the user who asked; always used up
+    private static AccountLinkIntent linkIntent(String regId) {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attrs)) {
+            return null;
+        }
+        AccountLinkIntent intent = AccountLinkIntent.read(attrs.getRequest());
+        if (intent == null) {
+            return null;
+        }
+        if (attrs.getResponse() != null) {
+            AccountLinkIntent.clear(attrs.getResponse(), attrs.getRequest().isSecure());
         }
-        return null;
+        Authentication current = SecurityContextHolder.getContext().getAuthentication();
+        boolean sameUser = current != null && current.getPrincipal() instanceof OAuth2User u
+                && u.getAttribute("id") instanceof Number id && id.longValue() == intent.userId();
+        return sameUser && regId.equals(intent.registrationId()) ? intent : null;
+    }
+
+    // Seam for the userinfo round-trip (tests and benchmarks stub the provider here)
+    protected OAuth2User fetchUserInfo(OAuth2UserRequest req) {
+        return super.loadUser(req);
     }
-}
\ No newline at end of file
+}
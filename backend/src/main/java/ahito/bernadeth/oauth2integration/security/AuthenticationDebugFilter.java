@@ -4,6 +4,9 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
@@ -11,40 +14,46 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
 
+/**
+ * Logs the authentication state around OAuth2/login requests. Only does any work when its logger is at
+ * DEBUG ({@code logging.level.ahito.bernadeth.oauth2integration.security.AuthenticationDebugFilter=DEBUG}).
+ * Not created at all when {@code app.debug.enabled=false}.
+ */
 @Component
+@ConditionalOnProperty(name = "app.debug.enabled", havingValue = "true", matchIfMissing = true)
 public class AuthenticationDebugFilter extends OncePerRequestFilter {
 
+    private static final Logger log = LoggerFactory.getLogger(AuthenticationDebugFilter.class);
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
 
+        if (!log.isDebugEnabled()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
         String uri = request.getRequestURI();
-        String method = request.getMethod();
+        boolean authRequest = uri.contains("oauth2") || uri.contains("login");
 
         // Log OAuth2 related requests
-        if (uri.contains("oauth2") || uri.contains("login")) {
-            System.out.println("\n🔐 ========== AUTH REQUEST ==========");
-            System.out.println("🔐 Method: " + method);
-            System.out.println("🔐 URI: " + uri);
-            System.out.println("🔐 Query: " + request.getQueryString());
-
-            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-            System.out.println("🔐 Current Auth: " + (auth != null ? auth.getClass().getSimpleName() : "null"));
-            System.out.println("🔐 ====================================\n");
+        if (authRequest) {
+            log.debug("Auth request: method={} uri={} query={} authBefore={}", request.getMethod(), uri,
+                    request.getQueryString(), authType(SecurityContextHolder.getContext().getAuthentication()));
         }
 
         filterChain.doFilter(request, response);
 
         // Log authentication after the request
-        if (uri.contains("oauth2") || uri.contains("login")) {
+        if (authRequest) {
             Authentication authAfter = SecurityContextHolder.getContext().getAuthentication();
-            System.out.println("\n🔐 ========== AFTER AUTH REQUEST ==========");
-            System.out.println("🔐 URI: " + uri);
-            System.out.println("🔐 Auth After: " + (authAfter != null ? authAfter.getClass().getSimpleName() : "null"));
-            if (authAfter != null) {
-                System.out.println("🔐 Principal: " + authAfter.getPrincipal());
-            }
-            System.out.println("🔐 ==========================================\n");
+            log.debug("Auth request done: uri={} authAfter={} principal={}", uri, authType(authAfter),
+                    authAfter != null ? authAfter.getName() : null);
         }
     }
-}
\ No newline at end of file
+
+    private static String authType(Authentication auth) {
+        return auth != null ? auth.getClass().getSimpleName() : "null";
+    }
+}
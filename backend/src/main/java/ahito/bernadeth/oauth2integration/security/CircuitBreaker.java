@@ -0,0 +1,57 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Minimal consecutive-failure circuit breaker. After {@code failureThreshold} failures in a row the
+ * breaker opens for {@code openFor}; after that a single trial call is let through (half-open) and its
+ * outcome closes or re-opens the breaker.
+ */
+class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openForNanos;
+    private final LongSupplier clock;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong(Long.MIN_VALUE);
+
+    CircuitBreaker(int failureThreshold, Duration openFor) {
+        this(failureThreshold, openFor, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, Duration openFor, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openForNanos = openFor.toNanos();
+        this.clock = clock;
+    }
+
+    /** @return true if the caller may make the remote call */
+    boolean tryAcquire() {
+        long until = openUntil.get();
+        if (until == Long.MIN_VALUE) {
+            return true;
+        }
+        long now = clock.getAsLong();
+        // half-open: exactly one caller wins the CAS and gets to probe, the rest keep failing fast
+        return now - until >= 0 && openUntil.compareAndSet(until, now + openForNanos);
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        openUntil.set(Long.MIN_VALUE);
+    }
+
+    void onFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openUntil.set(clock.getAsLong() + openForNanos);
+        }
+    }
+
+    boolean isOpen() {
+        return openUntil.get() != Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,168 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves a GitHub user's primary e-mail via {@code GET /user/emails}. Only verified addresses count.
+ * <p>
+ * One pooled HTTP/2 client is shared by all logins. Lookups are non-blocking, results are cached per
+ * access token for a short while (a retried callback or a double-submit reuses the same call), and a
+ * circuit breaker stops us from queueing logins behind a GitHub outage. Any failure completes with
+ * {@code null} so the caller falls back to the noreply address.
+ */
+@Component
+public class GithubEmailClient {
+
+    private static final TypeReference<List<Map<String, Object>>> EMAILS = new TypeReference<>() {};
+    private static final int MAX_CACHED_TOKENS = 10_000;
+
+    private final HttpClient http;
+    private final URI emailsUri;
+    private final Duration readTimeout;
+    private final long cacheTtlNanos;
+    private final CircuitBreaker breaker;
+    private final ObjectMapper mapper;
+
+    private final ConcurrentHashMap<String, Cached> byToken = new ConcurrentHashMap<>();
+
+    public GithubEmailClient(@Value("${app.github.api-base-url:https://api.github.com}") String apiBaseUrl,
+                             @Value("${app.github.connect-timeout:2s}") Duration connectTimeout,
+                             @Value("${app.github.read-timeout:3s}") Duration readTimeout,
+                             @Value("${app.github.email-cache-ttl:60s}") Duration cacheTtl,
+                             @Value("${app.github.breaker.failure-threshold:5}") int failureThreshold,
+                             @Value("${app.github.breaker.open-duration:30s}") Duration openDuration,
+                             @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                             ObjectMapper mapper) {
+        // the JDK client keeps connections alive and multiplexes HTTP/2 streams on its own pool
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (virtualThreads && JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+            // same switch as Tomcat: response handling and dependent stages run on virtual threads
+            // instead of the client's default cached platform-thread pool
+            builder.executor(new VirtualThreadTaskExecutor("github-http-"));
+        }
+        this.http = builder.build();
+        this.emailsUri = URI.create(apiBaseUrl.replaceAll("/+$", "") + "/user/emails");
+        this.readTimeout = readTimeout;
+        this.cacheTtlNanos = cacheTtl.toNanos();
+        this.breaker = new CircuitBreaker(failureThreshold, openDuration);
+        this.mapper = mapper;
+    }
+
+    /**
+     * Starts the lookup for this token, or joins the one a concurrent login with it already started. The
+     * returned future never completes exceptionally; it yields {@code null} when no verified e-mail could be
+     * resolved.
+     */
+    public CompletableFuture<String> fetchPrimaryEmail(String accessToken) {
+        long now = System.nanoTime();
+        Cached cached = byToken.get(accessToken);
+        if (cached != null && now - cached.createdAt < cacheTtlNanos) {
+            return cached.email;
+        }
+        if (byToken.size() >= MAX_CACHED_TOKENS) {
+            byToken.values().removeIf(c -> now - c.createdAt >= cacheTtlNanos);
+            // a burst within the TTL: drop some live ones too, they only cost a repeat call
+            Iterator<Cached> it = byToken.values().iterator();
+            while (byToken.size() >= MAX_CACHED_TOKENS * 3 / 4 && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        // a login with the same token may have started the lookup since the get above
+        Cached entry = new Cached(new CompletableFuture<>(), now);
+        Cached winner = byToken.compute(accessToken,
+                (token, c) -> c != null && now - c.createdAt < cacheTtlNanos ? c : entry);
+        if (winner != entry) {
+            return winner.email;
+        }
+        if (!breaker.tryAcquire()) {
+            byToken.remove(accessToken, entry);
+            entry.email.complete(null);
+            return entry.email;
+        }
+        send(accessToken).whenComplete((email, ex) -> {
+            if (ex != null) {
+                breaker.onFailure();
+                // don't pin a failure in the cache; the next login for this token may retry
+                byToken.remove(accessToken, entry);
+                entry.email.complete(null);
+            } else {
+                breaker.onSuccess();
+                entry.email.complete(email);
+            }
+        });
+        return entry.email;
+    }
+
+    boolean isCircuitOpen() {
+        return breaker.isOpen();
+    }
+
+    private CompletableFuture<String> send(String accessToken) {
+        HttpRequest request = HttpRequest.newBuilder(emailsUri)
+                .timeout(readTimeout)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken)
+                .header(HttpHeaders.ACCEPT, "application/vnd.github+json")
+                .GET()
+                .build();
+
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(resp -> {
+                    if (resp.statusCode() / 100 != 2) {
+                        throw new IllegalStateException("GitHub /user/emails returned " + resp.statusCode());
+                    }
+                    return parse(resp.body());
+                });
+    }
+
+    private String parse(byte[] body) {
+        try {
+            return pickEmail(mapper.readValue(body, EMAILS));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unreadable GitHub /user/emails body", e);
+        }
+    }
+
+    // Prefer primary+verified, else any verified; an unverified address may belong to someone else
+    static String pickEmail(List<Map<String, Object>> emails) {
+        if (emails == null || emails.isEmpty()) {
+            return null;
+        }
+        for (Map<String, Object> e : emails) {
+            if (Boolean.TRUE.equals(e.get("primary")) && Boolean.TRUE.equals(e.get("verified"))) {
+                return (String) e.get("email");
+            }
+        }
+        for (Map<String, Object> e : emails) {
+            if (Boolean.TRUE.equals(e.get("verified"))) {
+                return (String) e.get("email");
+            }
+        }
+        return null;
+    }
+
+    private record Cached(CompletableFuture<String> email, long createdAt) {
+    }
+}
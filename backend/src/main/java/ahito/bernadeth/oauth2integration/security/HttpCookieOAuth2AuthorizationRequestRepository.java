@@ -0,0 +1,77 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.security.oauth2.client.web.AuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.web.util.WebUtils;
+
+import java.time.Duration;
+
+/**
+ * Keeps the in-flight {@link OAuth2AuthorizationRequest} (state, nonce, PKCE verifier) in a short-lived
+ * signed cookie instead of the HttpSession, so the provider callback can land on any node.
+ * The cookie is HMAC-signed and only deserialized after the signature checks out.
+ */
+public class HttpCookieOAuth2AuthorizationRequestRepository
+        implements AuthorizationRequestRepository<OAuth2AuthorizationRequest> {
+
+    static final String COOKIE_NAME = "OAUTH2_AUTH_REQUEST";
+    private static final Duration MAX_AGE = Duration.ofMinutes(3);
+
+    private final SessionTokenCodec codec;
+    private final boolean secureCookie;
+
+    public HttpCookieOAuth2AuthorizationRequestRepository(SessionTokenCodec codec, boolean secureCookie) {
+        this.codec = codec;
+        this.secureCookie = secureCookie;
+    }
+
+    @Override
+    public OAuth2AuthorizationRequest loadAuthorizationRequest(HttpServletRequest request) {
+        Cookie cookie = WebUtils.getCookie(request, COOKIE_NAME);
+        if (cookie == null) {
+            return null;
+        }
+        // the type filter is defence in depth on top of the signature
+        OAuth2AuthorizationRequest stored = OAuth2Serialization.readOne(codec.unseal(cookie.getValue()),
+                OAuth2AuthorizationRequest.class);
+        String state = request.getParameter(OAuth2ParameterNames.STATE);
+        return stored != null && state != null && state.equals(stored.getState()) ? stored : null;
+    }
+
+    @Override
+    public void saveAuthorizationRequest(OAuth2AuthorizationRequest authorizationRequest, HttpServletRequest request,
+                                         HttpServletResponse response) {
+        if (authorizationRequest == null) {
+            writeCookie(response, "", Duration.ZERO);
+            return;
+        }
+        writeCookie(response, codec.seal(OAuth2Serialization.write(authorizationRequest)), MAX_AGE);
+    }
+
+    @Override
+    public OAuth2AuthorizationRequest removeAuthorizationRequest(HttpServletRequest request,
+                                                                 HttpServletResponse response) {
+        OAuth2AuthorizationRequest stored = loadAuthorizationRequest(request);
+        if (stored != null) {
+            writeCookie(response, "", Duration.ZERO);
+        }
+        return stored;
+    }
+
+    private void writeCookie(HttpServletResponse response, String value, Duration maxAge) {
+        ResponseCookie cookie = ResponseCookie.from(COOKIE_NAME, value)
+                .httpOnly(true)
+                .secure(secureCookie)
+                .sameSite("Lax")
+                .path("/")
+                .maxAge(maxAge)
+                .build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+}
@@ -0,0 +1,118 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code oauth2_state} table, shared by all nodes. Every call is a single-row statement on the primary
+ * key. Expired rows are never returned, and every {@code sweepInterval} they are deleted in batches of
+ * {@value #SWEEP_BATCH}, so a backlog never turns into one long-locking DELETE. All nodes sweep, and a
+ * row deleted twice is just a no-op.
+ */
+public class JdbcOAuth2StateStore implements OAuth2StateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JdbcOAuth2StateStore.class);
+    static final int SWEEP_BATCH = 500;
+
+    private static final String SELECT = "SELECT payload FROM oauth2_state WHERE id = ? AND expires_at > ?";
+    private static final String UPDATE = "UPDATE oauth2_state SET payload = ?, expires_at = ? WHERE id = ?";
+    private static final String INSERT = "INSERT INTO oauth2_state (id, payload, expires_at) VALUES (?, ?, ?)";
+    private static final String DELETE = "DELETE FROM oauth2_state WHERE id = ?";
+    private static final String SELECT_EXPIRED = "SELECT id FROM oauth2_state WHERE expires_at <= ? LIMIT "
+            + SWEEP_BATCH;
+    // a key put again since the select has a new expiry and stays
+    private static final String DELETE_EXPIRED = "DELETE FROM oauth2_state WHERE id = ? AND expires_at <= ?";
+
+    private final JdbcTemplate jdbc;
+    private final ScheduledExecutorService sweeper;
+
+    public JdbcOAuth2StateStore(JdbcTemplate jdbc, Duration sweepInterval) {
+        this.jdbc = jdbc;
+        if (sweepInterval.isZero() || sweepInterval.isNegative()) {
+            this.sweeper = null;
+            return;
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "oauth2-state-sweep");
+            t.setDaemon(true);
+            return t;
+        });
+        long ms = sweepInterval.toMillis();
+        sweeper.scheduleWithFixedDelay(this::sweepQuietly, ms, ms, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void put(String key, byte[] value, Instant expiresAt) {
+        Timestamp at = Timestamp.from(expiresAt);
+        if (jdbc.update(UPDATE, value, at, key) > 0) {
+            return;
+        }
+        try {
+            jdbc.update(INSERT, key, value, at);
+        } catch (DuplicateKeyException e) {
+            jdbc.update(UPDATE, value, at, key); // inserted concurrently; last writer wins
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        List<byte[]> rows = jdbc.query(SELECT, (rs, i) -> rs.getBytes(1), key, Timestamp.from(Instant.now()));
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    @Override
+    public byte[] take(String key) {
+        byte[] value = get(key);
+        // whoever deletes the row owns the value
+        return value != null && jdbc.update(DELETE, key) == 1 ? value : null;
+    }
+
+    @Override
+    public void remove(String key) {
+        jdbc.update(DELETE, key);
+    }
+
+    /** Deletes expired rows. @return how many */
+    public int sweepExpired() {
+        Timestamp now = Timestamp.from(Instant.now());
+        int deleted = 0;
+        for (;;) {
+            List<String> ids = jdbc.queryForList(SELECT_EXPIRED, String.class, now);
+            int batch = 0;
+            for (int n : jdbc.batchUpdate(DELETE_EXPIRED, ids.stream().map(id -> new Object[]{id, now}).toList())) {
+                batch += Math.max(n, 0);
+            }
+            deleted += batch;
+            if (ids.size() < SWEEP_BATCH || batch == 0) {
+                return deleted;
+            }
+        }
+    }
+
+    private void sweepQuietly() {
+        try {
+            int n = sweepExpired();
+            if (n > 0) {
+                log.debug("Swept {} expired OAuth2 states", n);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not sweep expired OAuth2 states: {}", e.toString());
+        }
+    }
+
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+}
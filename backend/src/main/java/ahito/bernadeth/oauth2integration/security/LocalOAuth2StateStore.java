@@ -0,0 +1,158 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory store, split into lock stripes by key hash so logins don't queue behind one lock. Each kind of
+ * key (the part before the first {@code ':'}, e.g. {@code authz} and {@code client}) has its own stripes,
+ * because the kinds live for very different times: within one kind every entry has the same lifetime, so
+ * an insertion-ordered stripe is also in expiry order. A put first drops expired entries from its head. A
+ * stripe that is full gets a full expiry pass, and if it is still full its oldest entries go. A read never
+ * returns an expired value. Memory stays bounded by {@code maxEntries} per kind. The cost is that a flood
+ * of abandoned logins can push out another pending login, which only means that user starts again; it
+ * never reaches the authorized clients.
+ * <p>
+ * Per node: a login has to finish on the node it started on. Several nodes wired to the same instance
+ * share it, which is how the tests stand in for {@link JdbcOAuth2StateStore}.
+ */
+public class LocalOAuth2StateStore implements OAuth2StateStore {
+
+    private static final int STRIPES = 64;
+
+    private final ConcurrentMap<String, Stripe[]> kinds = new ConcurrentHashMap<>();
+    private final int maxPerStripe;
+    private final LongSupplier clock;
+    private final AtomicLong evictions = new AtomicLong();
+
+    public LocalOAuth2StateStore(int maxEntries) {
+        this(maxEntries, System::currentTimeMillis);
+    }
+
+    LocalOAuth2StateStore(int maxEntries, LongSupplier clock) {
+        this.maxPerStripe = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+        this.clock = clock;
+    }
+
+    @Override
+    public void put(String key, byte[] value, Instant expiresAt) {
+        long now = clock.getAsLong();
+        Stripe s = stripe(key);
+        s.lock.lock();
+        try {
+            s.entries.remove(key); // re-inserted at the tail, in expiry order with its kind
+            s.dropExpiredHead(now);
+            if (s.entries.size() >= maxPerStripe) {
+                s.entries.values().removeIf(e -> e.expiresAt <= now);
+                Iterator<Entry> oldest = s.entries.values().iterator();
+                while (s.entries.size() >= maxPerStripe && oldest.hasNext()) {
+                    oldest.next();
+                    oldest.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+            s.entries.put(key, new Entry(value, expiresAt.toEpochMilli()));
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Stripe s = stripe(key);
+        s.lock.lock();
+        try {
+            Entry e = s.entries.get(key);
+            if (e == null) {
+                return null;
+            }
+            if (e.expiresAt <= clock.getAsLong()) {
+                s.entries.remove(key);
+                return null;
+            }
+            return e.value;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] take(String key) {
+        Stripe s = stripe(key);
+        s.lock.lock();
+        try {
+            Entry e = s.entries.remove(key);
+            return e != null && e.expiresAt > clock.getAsLong() ? e.value : null;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        Stripe s = stripe(key);
+        s.lock.lock();
+        try {
+            s.entries.remove(key);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for (Stripe[] stripes : kinds.values()) {
+            for (Stripe s : stripes) {
+                s.lock.lock();
+                try {
+                    n += s.entries.size();
+                } finally {
+                    s.lock.unlock();
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Live entries pushed out because their stripe was full. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    private Stripe stripe(String key) {
+        int colon = key.indexOf(':');
+        Stripe[] stripes = kinds.computeIfAbsent(colon < 0 ? "" : key.substring(0, colon), k -> newStripes());
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static Stripe[] newStripes() {
+        Stripe[] stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        return stripes;
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+        void dropExpiredHead(long now) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext() && it.next().getValue().expiresAt <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    private record Entry(byte[] value, long expiresAt) {
+    }
+}
@@ -0,0 +1,59 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java serialization of Spring's OAuth2 objects (authorization requests, tokens) for the stores that keep
+ * them outside the HttpSession. Reading only accepts Spring's OAuth2 types and the JDK basics they are
+ * made of.
+ */
+final class OAuth2Serialization {
+
+    private static final ObjectInputFilter ALLOWED = ObjectInputFilter.Config.createFilter(
+            "org.springframework.security.oauth2.core.**;java.util.*;java.lang.*;java.time.*;!*");
+
+    private OAuth2Serialization() {
+    }
+
+    static byte[] write(Serializable... objects) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            for (Serializable o : objects) {
+                out.writeObject(o);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not serialize " + objects[0].getClass().getSimpleName(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return the {@code count} objects written, or {@code null} if the bytes don't hold them */
+    static List<Object> read(byte[] bytes, int count) {
+        if (bytes == null) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(ALLOWED);
+            List<Object> objects = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                objects.add(in.readObject());
+            }
+            return objects;
+        } catch (IOException | ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    static <T> T readOne(byte[] bytes, Class<T> type) {
+        List<Object> objects = read(bytes, 1);
+        return objects != null && type.isInstance(objects.get(0)) ? type.cast(objects.get(0)) : null;
+    }
+}
@@ -0,0 +1,25 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * One {@link JdbcOAuth2StateStore} entry. Rows are only read and written through JDBC; the entity
+ * describes the table.
+ */
+@Entity
+@Table(name = "oauth2_state", indexes = @Index(name = "idx_oauth2_state_expires_at", columnList = "expires_at"))
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor
+public class OAuth2State {
+    @Id
+    private String id;
+
+    // a serialized authorization request is about 1 kB
+    @Column(nullable = false, length = 8192)
+    private byte[] payload;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+}
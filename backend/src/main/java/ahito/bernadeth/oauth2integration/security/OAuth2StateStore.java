@@ -0,0 +1,26 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import java.time.Instant;
+
+/**
+ * Where in-flight authorization requests and authorized clients (provider tokens) live when they are not
+ * kept in the HttpSession: opaque values with an expiry time. Picked by {@code app.oauth2-store.type}:
+ * {@link LocalOAuth2StateStore} keeps them on the node, {@link JdbcOAuth2StateStore} in the database, so a
+ * login started on one node can finish on another.
+ */
+public interface OAuth2StateStore {
+
+    /** Stores {@code value} under {@code key}, replacing what was there. */
+    void put(String key, byte[] value, Instant expiresAt);
+
+    /** @return the value, or {@code null} if there is none or it has expired */
+    byte[] get(String key);
+
+    /**
+     * Removes and returns the value. Of several concurrent callers at most one gets it, which is what
+     * makes an authorization request single-use.
+     */
+    byte[] take(String key);
+
+    void remove(String key);
+}
@@ -0,0 +1,9 @@
+package ahito.bernadeth.oauth2integration.security;
+
+/**
+ * What a stateless session token carries: the same attributes {@link AppOAuth2UserService} puts on the
+ * principal, plus the registration id and an expiry (epoch seconds).
+ */
+public record SessionClaims(Long id, String email, String name, String picture, String registrationId,
+                            long expiresAt) {
+}
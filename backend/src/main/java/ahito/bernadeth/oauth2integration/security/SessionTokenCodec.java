@@ -0,0 +1,140 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compact HMAC-SHA256 signed tokens: {@code base64url(payload) "." base64url(signature)}.
+ * <p>
+ * Keys are decoded once at startup and initialized {@link Mac}s are pooled per key (not per thread: with
+ * virtual threads every request is a fresh thread), so verifying a token costs one HMAC over the payload
+ * bytes and no key setup. The signature is checked
+ * before the payload is decoded. Tokens signed with a previous secret still verify, which lets the
+ * secret be rotated without logging everyone out.
+ */
+public class SessionTokenCodec {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64D = Base64.getUrlDecoder();
+
+    private final List<MacPool> macs;
+    private final Duration ttl;
+    private final Clock clock;
+    private final ObjectMapper mapper;
+
+    public SessionTokenCodec(String secret, List<String> previousSecrets, Duration ttl, ObjectMapper mapper) {
+        this(secret, previousSecrets, ttl, mapper, Clock.systemUTC());
+    }
+
+    SessionTokenCodec(String secret, List<String> previousSecrets, Duration ttl, ObjectMapper mapper, Clock clock) {
+        List<MacPool> keys = new ArrayList<>();
+        keys.add(new MacPool(secret));
+        previousSecrets.stream().filter(s -> !s.isBlank()).map(MacPool::new).forEach(keys::add);
+        this.macs = List.copyOf(keys);
+        this.ttl = ttl;
+        this.clock = clock;
+        this.mapper = mapper;
+    }
+
+    public Duration ttl() {
+        return ttl;
+    }
+
+    public String issue(Long id, String email, String name, String picture, String registrationId) {
+        long exp = clock.instant().plus(ttl).getEpochSecond();
+        try {
+            return seal(mapper.writeValueAsBytes(new SessionClaims(id, email, name, picture, registrationId, exp)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode session token", e);
+        }
+    }
+
+    /** @return the claims, or {@code null} if the token is malformed, forged or expired */
+    public SessionClaims verify(String token) {
+        byte[] payload = unseal(token);
+        if (payload == null) {
+            return null;
+        }
+        try {
+            SessionClaims claims = mapper.readValue(payload, SessionClaims.class);
+            return claims.expiresAt() > clock.instant().getEpochSecond() ? claims : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Signs arbitrary bytes; the result is URL/cookie safe. */
+    public String seal(byte[] payload) {
+        String body = B64.encodeToString(payload);
+        byte[] sig = macs.get(0).sign(body.getBytes(StandardCharsets.US_ASCII));
+        return body + "." + B64.encodeToString(sig);
+    }
+
+    /** @return the original bytes, or {@code null} if the value was not produced by {@link #seal} */
+    public byte[] unseal(String sealed) {
+        if (sealed == null) {
+            return null;
+        }
+        int dot = sealed.lastIndexOf('.');
+        if (dot <= 0 || dot == sealed.length() - 1) {
+            return null;
+        }
+        try {
+            byte[] body = sealed.substring(0, dot).getBytes(StandardCharsets.US_ASCII);
+            byte[] sig = B64D.decode(sealed.substring(dot + 1));
+            for (MacPool mac : macs) {
+                if (MessageDigest.isEqual(mac.sign(body), sig)) {
+                    return B64D.decode(body);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // not base64
+        }
+        return null;
+    }
+
+    /** Initialized Macs for one key; grows to the peak number of concurrent signers and no further. */
+    private static final class MacPool {
+        private final SecretKeySpec key;
+        private final ConcurrentLinkedQueue<Mac> idle = new ConcurrentLinkedQueue<>();
+
+        MacPool(String secret) {
+            this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        }
+
+        byte[] sign(byte[] data) {
+            Mac mac = idle.poll();
+            if (mac == null) {
+                mac = newMac();
+            }
+            try {
+                return mac.doFinal(data);
+            } finally {
+                idle.offer(mac);
+            }
+        }
+
+        private Mac newMac() {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
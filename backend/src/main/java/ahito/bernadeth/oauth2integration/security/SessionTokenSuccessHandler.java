@@ -0,0 +1,53 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.security.web.authentication.AuthenticationSuccessHandler;
+
+import java.io.IOException;
+
+/**
+ * Stateless mode: turns the principal built by {@link AppOAuth2UserService} into a signed session
+ * cookie, then sends the browser on to the SPA.
+ */
+public class SessionTokenSuccessHandler implements AuthenticationSuccessHandler {
+
+    private final SessionTokenCodec tokens;
+    private final String cookieName;
+    private final boolean secureCookie;
+    private final String targetUrl;
+
+    public SessionTokenSuccessHandler(SessionTokenCodec tokens, String cookieName, boolean secureCookie,
+                                      String targetUrl) {
+        this.tokens = tokens;
+        this.cookieName = cookieName;
+        this.secureCookie = secureCookie;
+        this.targetUrl = targetUrl;
+    }
+
+    @Override
+    public void onAuthenticationSuccess(HttpServletRequest request, HttpServletResponse response,
+                                        Authentication authentication) throws IOException {
+        OAuth2AuthenticationToken auth = (OAuth2AuthenticationToken) authentication;
+        OAuth2User user = auth.getPrincipal();
+        String picture = user.getAttribute("picture");
+
+        String token = tokens.issue(user.getAttribute("id"), user.getAttribute("email"), user.getAttribute("name"),
+                picture == null || picture.isEmpty() ? null : picture, auth.getAuthorizedClientRegistrationId());
+
+        ResponseCookie cookie = ResponseCookie.from(cookieName, token)
+                .httpOnly(true)
+                .secure(secureCookie)
+                .sameSite("Lax")
+                .path("/")
+                .maxAge(tokens.ttl())
+                .build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+        response.sendRedirect(targetUrl);
+    }
+}
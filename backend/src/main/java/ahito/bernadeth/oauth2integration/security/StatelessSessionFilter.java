@@ -0,0 +1,69 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stateless mode: rebuilds the OAuth2 principal from the signed session cookie (or an
+ * {@code Authorization: Bearer} header) on every request instead of looking it up in the HttpSession.
+ */
+public class StatelessSessionFilter extends OncePerRequestFilter {
+
+    private static final Set<SimpleGrantedAuthority> USER = Set.of(new SimpleGrantedAuthority("ROLE_USER"));
+    private static final String BEARER = "Bearer ";
+
+    private final SessionTokenCodec tokens;
+    private final String cookieName;
+
+    public StatelessSessionFilter(SessionTokenCodec tokens, String cookieName) {
+        this.tokens = tokens;
+        this.cookieName = cookieName;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String token = resolveToken(request);
+        SessionClaims claims = token != null ? tokens.verify(token) : null;
+        if (claims != null) {
+            SecurityContext ctx = SecurityContextHolder.createEmptyContext();
+            ctx.setAuthentication(toAuthentication(claims));
+            SecurityContextHolder.setContext(ctx);
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    static OAuth2AuthenticationToken toAuthentication(SessionClaims c) {
+        DefaultOAuth2User principal = new DefaultOAuth2User(USER, Map.of(
+                "id", c.id(),
+                "email", c.email(),
+                "name", c.name(),
+                "picture", c.picture() != null ? c.picture() : ""
+        ), "email");
+        return new OAuth2AuthenticationToken(principal, USER, c.registrationId());
+    }
+
+    private String resolveToken(HttpServletRequest request) {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            return header.substring(BEARER.length()).trim();
+        }
+        Cookie cookie = WebUtils.getCookie(request, cookieName);
+        return cookie != null ? cookie.getValue() : null;
+    }
+}
@@ -0,0 +1,92 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.security.oauth2.client.web.AuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.web.util.WebUtils;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Keeps the in-flight {@link OAuth2AuthorizationRequest} in an {@link OAuth2StateStore} instead of the
+ * HttpSession, keyed by its {@code state}. With a shared store the provider callback can land on any node.
+ * <p>
+ * The session used to tie the callback to the browser that started the login. A random binding cookie
+ * does that now: it is part of the key, so a callback URL replayed in another browser (login CSRF) finds
+ * nothing. The request is taken out of the store on the callback, so it works only once.
+ */
+public class StoredAuthorizationRequestRepository implements AuthorizationRequestRepository<OAuth2AuthorizationRequest> {
+
+    static final String COOKIE_NAME = "OAUTH2_AUTH_BINDING";
+    private static final Duration MAX_AGE = Duration.ofMinutes(3);
+
+    private final OAuth2StateStore store;
+    private final boolean secureCookie;
+    private final SecureRandom random = new SecureRandom();
+
+    public StoredAuthorizationRequestRepository(OAuth2StateStore store, boolean secureCookie) {
+        this.store = store;
+        this.secureCookie = secureCookie;
+    }
+
+    @Override
+    public OAuth2AuthorizationRequest loadAuthorizationRequest(HttpServletRequest request) {
+        String key = key(request);
+        return key == null ? null : OAuth2Serialization.readOne(store.get(key), OAuth2AuthorizationRequest.class);
+    }
+
+    @Override
+    public void saveAuthorizationRequest(OAuth2AuthorizationRequest authorizationRequest, HttpServletRequest request,
+                                         HttpServletResponse response) {
+        if (authorizationRequest == null) {
+            String key = key(request);
+            if (key != null) {
+                store.remove(key);
+            }
+            return;
+        }
+        // logins started in several tabs share the browser's binding
+        Cookie existing = WebUtils.getCookie(request, COOKIE_NAME);
+        String binding = existing != null && !existing.getValue().isEmpty() ? existing.getValue() : newBinding();
+        store.put(key(authorizationRequest.getState(), binding), OAuth2Serialization.write(authorizationRequest),
+                Instant.now().plus(MAX_AGE));
+        response.addHeader(HttpHeaders.SET_COOKIE, ResponseCookie.from(COOKIE_NAME, binding)
+                .httpOnly(true)
+                .secure(secureCookie)
+                .sameSite("Lax") // the provider's redirect back is a top-level GET, so it carries the cookie
+                .path("/")
+                .maxAge(MAX_AGE)
+                .build().toString());
+    }
+
+    @Override
+    public OAuth2AuthorizationRequest removeAuthorizationRequest(HttpServletRequest request,
+                                                                 HttpServletResponse response) {
+        String key = key(request);
+        return key == null ? null : OAuth2Serialization.readOne(store.take(key), OAuth2AuthorizationRequest.class);
+    }
+
+    private static String key(HttpServletRequest request) {
+        String state = request.getParameter(OAuth2ParameterNames.STATE);
+        Cookie binding = WebUtils.getCookie(request, COOKIE_NAME);
+        return state == null || binding == null ? null : key(state, binding.getValue());
+    }
+
+    private static String key(String state, String binding) {
+        return "authz:" + state + ":" + binding;
+    }
+
+    private String newBinding() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,73 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The provider tokens of signed-in users ({@link OAuth2AuthorizedClient}) in an {@link OAuth2StateStore},
+ * keyed by registration and principal name (the account e-mail). This replaces Spring's default in-memory
+ * map, which is per node and never forgets a token. Only the tokens are stored; the registration is looked
+ * up again on load.
+ * <p>
+ * An entry lives until its access token expires, but no longer than {@code maxTtl}. That cap is what
+ * applies to GitHub's tokens, which don't expire, and to tokens that come with a refresh token.
+ */
+public class StoredOAuth2AuthorizedClientService implements OAuth2AuthorizedClientService {
+
+    private final OAuth2StateStore store;
+    private final ClientRegistrationRepository registrations;
+    private final Duration maxTtl;
+
+    public StoredOAuth2AuthorizedClientService(OAuth2StateStore store, ClientRegistrationRepository registrations,
+                                               Duration maxTtl) {
+        this.store = store;
+        this.registrations = registrations;
+        this.maxTtl = maxTtl;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends OAuth2AuthorizedClient> T loadAuthorizedClient(String clientRegistrationId,
+                                                                     String principalName) {
+        List<Object> tokens = OAuth2Serialization.read(store.get(key(clientRegistrationId, principalName)), 2);
+        if (tokens == null || !(tokens.get(0) instanceof OAuth2AccessToken access)) {
+            return null;
+        }
+        ClientRegistration registration = registrations.findByRegistrationId(clientRegistrationId);
+        if (registration == null) {
+            return null;
+        }
+        OAuth2RefreshToken refresh = tokens.get(1) instanceof OAuth2RefreshToken r ? r : null;
+        return (T) new OAuth2AuthorizedClient(registration, principalName, access, refresh);
+    }
+
+    @Override
+    public void saveAuthorizedClient(OAuth2AuthorizedClient client, Authentication principal) {
+        OAuth2AccessToken access = client.getAccessToken();
+        Instant expiresAt = Instant.now().plus(maxTtl);
+        if (client.getRefreshToken() == null && access.getExpiresAt() != null
+                && access.getExpiresAt().isBefore(expiresAt)) {
+            expiresAt = access.getExpiresAt();
+        }
+        store.put(key(client.getClientRegistration().getRegistrationId(), principal.getName()),
+                OAuth2Serialization.write(access, client.getRefreshToken()), expiresAt);
+    }
+
+    @Override
+    public void removeAuthorizedClient(String clientRegistrationId, String principalName) {
+        store.remove(key(clientRegistrationId, principalName));
+    }
+
+    private static String key(String registrationId, String principalName) {
+        return "client:" + registrationId + ":" + principalName;
+    }
+}
@@ -0,0 +1,93 @@
+package ahito.bernadeth.oauth2integration.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, lock-free, multi-producer / single-consumer ring of <em>preallocated</em> slots.
+ * <p>
+ * Producers claim a slot with a CAS, copy their data into it and publish it; nothing is allocated per
+ * message. When the ring is full {@link #claim} fails immediately (callers decide whether that means
+ * "drop"), so a slow consumer can never block a request thread. Sequencing follows Dmitry Vyukov's
+ * bounded queue: each slot carries the sequence number it expects next.
+ */
+public final class MpscRingBuffer<T> {
+
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // consumer thread only
+
+    public MpscRingBuffer(int capacity, Supplier<T> slotFactory) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = slotFactory.get();
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Claims the next slot. On success fill in {@link #slot(long)} and then call {@link #publish(long)};
+     * no other producer can touch the slot in between.
+     *
+     * @return the claimed position, or -1 if the ring is full
+     */
+    public long claim() {
+        while (true) {
+            long pos = tail.get();
+            long diff = sequences.get((int) (pos & mask)) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) return pos;
+            } else if (diff < 0) {
+                return -1; // full
+            }
+            // else another producer claimed this position; re-read tail
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T slot(long position) {
+        return (T) slots[(int) (position & mask)];
+    }
+
+    public void publish(long position) {
+        sequences.set((int) (position & mask), position + 1);
+    }
+
+    /**
+     * Hands up to {@code max} published slots to {@code reader}, in order. Single consumer only; the
+     * slot must not be retained after {@code reader} returns.
+     *
+     * @return number of slots drained
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<T> reader, int max) {
+        int n = 0;
+        while (n < max) {
+            int idx = (int) (head & mask);
+            if (sequences.get(idx) != head + 1) {
+                break; // empty, or the next producer hasn't published yet
+            }
+            reader.accept((T) slots[idx]);
+            sequences.set(idx, head + slots.length); // hand the slot back to producers
+            head++;
+            n++;
+        }
+        return n;
+    }
+
+    /** Approximate; only meaningful as a gauge. */
+    public int size() {
+        return (int) Math.max(0, Math.min(slots.length, tail.get() - head));
+    }
+}
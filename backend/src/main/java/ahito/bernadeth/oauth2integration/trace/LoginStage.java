@@ -0,0 +1,12 @@
+package ahito.bernadeth.oauth2integration.trace;
+
+/** The spans a login is broken into. */
+public enum LoginStage {
+    USERINFO_FETCH,
+    EMAIL_FETCH,
+    ACCOUNT_LOOKUP,
+    USER_UPSERT,
+    LINK_UPSERT;
+
+    static final LoginStage[] VALUES = values();
+}
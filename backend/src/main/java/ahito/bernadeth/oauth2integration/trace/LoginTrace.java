@@ -0,0 +1,61 @@
+package ahito.bernadeth.oauth2integration.trace;
+
+/**
+ * Timings of one login, recorded by the thread running {@code loadUser}.
+ * <p>
+ * When tracing is off (or this login wasn't sampled) callers get {@link #NOOP}; every method then
+ * returns on its first branch, so instrumented code costs nothing measurable. Active traces are reused
+ * per thread by {@link LoginTracer} and must not be kept after {@link LoginTracer#finish}.
+ */
+public final class LoginTrace {
+
+    public static final LoginTrace NOOP = new LoginTrace(false);
+
+    final boolean active;
+    final long[] stageStart = new long[LoginStage.VALUES.length];
+    final long[] stageNanos = new long[LoginStage.VALUES.length];
+    long startedAt;
+    String provider;
+    long userId;
+    boolean newUser;
+    boolean emailFallback;
+
+    LoginTrace(boolean active) {
+        this.active = active;
+    }
+
+    void reset(String provider) {
+        java.util.Arrays.fill(stageNanos, -1L);
+        this.provider = provider;
+        this.userId = -1;
+        this.newUser = false;
+        this.emailFallback = false;
+        this.startedAt = System.nanoTime();
+    }
+
+    public void begin(LoginStage stage) {
+        if (!active) return;
+        stageStart[stage.ordinal()] = System.nanoTime();
+    }
+
+    public void end(LoginStage stage) {
+        if (!active) return;
+        stageNanos[stage.ordinal()] = System.nanoTime() - stageStart[stage.ordinal()];
+    }
+
+    /** @return how long {@code stage} took, or -1 if it didn't run (or this trace is inactive) */
+    public long nanos(LoginStage stage) {
+        return active ? stageNanos[stage.ordinal()] : -1;
+    }
+
+    public void user(long id, boolean created) {
+        if (!active) return;
+        this.userId = id;
+        this.newUser = created;
+    }
+
+    public void emailFallback() {
+        if (!active) return;
+        this.emailFallback = true;
+    }
+}
@@ -0,0 +1,129 @@
+package ahito.bernadeth.oauth2integration.trace;
+
+import ahito.bernadeth.oauth2integration.support.MpscRingBuffer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Structured, sampled tracing of the login flow.
+ * <p>
+ * Login threads only copy a handful of longs into a preallocated ring slot; a background thread turns
+ * the slots into one {@code key=value} line per login on the {@code login.trace} logger. If the writer
+ * falls behind, traces are dropped (and counted) rather than slowing logins down.
+ */
+@Component
+public class LoginTracer {
+
+    private static final Logger log = LoggerFactory.getLogger("login.trace");
+    private static final int DRAIN_BATCH = 256;
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final MpscRingBuffer<Record> ring;
+    private final ThreadLocal<LoginTrace> perThread = ThreadLocal.withInitial(() -> new LoginTrace(true));
+    private final LongAdder dropped = new LongAdder();
+    private final Consumer<Record> sink = this::write;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public LoginTracer(@Value("${app.login-trace.enabled:false}") boolean enabled,
+                       @Value("${app.login-trace.sample-rate:1.0}") double sampleRate,
+                       @Value("${app.login-trace.buffer-size:1024}") int bufferSize) {
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.ring = enabled ? new MpscRingBuffer<>(bufferSize, Record::new) : null;
+        this.writer = enabled ? startWriter() : null;
+    }
+
+    /** @return a trace to record into; {@link LoginTrace#NOOP} if tracing is off or this login isn't sampled */
+    public LoginTrace start(String provider) {
+        if (!enabled || (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return LoginTrace.NOOP;
+        }
+        LoginTrace trace = perThread.get();
+        trace.reset(provider);
+        return trace;
+    }
+
+    public void finish(LoginTrace trace) {
+        if (!trace.active) return;
+        long total = System.nanoTime() - trace.startedAt;
+        long pos = ring.claim();
+        if (pos < 0) {
+            dropped.increment();
+            return;
+        }
+        ring.slot(pos).copyFrom(trace, total);
+        ring.publish(pos);
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    @PreDestroy
+    void close() throws InterruptedException {
+        if (writer == null) return;
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private Thread startWriter() {
+        Thread t = new Thread(() -> {
+            while (running) {
+                if (ring.drain(sink, DRAIN_BATCH) == 0) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                }
+            }
+            ring.drain(sink, Integer.MAX_VALUE);
+        }, "login-trace-writer");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private void write(Record r) {
+        log.info("login provider={} userId={} newUser={} emailFallback={} userinfo_us={} email_us={} "
+                        + "lookup_us={} user_upsert_us={} link_upsert_us={} total_us={}",
+                r.provider, r.userId, r.newUser, r.emailFallback,
+                micros(r.stageNanos[LoginStage.USERINFO_FETCH.ordinal()]),
+                micros(r.stageNanos[LoginStage.EMAIL_FETCH.ordinal()]),
+                micros(r.stageNanos[LoginStage.ACCOUNT_LOOKUP.ordinal()]),
+                micros(r.stageNanos[LoginStage.USER_UPSERT.ordinal()]),
+                micros(r.stageNanos[LoginStage.LINK_UPSERT.ordinal()]),
+                micros(r.totalNanos));
+    }
+
+    private static long micros(long nanos) {
+        return nanos < 0 ? -1 : nanos / 1_000;
+    }
+
+    /** A ring slot; overwritten in place for every login. */
+    static final class Record {
+        final long[] stageNanos = new long[LoginStage.VALUES.length];
+        String provider;
+        long userId;
+        boolean newUser;
+        boolean emailFallback;
+        long totalNanos;
+
+        void copyFrom(LoginTrace t, long total) {
+            System.arraycopy(t.stageNanos, 0, stageNanos, 0, stageNanos.length);
+            provider = t.provider;
+            userId = t.userId;
+            newUser = t.newUser;
+            emailFallback = t.emailFallback;
+            totalNanos = total;
+        }
+    }
+}
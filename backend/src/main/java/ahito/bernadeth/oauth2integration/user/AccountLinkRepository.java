@@ -0,0 +1,94 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Plain JDBC for the account-linking endpoints and for warming the {@link IdentityIndex}.
+ */
+@Repository
+public class AccountLinkRepository {
+
+    // forward-only reads for the warm-up; PostgreSQL needs a transaction for this, MySQL useCursorFetch=true
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    private static final String SELECT_LINKS =
+            "SELECT id, provider, provider_user_id, provider_email FROM auth_provider WHERE user_id = ? ORDER BY id";
+
+    private static final String SELECT_LINK_OWNER =
+            "SELECT user_id FROM auth_provider WHERE provider = ? AND provider_user_id = ?";
+
+    private static final String DELETE_LINK = "DELETE FROM auth_provider WHERE id = ? AND user_id = ?";
+
+    private static final String MOVE_LINKS = "UPDATE auth_provider SET user_id = ? WHERE user_id = ?";
+
+    // login_event has no foreign key; keep the merged account's history with the surviving user
+    private static final String MOVE_LOGIN_EVENTS = "UPDATE login_event SET user_id = ? WHERE user_id = ?";
+
+    private static final String DELETE_USER = "DELETE FROM users WHERE id = ?";
+
+    private static final String STREAM_IDENTITIES =
+            "SELECT provider, provider_user_id, provider_email, user_id FROM auth_provider";
+
+    private static final String STREAM_EMAILS = "SELECT id, email FROM users";
+
+    private final JdbcTemplate jdbc;
+    private final JdbcTemplate streaming;
+
+    public AccountLinkRepository(JdbcTemplate jdbc, DataSource dataSource) {
+        this.jdbc = jdbc;
+        this.streaming = new JdbcTemplate(dataSource);
+        this.streaming.setFetchSize(STREAM_FETCH_SIZE);
+    }
+
+    public record Link(long id, AuthProvider.Provider provider, String providerUserId, String providerEmail) {
+    }
+
+    public List<Link> findLinks(long userId) {
+        return jdbc.query(SELECT_LINKS, (rs, n) -> new Link(rs.getLong("id"),
+                AuthProvider.Provider.valueOf(rs.getString("provider")), rs.getString("provider_user_id"),
+                rs.getString("provider_email")), userId);
+    }
+
+    /** @return the user the identity is linked to, or {@code null} */
+    public Long findOwner(AuthProvider.Provider provider, String providerUserId) {
+        List<Long> rows = jdbc.queryForList(SELECT_LINK_OWNER, Long.class, provider.name(), providerUserId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    public boolean deleteLink(long userId, long linkId) {
+        return jdbc.update(DELETE_LINK, linkId, userId) == 1;
+    }
+
+    /** Moves every link and login event of {@code from} to {@code into}, then deletes {@code from}. */
+    public void merge(long from, long into) {
+        jdbc.update(MOVE_LINKS, into, from);
+        jdbc.update(MOVE_LOGIN_EVENTS, into, from);
+        jdbc.update(DELETE_USER, from);
+    }
+
+    public interface IdentityRow {
+        void accept(AuthProvider.Provider provider, String providerUserId, String providerEmail, long userId);
+    }
+
+    public interface EmailRow {
+        void accept(String email, long userId);
+    }
+
+    /** Streams the whole {@code auth_provider} table; nothing is collected in between. */
+    public void forEachIdentity(IdentityRow row) {
+        streaming.query(STREAM_IDENTITIES, rs -> {
+            row.accept(AuthProvider.Provider.valueOf(rs.getString(1)), rs.getString(2), rs.getString(3),
+                    rs.getLong(4));
+        });
+    }
+
+    public void forEachEmail(EmailRow row) {
+        streaming.query(STREAM_EMAILS, rs -> {
+            row.accept(rs.getString(2), rs.getLong(1));
+        });
+    }
+}
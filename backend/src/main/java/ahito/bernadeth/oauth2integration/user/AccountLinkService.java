@@ -0,0 +1,142 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Explicit account linking: add a provider identity to the signed-in user, remove one, and merge the
+ * account an identity already belongs to into the signed-in one.
+ * <p>
+ * The caller has just completed an OAuth2 login with the identity, so that login proves its owner
+ * controls it. A merge keeps the signed-in user's profile and takes over the other account's links and
+ * login history; the other row is deleted. The {@link IdentityIndex} learns about every change after the
+ * commit.
+ */
+@Service
+public class AccountLinkService {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountLinkService.class);
+    private static final int WARM_UP_ATTEMPTS = 3;
+
+    public enum LinkResult { LINKED, ALREADY_LINKED, MERGED, LINKED_ELSEWHERE }
+
+    public enum UnlinkResult { UNLINKED, NOT_FOUND, LAST_LINK, SAME_EMAIL }
+
+    /** @param profile the signed-in user after the change */
+    public record LinkOutcome(LinkResult result, UserProfile profile) {
+    }
+
+    private final AccountLinkRepository links;
+    private final UserProvisioningRepository upserts;
+    private final IdentityIndex identities;
+    private final ProfileCache profiles;
+    private final TransactionTemplate readOnlyTx;
+
+    public AccountLinkService(AccountLinkRepository links, UserProvisioningRepository upserts,
+                              IdentityIndex identities, ProfileCache profiles, PlatformTransactionManager txManager) {
+        this.links = links;
+        this.upserts = upserts;
+        this.identities = identities;
+        this.profiles = profiles;
+        this.readOnlyTx = new TransactionTemplate(txManager);
+        this.readOnlyTx.setReadOnly(true);
+    }
+
+    @Transactional(readOnly = true)
+    public List<AccountLinkRepository.Link> links(long userId) {
+        return links.findLinks(userId);
+    }
+
+    /**
+     * Links {@code id} to {@code userId}. If another account has it, that account is merged into this
+     * one when {@code merge} is set, and left alone otherwise.
+     */
+    @Transactional
+    public LinkOutcome link(long userId, ProviderIdentity id, boolean merge) {
+        long seen = identities.generation();
+        Long owner = links.findOwner(id.provider(), id.providerUserId());
+        if (owner == null) {
+            if (upserts.insertLinkIfAbsent(userId, id.provider(), id.providerUserId(), id.email())) {
+                IdentityIndex.afterCommit(
+                        () -> identities.put(id.provider(), id.providerUserId(), id.email(), userId, seen));
+                log.info("Linked {} identity to userId={}", id.provider(), userId);
+                return new LinkOutcome(LinkResult.LINKED, upserts.findProfile(userId));
+            }
+            owner = links.findOwner(id.provider(), id.providerUserId()); // lost a race with its first login
+        }
+        if (owner == null) {
+            return new LinkOutcome(LinkResult.LINKED_ELSEWHERE, upserts.findProfile(userId)); // already unlinked again; let them retry
+        }
+        if (owner == userId) {
+            return new LinkOutcome(LinkResult.ALREADY_LINKED, upserts.findProfile(userId));
+        }
+        if (!merge) {
+            return new LinkOutcome(LinkResult.LINKED_ELSEWHERE, upserts.findProfile(userId));
+        }
+
+        long from = owner;
+        links.merge(from, userId);
+        IdentityIndex.afterCommit(() -> {
+            identities.merged(from, userId);
+            profiles.evict(from);
+        });
+        log.info("Merged userId={} into userId={} via its {} identity", from, userId, id.provider());
+        return new LinkOutcome(LinkResult.MERGED, upserts.findProfile(userId));
+    }
+
+    /**
+     * Removes one of the user's links. The last one stays (it is the only way to sign in), and so does one
+     * whose e-mail is the account's: its next login would find the account by e-mail and link it again.
+     */
+    @Transactional
+    public UnlinkResult unlink(UserProfile user, long linkId) {
+        List<AccountLinkRepository.Link> current = links.findLinks(user.id());
+        AccountLinkRepository.Link link = current.stream().filter(l -> l.id() == linkId).findFirst().orElse(null);
+        if (link == null) {
+            return UnlinkResult.NOT_FOUND;
+        }
+        if (current.size() == 1) {
+            return UnlinkResult.LAST_LINK;
+        }
+        if (link.providerEmail() != null && link.providerEmail().equalsIgnoreCase(user.email())) {
+            return UnlinkResult.SAME_EMAIL;
+        }
+        if (!links.deleteLink(user.id(), linkId)) {
+            return UnlinkResult.NOT_FOUND;
+        }
+        IdentityIndex.afterCommit(() -> identities.unlinked(link.provider(), link.providerUserId(), user.id()));
+        log.info("Unlinked {} identity from userId={}", link.provider(), user.id());
+        return UnlinkResult.UNLINKED;
+    }
+
+    /**
+     * Streams {@code auth_provider} and {@code users} into the index. Logins keep working meanwhile; until
+     * their entry is loaded they resolve through the database. A link that moves during the scan may have
+     * been read before the move, so then the index is cleared and the scan starts over.
+     */
+    public void warmIdentityIndex() {
+        for (int attempt = 1; attempt <= WARM_UP_ATTEMPTS; attempt++) {
+            long started = System.nanoTime();
+            long seen = identities.generation();
+            readOnlyTx.executeWithoutResult(status -> {
+                links.forEachIdentity(identities::load);
+                links.forEachEmail(identities::loadEmail);
+            });
+            if (identities.generation() == seen) {
+                IdentityIndex.Stats s = identities.stats();
+                log.info("Identity index warmed: {} identities, {} e-mails in {} ms", s.identities(), s.emails(),
+                        (System.nanoTime() - started) / 1_000_000);
+                return;
+            }
+            identities.clear();
+        }
+        log.warn("Identity index not warmed: links kept changing during {} scans; it fills up with logins instead",
+                WARM_UP_ATTEMPTS);
+    }
+}
@@ -2,26 +2,33 @@ package ahito.bernadeth.oauth2integration.user;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
 
 @Entity
+@DynamicUpdate
 @Table(name = "auth_provider",
-        uniqueConstraints = @UniqueConstraint(columnNames = {"provider", "providerUserId"}))
+        uniqueConstraints = @UniqueConstraint(columnNames = {"provider", "providerUserId"}),
+        // "all links of a user" lookups and the FK itself (PostgreSQL doesn't index FKs on its own)
+        indexes = @Index(name = "idx_auth_provider_user_id", columnList = "user_id"))
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
 public class AuthProvider {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @ManyToOne(optional = false, fetch = FetchType.EAGER)
+    // lazy: link lookups rarely need the user row (and its 1000-char bio); login reads both via a projection
+    @ManyToOne(optional = false, fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
     private User user;
 
     @Enumerated(EnumType.STRING)
     @Column(nullable = false, length = 16)
-    private Provider provider; // GOOGLE or GITHUB
+    private Provider provider;
 
     @Column(nullable = false)
     private String providerUserId;
 
     private String providerEmail;
 
-    public enum Provider { GOOGLE, GITHUB }
+    // one per ProviderAdapter (ahito.bernadeth.oauth2integration.provider)
+    public enum Provider { GOOGLE, GITHUB, GITLAB, MICROSOFT }
 }
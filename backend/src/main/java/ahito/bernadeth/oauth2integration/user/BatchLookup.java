@@ -0,0 +1,7 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import java.util.List;
+
+/** Result of {@link UserDirectory#lookup}: the profiles found plus the keys that matched nobody. */
+public record BatchLookup(List<UserProfile> users, List<Long> missingIds, List<String> missingEmails) {
+}
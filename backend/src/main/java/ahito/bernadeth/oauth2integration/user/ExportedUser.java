@@ -0,0 +1,12 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import java.time.Instant;
+import java.util.List;
+
+/** One NDJSON line of the bulk export: a user with all of its provider links. */
+public record ExportedUser(Long id, String email, String displayName, String avatarUrl, String bio,
+                           Instant createdAt, Instant updatedAt, List<Link> providers) {
+
+    public record Link(AuthProvider.Provider provider, String providerUserId, String providerEmail) {
+    }
+}
@@ -0,0 +1,528 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory "who is who": provider identity → user id and e-mail → user id, so that a returning login
+ * finds its account without a query.
+ * <p>
+ * It is a hint, never the source of truth. A miss (new identity, index still warming up, entry dropped)
+ * sends the caller to the database, which then puts what it found. An entry is only ever added for a
+ * link the database just confirmed, and it is dropped when a link moves away from a user: locally right
+ * after the commit, on other nodes through a {@link ProfileInvalidation} with {@code links} set. Puts
+ * carry the {@link #generation()} seen before the query, so a read that raced with such a removal is
+ * not put back.
+ * <p>
+ * Memory is what matters at a million identities, so there are no per-entry objects: each table is a
+ * pair of parallel arrays with open addressing. Numeric provider ids (GitHub, GitLab) are stored as
+ * {@code long} keys; the rest (Google's 21-digit subjects, Microsoft object ids, e-mails) keep their
+ * {@code String}. Next to the user id each identity keeps a 32-bit hash of the e-mail on its link, so
+ * a login can tell whether {@code auth_provider.provider_email} needs refreshing. A collision only
+ * means one missed refresh of that informational column.
+ */
+public class IdentityIndex {
+
+    /** Lookup result for a key that is not in the index. */
+    public static final long UNKNOWN = -1;
+
+    private static final float MAX_LOAD = 0.7f;
+    private static final int MAX_NUMERIC_DIGITS = 18; // always fits in a long
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ProfileInvalidationBus bus;
+
+    // one lock for all tables: reads are a few probes, writes are rare next to them
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NumericTable[] numeric;
+    private final TextTable[] text;
+    private final TextTable emails = new TextTable(false);
+    private volatile long generation; // bumped under the write lock whenever an entry is removed or moved
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public IdentityIndex(ProfileInvalidationBus bus) {
+        int providers = AuthProvider.Provider.values().length;
+        this.numeric = new NumericTable[providers];
+        this.text = new TextTable[providers];
+        for (int i = 0; i < providers; i++) {
+            numeric[i] = new NumericTable();
+            text[i] = new TextTable(true);
+        }
+        this.bus = bus;
+        bus.subscribe(this::onInvalidation);
+    }
+
+    /**
+     * @param userId       the user the identity is linked to
+     * @param emailCurrent whether {@code providerEmail} is the e-mail stored on the link
+     */
+    public record Hit(long userId, boolean emailCurrent) {
+    }
+
+    public record Stats(int identities, int emails, long hits, long misses) {
+    }
+
+    /** @return the user linked to the identity, or {@code null} if this node doesn't know it */
+    public Hit find(AuthProvider.Provider provider, String providerUserId, String providerEmail) {
+        long key = numericKey(providerUserId);
+        long userId;
+        int tag;
+        lock.readLock().lock();
+        try {
+            Table t;
+            int slot;
+            if (key != 0) {
+                t = numeric[provider.ordinal()];
+                slot = numeric[provider.ordinal()].slotOf(key);
+            } else {
+                t = text[provider.ordinal()];
+                slot = text[provider.ordinal()].slotOf(providerUserId);
+            }
+            if (slot < 0) {
+                misses.increment();
+                return null;
+            }
+            userId = t.users[slot];
+            tag = t.tags[slot];
+        } finally {
+            lock.readLock().unlock();
+        }
+        hits.increment();
+        return new Hit(userId, tag == tag(providerEmail));
+    }
+
+    /** @return the id of the user with this e-mail, or {@link #UNKNOWN} */
+    public long userIdForEmail(String email) {
+        if (email == null) {
+            return UNKNOWN;
+        }
+        lock.readLock().lock();
+        try {
+            int slot = emails.slotOf(email);
+            return slot < 0 ? UNKNOWN : emails.users[slot];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Read this before querying the database for something you are going to {@link #put}. */
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * Records a link the database confirmed, unless an entry was removed since {@code seenGeneration}
+     * (the query may have read the state before that removal).
+     */
+    public boolean put(AuthProvider.Provider provider, String providerUserId, String providerEmail, long userId,
+                       long seenGeneration) {
+        return write(provider, providerUserId, providerEmail, userId, seenGeneration, true);
+    }
+
+    public boolean putEmail(String email, long userId, long seenGeneration) {
+        if (email == null) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            if (generation != seenGeneration) {
+                return false;
+            }
+            emails.put(email, userId, 0, true);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Warm-up: adds a row read from the table unless a login has already put something fresher. */
+    public void load(AuthProvider.Provider provider, String providerUserId, String providerEmail, long userId) {
+        write(provider, providerUserId, providerEmail, userId, -1, false);
+    }
+
+    /** Warm-up counterpart of {@link #putEmail}. */
+    public void loadEmail(String email, long userId) {
+        lock.writeLock().lock();
+        try {
+            emails.put(email, userId, 0, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** After an unlink on this node committed. Other nodes drop everything they know about the user. */
+    public void unlinked(AuthProvider.Provider provider, String providerUserId, long userId) {
+        long key = numericKey(providerUserId);
+        lock.writeLock().lock();
+        try {
+            generation++;
+            if (key != 0) {
+                numeric[provider.ordinal()].remove(key);
+            } else {
+                text[provider.ordinal()].remove(providerUserId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        bus.publish(new ProfileInvalidation(nodeId, userId, true));
+    }
+
+    /** After a merge on this node committed: {@code from}'s identities belong to {@code into}, its e-mail is gone. */
+    public void merged(long from, long into) {
+        lock.writeLock().lock();
+        try {
+            generation++;
+            for (int i = 0; i < numeric.length; i++) {
+                numeric[i].reassign(from, into);
+                text[i].reassign(from, into);
+            }
+            emails.removeUser(from);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        bus.publish(new ProfileInvalidation(nodeId, from, true));
+    }
+
+    /** Drops every entry; the next lookups go to the database. */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            generation++;
+            for (int i = 0; i < numeric.length; i++) {
+                numeric[i] = new NumericTable();
+                text[i] = new TextTable(true);
+            }
+            emails.reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.readLock().lock();
+        try {
+            int identities = 0;
+            for (int i = 0; i < numeric.length; i++) {
+                identities += numeric[i].size + text[i].size;
+            }
+            return new Stats(identities, emails.size, hits.sum(), misses.sum());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs {@code action} once the current transaction has committed (right away without one): the index
+     * must never know about a link the database might still roll back.
+     */
+    static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private boolean write(AuthProvider.Provider provider, String providerUserId, String providerEmail, long userId,
+                          long seenGeneration, boolean replace) {
+        long key = numericKey(providerUserId);
+        lock.writeLock().lock();
+        try {
+            if (replace && generation != seenGeneration) {
+                return false;
+            }
+            if (key != 0) {
+                numeric[provider.ordinal()].put(key, userId, tag(providerEmail), replace);
+            } else {
+                text[provider.ordinal()].put(providerUserId, userId, tag(providerEmail), replace);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // a link moved away from this user on another node; we can't tell which one, so forget all of them
+    private void onInvalidation(ProfileInvalidation inv) {
+        if (!inv.links() || nodeId.equals(inv.origin()) || inv.userId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            generation++;
+            for (int i = 0; i < numeric.length; i++) {
+                numeric[i].removeUser(inv.userId());
+                text[i].removeUser(inv.userId());
+            }
+            emails.removeUser(inv.userId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** The id as a long if it is a canonical positive decimal that fits, else 0 (= keep it as a string). */
+    static long numericKey(String id) {
+        int n = id.length();
+        if (n == 0 || n > MAX_NUMERIC_DIGITS || id.charAt(0) == '0') {
+            return 0;
+        }
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    // 0 is reserved for "no e-mail"
+    static int tag(String email) {
+        if (email == null) {
+            return 0;
+        }
+        int h = email.hashCode();
+        return h == 0 ? 1 : h;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Linear probing over parallel arrays; removal shifts the following run back instead of leaving
+     * tombstones, so lookups never slow down after unlinks.
+     */
+    private abstract static class Table {
+        long[] users;
+        int[] tags;
+        int size;
+        int mask;
+
+        abstract int hashAt(int slot);
+
+        abstract boolean emptyAt(int slot);
+
+        abstract void moveKey(int from, int to);
+
+        abstract void clearKey(int slot);
+
+        void init(int capacity, boolean withTags) {
+            users = new long[capacity];
+            tags = withTags ? new int[capacity] : null;
+            mask = capacity - 1;
+            size = 0;
+        }
+
+        boolean full() {
+            return size + 1 > (mask + 1) * MAX_LOAD;
+        }
+
+        void set(int slot, long userId, int tag) {
+            users[slot] = userId;
+            if (tags != null) {
+                tags[slot] = tag;
+            }
+        }
+
+        void removeAt(int slot) {
+            int gap = slot;
+            int j = slot;
+            while (true) {
+                j = (j + 1) & mask;
+                if (emptyAt(j)) {
+                    break;
+                }
+                int home = hashAt(j) & mask;
+                // move j into the gap unless its home slot lies cyclically in (gap, j]
+                boolean stays = gap <= j ? (gap < home && home <= j) : (gap < home || home <= j);
+                if (!stays) {
+                    moveKey(j, gap);
+                    users[gap] = users[j];
+                    if (tags != null) {
+                        tags[gap] = tags[j];
+                    }
+                    gap = j;
+                }
+            }
+            clearKey(gap);
+            users[gap] = 0;
+            if (tags != null) {
+                tags[gap] = 0;
+            }
+            size--;
+        }
+
+        void removeUser(long userId) {
+            for (int i = 0; i <= mask; ) {
+                if (!emptyAt(i) && users[i] == userId) {
+                    removeAt(i); // something may have shifted into i: look at it again
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        void reassign(long from, long into) {
+            for (int i = 0; i <= mask; i++) {
+                if (!emptyAt(i) && users[i] == from) {
+                    users[i] = into;
+                }
+            }
+        }
+    }
+
+    private static final class NumericTable extends Table {
+        private long[] keys; // 0 = empty (numericKey never returns 0 for a stored id)
+
+        NumericTable() {
+            this(16);
+        }
+
+        private NumericTable(int capacity) {
+            keys = new long[capacity];
+            init(capacity, true);
+        }
+
+        int slotOf(long key) {
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) return i;
+                if (k == 0) return -1;
+            }
+        }
+
+        void put(long key, long userId, int tag, boolean replace) {
+            if (full()) {
+                grow();
+            }
+            int i = hash(key) & mask;
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                keys[i] = key;
+                size++;
+            } else if (!replace) {
+                return;
+            }
+            set(i, userId, tag);
+        }
+
+        void remove(long key) {
+            int slot = slotOf(key);
+            if (slot >= 0) {
+                removeAt(slot);
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldUsers = users;
+            int[] oldTags = tags;
+            keys = new long[oldKeys.length * 2];
+            init(keys.length, true);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldUsers[i], oldTags[i], true);
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            return mix((int) (key ^ (key >>> 32)));
+        }
+
+        @Override int hashAt(int slot) { return hash(keys[slot]); }
+
+        @Override boolean emptyAt(int slot) { return keys[slot] == 0; }
+
+        @Override void moveKey(int from, int to) { keys[to] = keys[from]; }
+
+        @Override void clearKey(int slot) { keys[slot] = 0; }
+    }
+
+    private static final class TextTable extends Table {
+        private final boolean withTags;
+        private String[] keys;
+
+        TextTable(boolean withTags) {
+            this.withTags = withTags;
+            reset();
+        }
+
+        void reset() {
+            keys = new String[16];
+            init(16, withTags);
+        }
+
+        int slotOf(String key) {
+            for (int i = mix(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+                String k = keys[i];
+                if (k == null) return -1;
+                if (k.equals(key)) return i;
+            }
+        }
+
+        void put(String key, long userId, int tag, boolean replace) {
+            if (full()) {
+                grow();
+            }
+            int i = mix(key.hashCode()) & mask;
+            while (keys[i] != null && !keys[i].equals(key)) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == null) {
+                keys[i] = key;
+                size++;
+            } else if (!replace) {
+                return;
+            }
+            set(i, userId, tag);
+        }
+
+        void remove(String key) {
+            int slot = slotOf(key);
+            if (slot >= 0) {
+                removeAt(slot);
+            }
+        }
+
+        private void grow() {
+            String[] oldKeys = keys;
+            long[] oldUsers = users;
+            int[] oldTags = tags;
+            keys = new String[oldKeys.length * 2];
+            init(keys.length, withTags);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldUsers[i], oldTags != null ? oldTags[i] : 0, true);
+                }
+            }
+        }
+
+        @Override int hashAt(int slot) { return mix(keys[slot].hashCode()); }
+
+        @Override boolean emptyAt(int slot) { return keys[slot] == null; }
+
+        @Override void moveKey(int from, int to) { keys[to] = keys[from]; }
+
+        @Override void clearKey(int slot) { keys[slot] = null; }
+    }
+}
@@ -0,0 +1,103 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces {@code users.last_login_at} writes.
+ * <p>
+ * A login only records "user X logged in at T" in memory; every {@code app.last-login.flush-interval} the
+ * latest time per user goes out as one JDBC batch. A user logging in fifty times in a window costs one
+ * UPDATE, and logins themselves never write for it. The column is advisory: a crash loses at most one
+ * window. An interval of 0 turns tracking off.
+ */
+@Component
+public class LastLoginRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(LastLoginRecorder.class);
+    private static final int BATCH_SIZE = 500;
+
+    // never moves the column backwards (a late flush from another node, clock skew)
+    private static final String TOUCH =
+            "UPDATE users SET last_login_at = ? WHERE id = ? AND (last_login_at IS NULL OR last_login_at < ?)";
+
+    private final JdbcTemplate jdbc;
+    private final boolean enabled;
+    private final ConcurrentHashMap<Long, Instant> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    public LastLoginRecorder(JdbcTemplate jdbc,
+                             @Value("${app.last-login.flush-interval:30s}") Duration flushInterval) {
+        this.jdbc = jdbc;
+        this.enabled = !flushInterval.isZero() && !flushInterval.isNegative();
+        if (enabled) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "last-login-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            long ms = flushInterval.toMillis();
+            flusher.scheduleWithFixedDelay(this::flushQuietly, ms, ms, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    public void touch(Long userId) {
+        if (enabled) {
+            pending.put(userId, Instant.now());
+        }
+    }
+
+    /** Writes everything recorded so far. @return number of users written */
+    public int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        List<Object[]> rows = new ArrayList<>(pending.size());
+        for (Map.Entry<Long, Instant> e : pending.entrySet()) {
+            // remove(key, value): a newer touch that raced in stays queued for the next flush
+            if (pending.remove(e.getKey(), e.getValue())) {
+                Timestamp at = Timestamp.from(e.getValue());
+                rows.add(new Object[]{at, e.getKey(), at});
+            }
+        }
+        for (int i = 0; i < rows.size(); i += BATCH_SIZE) {
+            jdbc.batchUpdate(TOUCH, rows.subList(i, Math.min(rows.size(), i + BATCH_SIZE)));
+        }
+        return rows.size();
+    }
+
+    private void flushQuietly() {
+        try {
+            int n = flush();
+            if (n > 0) {
+                log.debug("Flushed last-login time for {} users", n);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not flush last-login times: {}", e.toString());
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (flusher == null) return;
+        flusher.shutdown();
+        flushQuietly();
+    }
+}
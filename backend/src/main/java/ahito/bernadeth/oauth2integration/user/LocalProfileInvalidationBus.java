@@ -0,0 +1,26 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for a real message bus: every subscriber (i.e. every cache wired to the same
+ * instance) gets each invalidation synchronously.
+ */
+public class LocalProfileInvalidationBus implements ProfileInvalidationBus {
+
+    private final List<Consumer<ProfileInvalidation>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(ProfileInvalidation invalidation) {
+        for (Consumer<ProfileInvalidation> l : listeners) {
+            l.accept(invalidation);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ProfileInvalidation> listener) {
+        listeners.add(listener);
+    }
+}
@@ -0,0 +1,168 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded read-through cache of {@link UserProfile}s keyed by user id.
+ * <p>
+ * Entries expire after a fixed TTL and the least recently used entry is dropped once {@code maxSize}
+ * is reached. Writers ({@code updateProfile}, {@code loadUser}) call {@link #put} / {@link #evict},
+ * which also tell the other nodes on the {@link ProfileInvalidationBus} to drop their copy.
+ * <p>
+ * Next to the entries it keeps each user's current {@link UserProfile#etag() ETag}, set whenever a
+ * profile is stored and dropped with it on invalidation. It has no TTL, so a conditional {@code /api/me}
+ * can be answered with a 304 long after the profile itself has expired from the cache.
+ */
+public class ProfileCache {
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final ProfileInvalidationBus bus;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // access-ordered, so the eldest entry is the least recently used one; guarded by "this"
+    private final LinkedHashMap<Long, Entry> entries;
+    // user id → current ETag; a few dozen bytes each, so many more than entries; cleared when full
+    private final ConcurrentHashMap<Long, String> versions = new ConcurrentHashMap<>();
+    private final int maxVersions;
+    // bumped on every eviction, so a load that raced with one isn't stored; guarded by "this"
+    private long generation;
+
+    public ProfileCache(int maxSize, Duration ttl, ProfileInvalidationBus bus) {
+        this(maxSize, ttl, bus, System::nanoTime);
+    }
+
+    ProfileCache(int maxSize, Duration ttl, ProfileInvalidationBus bus, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.bus = bus;
+        this.maxVersions = Math.max(1024, maxSize * 10);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > ProfileCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        bus.subscribe(this::onInvalidation);
+    }
+
+    /**
+     * Returns the cached profile, or runs {@code loader} on a miss and caches its result.
+     * The loader runs outside the lock so a slow query never blocks other readers; if the user (or anyone)
+     * was evicted meanwhile, what it read may predate the change, so it is returned but not cached.
+     */
+    public Optional<UserProfile> get(Long userId, Function<Long, Optional<UserProfile>> loader) {
+        UserProfile cached = getIfPresent(userId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        long seen;
+        synchronized (this) {
+            seen = generation;
+        }
+        Optional<UserProfile> loaded = loader.apply(userId);
+        loaded.ifPresent(p -> store(p, seen));
+        return loaded;
+    }
+
+    public UserProfile getIfPresent(Long userId) {
+        long now = clock.getAsLong();
+        synchronized (this) {
+            Entry e = entries.get(userId);
+            if (e != null && now - e.loadedAt < ttlNanos) {
+                hits.increment();
+                return e.profile;
+            }
+            if (e != null) {
+                entries.remove(userId);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Write-through after the row has been changed on this node. */
+    public void put(UserProfile profile) {
+        store(profile, -1);
+        bus.publish(new ProfileInvalidation(nodeId, profile.id()));
+    }
+
+    /** Current ETag of the user's profile, or null if this node doesn't know it (then load the profile). */
+    public String version(Long userId) {
+        return versions.get(userId);
+    }
+
+    public void evict(Long userId) {
+        evictLocal(userId);
+        bus.publish(new ProfileInvalidation(nodeId, userId));
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    // seenGeneration -1: a write-through, which is the change itself
+    private void store(UserProfile profile, long seenGeneration) {
+        long now = clock.getAsLong();
+        synchronized (this) {
+            if (seenGeneration >= 0 && generation != seenGeneration) {
+                return;
+            }
+            Entry current = entries.get(profile.id());
+            // a slow loader must not overwrite a fresher write-through value
+            if (current != null && isNewer(current.profile, profile)) {
+                return;
+            }
+            entries.put(profile.id(), new Entry(profile, now));
+            if (versions.size() >= maxVersions) {
+                versions.clear(); // only costs a full 200 per user until they're stored again
+            }
+            versions.put(profile.id(), profile.etag());
+        }
+    }
+
+    private synchronized void evictLocal(Long userId) {
+        generation++;
+        entries.remove(userId);
+        versions.remove(userId);
+    }
+
+    private void onInvalidation(ProfileInvalidation inv) {
+        if (!nodeId.equals(inv.origin())) {
+            evictLocal(inv.userId());
+        }
+    }
+
+    private static boolean isNewer(UserProfile a, UserProfile b) {
+        return a.updatedAt() != null && b.updatedAt() != null && a.updatedAt().isAfter(b.updatedAt());
+    }
+
+    private record Entry(UserProfile profile, long loadedAt) {
+    }
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+}
@@ -0,0 +1,16 @@
+package ahito.bernadeth.oauth2integration.user;
+
+/**
+ * "Drop your copy of this user" message exchanged between nodes over a {@link ProfileInvalidationBus}.
+ *
+ * @param origin node id of the cache that made the change (it ignores its own messages)
+ * @param userId id of the user whose profile changed
+ * @param links  a provider link moved away from the user (unlink, merge): drop its {@link IdentityIndex}
+ *               entries too
+ */
+public record ProfileInvalidation(String origin, Long userId, boolean links) {
+
+    public ProfileInvalidation(String origin, Long userId) {
+        this(origin, userId, false);
+    }
+}
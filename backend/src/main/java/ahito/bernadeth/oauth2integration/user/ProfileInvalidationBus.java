@@ -0,0 +1,14 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import java.util.function.Consumer;
+
+/**
+ * Transport for profile invalidations between nodes. The default is {@link LocalProfileInvalidationBus};
+ * a Redis/Kafka/Postgres NOTIFY implementation can be dropped in as a bean.
+ */
+public interface ProfileInvalidationBus {
+
+    void publish(ProfileInvalidation invalidation);
+
+    void subscribe(Consumer<ProfileInvalidation> listener);
+}
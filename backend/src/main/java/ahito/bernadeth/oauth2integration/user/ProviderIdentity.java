@@ -0,0 +1,12 @@
+package ahito.bernadeth.oauth2integration.user;
+
+/**
+ * Provider attributes after normalization, i.e. everything provisioning needs and nothing more.
+ * Built outside of any transaction once all remote calls to the provider are done.
+ *
+ * @param emailVerified false if the provider doesn't vouch for {@code email}; such an identity is never
+ *                      matched to, or merged with, an account by e-mail
+ */
+public record ProviderIdentity(AuthProvider.Provider provider, String providerUserId, String email,
+                               boolean emailVerified, String name, String picture) {
+}
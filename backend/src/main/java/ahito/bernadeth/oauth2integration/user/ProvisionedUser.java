@@ -0,0 +1,8 @@
+package ahito.bernadeth.oauth2integration.user;
+
+/**
+ * Outcome of a login upsert: the user row as it is after the statement, and whether the statement
+ * created it.
+ */
+public record ProvisionedUser(UserProfile profile, boolean created) {
+}
@@ -2,9 +2,13 @@ package ahito.bernadeth.oauth2integration.user;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
+
 import java.time.Instant;
 
 @Entity
+// UPDATEs carry only the changed columns (no rewriting the 1000-char bio when the name changes)
+@DynamicUpdate
 @Table(name = "users")
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
 public class User {
@@ -28,6 +32,10 @@ public class User {
     @Column(nullable = false)
     private Instant updatedAt;
 
+    // written in batches by LastLoginRecorder, deliberately not through the entity (doesn't move updatedAt)
+    @Column(insertable = false, updatable = false)
+    private Instant lastLoginAt;
+
     @PrePersist
     void onCreate() { createdAt = updatedAt = Instant.now(); }
 
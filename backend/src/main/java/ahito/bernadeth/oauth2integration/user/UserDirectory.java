@@ -0,0 +1,183 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Many-users-at-once reads for admin tooling and sync jobs.
+ * <ul>
+ *   <li>{@link #lookup} resolves ids and e-mails with chunked {@code IN} queries. E-mails the
+ *       {@link IdentityIndex} knows become ids, and ids the profile cache already holds are not queried
+ *       at all.</li>
+ *   <li>{@link #export} writes every user with its provider links as NDJSON. It walks the table in keyset
+ *       pages; each page is a forward-only JPA stream in its own short read-only transaction, so neither
+ *       memory nor connection time grows with the table.</li>
+ * </ul>
+ */
+@Service
+public class UserDirectory {
+
+    // keeps IN lists well under driver/database parameter limits and lets Hibernate reuse padded plans
+    static final int IN_CHUNK = 500;
+    static final int EXPORT_PAGE = 10_000;
+
+    private final UserRepository users;
+    private final ProfileCache profiles;
+    private final IdentityIndex identities;
+    private final TransactionTemplate readOnlyTx;
+    private final ObjectMapper mapper;
+
+    public UserDirectory(UserRepository users, ProfileCache profiles, IdentityIndex identities,
+                         PlatformTransactionManager txManager, ObjectMapper mapper) {
+        this.users = users;
+        this.profiles = profiles;
+        this.identities = identities;
+        this.readOnlyTx = new TransactionTemplate(txManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.mapper = mapper;
+    }
+
+    @Transactional(readOnly = true)
+    public BatchLookup lookup(Collection<Long> ids, Collection<String> emails) {
+        Map<Long, UserProfile> found = new LinkedHashMap<>();
+
+        Set<Long> wantedIds = new LinkedHashSet<>(ids);
+        wantedIds.remove(null);
+        Set<String> wantedEmails = new LinkedHashSet<>(emails);
+        wantedEmails.remove(null);
+
+        // e-mails the index knows are looked up (or found in the cache) by id, together with the ids
+        Map<String, Long> indexed = new HashMap<>();
+        for (String email : wantedEmails) {
+            long id = identities.userIdForEmail(email);
+            if (id != IdentityIndex.UNKNOWN) {
+                indexed.put(email, id);
+            }
+        }
+        Set<Long> byId = new LinkedHashSet<>(wantedIds);
+        byId.addAll(indexed.values());
+
+        List<Long> uncached = new ArrayList<>();
+        for (Long id : byId) {
+            UserProfile cached = profiles.getIfPresent(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                uncached.add(id);
+            }
+        }
+        inChunks(uncached, chunk -> users.findByIdIn(chunk).forEach(u -> found.put(u.getId(), UserProfile.from(u))));
+
+        Set<String> foundEmails = new HashSet<>();
+        List<String> byEmail = new ArrayList<>();
+        for (String email : wantedEmails) {
+            UserProfile p = indexed.containsKey(email) ? found.get(indexed.get(email)) : null;
+            if (p != null && email.equals(p.email())) {
+                foundEmails.add(email);
+            } else {
+                byEmail.add(email); // not indexed, or the index was stale
+            }
+        }
+        inChunks(byEmail, chunk -> users.findByEmailIn(chunk).forEach(u -> {
+            found.putIfAbsent(u.getId(), UserProfile.from(u));
+            foundEmails.add(u.getEmail());
+        }));
+
+        List<Long> missingIds = wantedIds.stream().filter(id -> !found.containsKey(id)).toList();
+        List<String> missingEmails = wantedEmails.stream().filter(e -> !foundEmails.contains(e)).toList();
+        return new BatchLookup(List.copyOf(found.values()), missingIds, missingEmails);
+    }
+
+    /**
+     * Writes users with {@code id > after}, in id order, one JSON object per line. A sync job that gets cut
+     * off can resume by passing the last id it received.
+     *
+     * @return number of users written
+     */
+    public long export(long after, OutputStream out) throws IOException {
+        JsonGenerator json = mapper.getFactory().createGenerator(out);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        json.setRootValueSeparator(null);
+
+        long written = 0;
+        long cursor = after;
+        while (true) {
+            List<Long> page = users.findIdsAfter(cursor, Limit.of(EXPORT_PAGE));
+            if (page.isEmpty()) {
+                break;
+            }
+            long from = cursor;
+            long last = page.get(page.size() - 1);
+            try {
+                written += readOnlyTx.execute(status -> {
+                    try (Stream<UserExportRow> rows = users.streamExportRows(from, last)) {
+                        return writePage(rows, json);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause(); // client went away
+            }
+            json.flush();
+            cursor = last;
+            if (page.size() < EXPORT_PAGE) {
+                break;
+            }
+        }
+        json.close();
+        return written;
+    }
+
+    // rows arrive ordered by user id, so a user's links are consecutive; only one user is held at a time
+    private long writePage(Stream<UserExportRow> rows, JsonGenerator json) {
+        long count = 0;
+        UserExportRow head = null;
+        List<ExportedUser.Link> links = new ArrayList<>();
+        for (Iterator<UserExportRow> it = rows.iterator(); it.hasNext(); ) {
+            UserExportRow row = it.next();
+            if (head != null && !head.id().equals(row.id())) {
+                write(json, head, links);
+                count++;
+                links = new ArrayList<>();
+            }
+            if (head == null || !head.id().equals(row.id())) {
+                head = row;
+            }
+            if (row.provider() != null) {
+                links.add(new ExportedUser.Link(row.provider(), row.providerUserId(), row.providerEmail()));
+            }
+        }
+        if (head != null) {
+            write(json, head, links);
+            count++;
+        }
+        return count;
+    }
+
+    private static void write(JsonGenerator json, UserExportRow u, List<ExportedUser.Link> links) {
+        try {
+            json.writeObject(new ExportedUser(u.id(), u.email(), u.displayName(), u.avatarUrl(), u.bio(),
+                    u.createdAt(), u.updatedAt(), links));
+            json.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> void inChunks(List<T> keys, Consumer<List<T>> query) {
+        for (int i = 0; i < keys.size(); i += IN_CHUNK) {
+            query.accept(keys.subList(i, Math.min(keys.size(), i + IN_CHUNK)));
+        }
+    }
+}
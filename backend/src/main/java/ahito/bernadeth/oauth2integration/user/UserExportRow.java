@@ -0,0 +1,9 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import java.time.Instant;
+
+/** Flat user + provider-link row as read by the export query; the link columns are null for unlinked users. */
+public record UserExportRow(Long id, String email, String displayName, String avatarUrl, String bio,
+                            Instant createdAt, Instant updatedAt,
+                            AuthProvider.Provider provider, String providerUserId, String providerEmail) {
+}
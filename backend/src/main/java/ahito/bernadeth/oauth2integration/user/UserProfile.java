@@ -0,0 +1,23 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Immutable, detached snapshot of a {@link User} row. Safe to cache and share between threads, and to keep
+ * in the HttpSession.
+ */
+public record UserProfile(Long id, String email, String displayName, String avatarUrl, String bio,
+                          Instant updatedAt) implements Serializable {
+
+    public static UserProfile from(User u) {
+        return new UserProfile(u.getId(), u.getEmail(), u.getDisplayName(), u.getAvatarUrl(), u.getBio(),
+                u.getUpdatedAt());
+    }
+
+    /** Strong validator for this version of the profile: user id plus {@code updatedAt}, quoted. */
+    public String etag() {
+        long stamp = updatedAt == null ? 0 : updatedAt.getEpochSecond() * 1_000_000_000L + updatedAt.getNano();
+        return "\"" + id + "-" + Long.toHexString(stamp) + "\"";
+    }
+}
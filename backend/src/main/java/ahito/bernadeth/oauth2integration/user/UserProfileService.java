@@ -0,0 +1,61 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Objects;
+
+/** Profile edits from {@code POST /api/profile}. */
+@Service
+public class UserProfileService {
+
+    private final UserRepository users;
+
+    public UserProfileService(UserRepository users) {
+        this.users = users;
+    }
+
+    /**
+     * Applies the edit to the managed entity, so Hibernate's dirty check decides what (if anything) is
+     * written: nothing when the values are unchanged (no UPDATE, no {@code @PreUpdate}), otherwise only
+     * the changed columns. {@code null} means "leave as is".
+     * <p>
+     * The row is loaded by {@code userId} when known, else by e-mail. If it is missing (rare), it is
+     * created from the provider's name and picture first.
+     */
+    @Transactional
+    public Edit edit(Long userId, String email, String providerName, String providerPicture, String displayName,
+                     String bio) {
+        User u = (userId != null ? users.findById(userId) : users.findByEmail(email)).orElse(null);
+        boolean changed = false;
+        if (u == null) {
+            u = new User();
+            u.setEmail(email);
+            u.setDisplayName(providerName);
+            u.setAvatarUrl(providerPicture); // initialize avatar for Google/GitHub-created users
+            u = users.save(u);
+            changed = true;
+        }
+        if (displayName != null && !displayName.equals(u.getDisplayName())) {
+            u.setDisplayName(displayName);
+            changed = true;
+        }
+        if (bio != null && !Objects.equals(bio, u.getBio())) {
+            u.setBio(bio);
+            changed = true;
+        }
+        if (changed) {
+            users.flush(); // runs @PreUpdate now, so the returned profile carries the new updatedAt
+        }
+        return new Edit(UserProfile.from(u), changed);
+    }
+
+    public record Edit(UserProfile profile, boolean changed) {
+    }
+
+    /** True if applying {@code displayName}/{@code bio} to {@code current} would change nothing. */
+    public static boolean unchanged(UserProfile current, String displayName, String bio) {
+        return (displayName == null || displayName.equals(current.displayName()))
+                && (bio == null || bio.equals(current.bio()));
+    }
+}
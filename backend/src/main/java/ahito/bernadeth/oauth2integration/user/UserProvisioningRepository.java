@@ -0,0 +1,254 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Native, race-free upserts for the login path, plus the single read that lets a returning login skip them.
+ * <p>
+ * Concurrent first logins for the same e-mail (or the same provider identity) no longer race on the
+ * unique constraints: the database resolves the conflict inside a single statement. Per vendor:
+ * <ul>
+ *   <li>PostgreSQL: one {@code INSERT ... ON CONFLICT DO UPDATE ... RETURNING} round-trip; {@code xmax = 0}
+ *       on the returned row tells an insert from an update</li>
+ *   <li>MySQL: {@code INSERT ... ON DUPLICATE KEY UPDATE} followed by a read-back; the affected-rows count
+ *       tells what happened (1 inserted, 2 updated, 0 unchanged; needs {@code useAffectedRows=true})</li>
+ *   <li>H2: only supports the untargeted {@code ON CONFLICT DO NOTHING} in PostgreSQL mode, so it is
+ *       insert-if-absent, an update that checks for a change itself, and a read-back (dev only)</li>
+ * </ul>
+ * Name and avatar are only overwritten with non-null provider values, and {@code updated_at} only moves
+ * when one of them actually changed.
+ */
+@Repository
+public class UserProvisioningRepository {
+
+    enum Dialect { POSTGRESQL, MYSQL, H2 }
+
+    private static final String USER_COLUMNS = "id, email, display_name, avatar_url, bio, updated_at";
+
+    private static final String PG_UPSERT_USER = """
+            WITH up AS (
+                INSERT INTO users (email, display_name, avatar_url, created_at, updated_at)
+                VALUES (?, ?, ?, ?, ?)
+                ON CONFLICT (email) DO UPDATE
+                   SET display_name = COALESCE(EXCLUDED.display_name, users.display_name),
+                       avatar_url = COALESCE(EXCLUDED.avatar_url, users.avatar_url),
+                       updated_at = EXCLUDED.updated_at
+                 WHERE (EXCLUDED.display_name IS NOT NULL AND EXCLUDED.display_name IS DISTINCT FROM users.display_name)
+                    OR (EXCLUDED.avatar_url IS NOT NULL AND EXCLUDED.avatar_url IS DISTINCT FROM users.avatar_url)
+                RETURNING %1$s, (xmax = 0) AS inserted)
+            SELECT %1$s, inserted FROM up
+            UNION ALL
+            SELECT %1$s, false FROM users WHERE email = ? AND NOT EXISTS (SELECT 1 FROM up)
+            """.formatted(USER_COLUMNS);
+
+    // updated_at goes first: MySQL evaluates SET assignments left to right against the already-updated row
+    private static final String MYSQL_UPSERT_USER = """
+            INSERT INTO users (email, display_name, avatar_url, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE
+                updated_at = IF((VALUES(display_name) IS NOT NULL AND NOT (VALUES(display_name) <=> display_name))
+                                 OR (VALUES(avatar_url) IS NOT NULL AND NOT (VALUES(avatar_url) <=> avatar_url)),
+                                VALUES(updated_at), updated_at),
+                display_name = COALESCE(VALUES(display_name), display_name),
+                avatar_url = COALESCE(VALUES(avatar_url), avatar_url)
+            """;
+
+    private static final String H2_INSERT_USER = """
+            INSERT INTO users (email, display_name, avatar_url, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT DO NOTHING
+            """;
+
+    // same WHERE as the PostgreSQL upsert: a login whose values another login already stored writes nothing
+    private static final String H2_UPDATE_USER = """
+            UPDATE users
+               SET display_name = COALESCE(?, display_name),
+                   avatar_url = COALESCE(?, avatar_url),
+                   updated_at = ?
+             WHERE email = ?
+               AND (COALESCE(?, display_name) IS DISTINCT FROM display_name
+                    OR COALESCE(?, avatar_url) IS DISTINCT FROM avatar_url)
+            """;
+
+    // only what login needs: the profile columns (for the principal and the /api/me cache) and whether this
+    // provider identity is linked yet. The linked user wins; the e-mail owner only counts while the identity is
+    // unlinked. All probes are unique-index lookups; no created_at, no entity hydration.
+    private static final String SELECT_LOGIN_STATE = """
+            SELECT u.id, u.email, u.display_name, u.avatar_url, u.bio, u.updated_at,
+                   1 AS linked, ap.provider_email
+              FROM auth_provider ap
+              JOIN users u ON u.id = ap.user_id
+             WHERE ap.provider = ? AND ap.provider_user_id = ?
+            UNION ALL
+            SELECT u.id, u.email, u.display_name, u.avatar_url, u.bio, u.updated_at,
+                   0 AS linked, NULL AS provider_email
+              FROM users u
+             WHERE u.email = ?
+               AND NOT EXISTS (SELECT 1 FROM auth_provider ap WHERE ap.provider = ? AND ap.provider_user_id = ?)
+            """;
+
+    private static final String SELECT_PROFILE =
+            "SELECT id, email, display_name, avatar_url, bio, updated_at FROM users WHERE id = ?";
+
+    private static final String UPDATE_LINK_EMAIL =
+            "UPDATE auth_provider SET provider_email = ? WHERE provider = ? AND provider_user_id = ?";
+
+    private static final String SELECT_USER_BY_EMAIL = "SELECT " + USER_COLUMNS + " FROM users WHERE email = ?";
+
+    // only what the provider sent is written: a concurrent login's other column is not put back to our snapshot
+    private static final String UPDATE_USER_INFO = """
+            UPDATE users
+               SET display_name = COALESCE(?, display_name), avatar_url = COALESCE(?, avatar_url), updated_at = ?
+             WHERE id = ?
+            """;
+
+    private static final String PG_INSERT_LINK = """
+            INSERT INTO auth_provider (user_id, provider, provider_user_id, provider_email)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (provider, provider_user_id) DO NOTHING
+            """;
+
+    private static final String MYSQL_INSERT_LINK = """
+            INSERT INTO auth_provider (user_id, provider, provider_user_id, provider_email)
+            VALUES (?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE id = id
+            """;
+
+    private static final String H2_INSERT_LINK = """
+            INSERT INTO auth_provider (user_id, provider, provider_user_id, provider_email)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private static final RowMapper<UserProfile> PROFILE = (rs, n) -> new UserProfile(
+            rs.getLong("id"),
+            rs.getString("email"),
+            rs.getString("display_name"),
+            rs.getString("avatar_url"),
+            rs.getString("bio"),
+            rs.getTimestamp("updated_at").toInstant());
+
+    private final JdbcTemplate jdbc;
+    private final Dialect dialect;
+
+    public UserProvisioningRepository(JdbcTemplate jdbc, DataSource dataSource) throws MetaDataAccessException {
+        this.jdbc = jdbc;
+        this.dialect = detect(JdbcUtils.extractDatabaseMetaData(dataSource, md -> md.getDatabaseProductName()));
+    }
+
+    static Dialect detect(String productName) {
+        String p = productName.toLowerCase();
+        if (p.contains("postgres")) return Dialect.POSTGRESQL;
+        if (p.contains("mysql") || p.contains("mariadb")) return Dialect.MYSQL;
+        if (p.contains("h2")) return Dialect.H2;
+        throw new IllegalStateException("No upsert support for database " + productName);
+    }
+
+    /**
+     * Current state of a login: the user the provider identity is linked to, or else the user owning
+     * {@code email} (then {@code linked} is false). {@code null} if there is neither.
+     */
+    public LoginState findLoginState(String email, AuthProvider.Provider provider, String providerUserId) {
+        List<LoginState> rows = jdbc.query(SELECT_LOGIN_STATE,
+                (rs, n) -> new LoginState(PROFILE.mapRow(rs, n), rs.getInt("linked") == 1,
+                        rs.getString("provider_email")),
+                provider.name(), providerUserId, email, provider.name(), providerUserId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /** The user's profile columns by primary key, or {@code null} if the user no longer exists. */
+    public UserProfile findProfile(long userId) {
+        List<UserProfile> rows = jdbc.query(SELECT_PROFILE, PROFILE, userId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Applies the provider's (non-null) name and avatar to a user we already resolved, by id: the login's
+     * e-mail is not necessarily the account's once identities are linked explicitly.
+     */
+    public UserProfile refreshUser(UserProfile p, String displayName, String avatarUrl) {
+        if (!changes(p, displayName, avatarUrl)) {
+            return p;
+        }
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        String name = displayName != null ? displayName : p.displayName();
+        String avatar = avatarUrl != null ? avatarUrl : p.avatarUrl();
+        jdbc.update(UPDATE_USER_INFO, displayName, avatarUrl, Timestamp.from(now), p.id());
+        return new UserProfile(p.id(), p.email(), name, avatar, p.bio(), now);
+    }
+
+    /**
+     * Creates the user for {@code email} or refreshes its name/avatar, in one statement on PostgreSQL.
+     */
+    public ProvisionedUser upsertUser(String email, String displayName, String avatarUrl) {
+        // columns are microsecond precision; truncate so what we return is what was stored
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        Timestamp ts = Timestamp.from(now);
+
+        return switch (dialect) {
+            case POSTGRESQL -> {
+                List<ProvisionedUser> rows = jdbc.query(PG_UPSERT_USER,
+                        (rs, n) -> new ProvisionedUser(PROFILE.mapRow(rs, n), rs.getBoolean("inserted")),
+                        email, displayName, avatarUrl, ts, ts, email);
+                // the snapshot read can miss a row inserted concurrently by another tx; read it again
+                yield rows.isEmpty() ? new ProvisionedUser(selectProfile(email), false) : rows.get(0);
+            }
+            case MYSQL -> {
+                boolean created = jdbc.update(MYSQL_UPSERT_USER, email, displayName, avatarUrl, ts, ts) == 1;
+                yield new ProvisionedUser(selectProfile(email), created);
+            }
+            case H2 -> {
+                boolean created = jdbc.update(H2_INSERT_USER, email, displayName, avatarUrl, ts, ts) == 1;
+                if (!created) {
+                    jdbc.update(H2_UPDATE_USER, displayName, avatarUrl, ts, email, displayName, avatarUrl);
+                }
+                yield new ProvisionedUser(selectProfile(email), created);
+            }
+        };
+    }
+
+    /**
+     * Links the provider identity to {@code userId} unless that identity is already linked.
+     *
+     * @return true if a new link row was inserted
+     */
+    public boolean insertLinkIfAbsent(Long userId, AuthProvider.Provider provider, String providerUserId,
+                                      String providerEmail) {
+        String sql = switch (dialect) {
+            case POSTGRESQL -> PG_INSERT_LINK;
+            case MYSQL -> MYSQL_INSERT_LINK;
+            case H2 -> H2_INSERT_LINK;
+        };
+        return jdbc.update(sql, userId, provider.name(), providerUserId, providerEmail) == 1;
+    }
+
+    /** Records the e-mail the provider now reports for an existing link. */
+    public void updateLinkEmail(AuthProvider.Provider provider, String providerUserId, String providerEmail) {
+        jdbc.update(UPDATE_LINK_EMAIL, providerEmail, provider.name(), providerUserId);
+    }
+
+    private UserProfile selectProfile(String email) {
+        return jdbc.queryForObject(SELECT_USER_BY_EMAIL, PROFILE, email);
+    }
+
+    /** Whether the provider's (non-null) name/avatar differ from what we have stored. */
+    static boolean changes(UserProfile p, String displayName, String avatarUrl) {
+        return (displayName != null && !Objects.equals(displayName, p.displayName()))
+                || (avatarUrl != null && !Objects.equals(avatarUrl, p.avatarUrl()));
+    }
+
+    /** {@code linkedEmail} is the stored provider e-mail of the link, if {@code linked}. */
+    public record LoginState(UserProfile profile, boolean linked, String linkedEmail) {
+    }
+}
@@ -0,0 +1,124 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import ahito.bernadeth.oauth2integration.trace.LoginStage;
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningRepository.LoginState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Locale;
+
+/**
+ * Short, DB-only half of the login flow: upsert the local {@link User} and its {@link AuthProvider}
+ * link. Callers must do all provider HTTP calls <em>before</em> calling in here so a slow provider never
+ * holds a pooled connection.
+ * <p>
+ * Most logins are returning users whose provider profile hasn't changed. The {@link IdentityIndex} knows
+ * their account and the {@link ProfileCache} usually has it, so they run no SQL at all; otherwise one
+ * indexed read tells us the same. The upserts only run for the part that actually needs it. The last-login
+ * time is not written here either but coalesced by {@link LastLoginRecorder}.
+ * <p>
+ * The account is the one the provider identity is linked to. The e-mail only decides for an identity
+ * seen for the first time: it joins the user with that e-mail, or creates one. That takes an e-mail the
+ * provider verified; otherwise anyone able to set the address at some provider could sign in to its
+ * owner's account. An identity without one gets an account of its own under a stand-in address (see
+ * {@link #standInEmail}), which only it can ever come back with; it can still be linked explicitly.
+ */
+@Service
+public class UserProvisioningService {
+
+    private static final Logger log = LoggerFactory.getLogger(UserProvisioningService.class);
+
+    private final UserProvisioningRepository upserts;
+    private final LastLoginRecorder lastLogins;
+    private final IdentityIndex identities;
+    private final ProfileCache profiles;
+
+    public UserProvisioningService(UserProvisioningRepository upserts, LastLoginRecorder lastLogins,
+                                   IdentityIndex identities, ProfileCache profiles) {
+        this.upserts = upserts;
+        this.lastLogins = lastLogins;
+        this.identities = identities;
+        this.profiles = profiles;
+    }
+
+    @Transactional
+    public ProvisionedUser provision(ProviderIdentity id, LoginTrace trace) {
+        trace.begin(LoginStage.ACCOUNT_LOOKUP);
+        long seen = identities.generation();
+        LoginState state = fromIndex(id);
+        boolean indexed = state != null;
+        if (state == null) {
+            state = upserts.findLoginState(id.emailVerified() ? id.email() : null, id.provider(),
+                    id.providerUserId());
+        }
+        trace.end(LoginStage.ACCOUNT_LOOKUP);
+
+        ProvisionedUser user;
+        if (state == null) {
+            trace.begin(LoginStage.USER_UPSERT);
+            user = upserts.upsertUser(id.emailVerified() ? id.email() : standInEmail(id), id.name(), id.picture());
+            trace.end(LoginStage.USER_UPSERT);
+        } else if (!UserProvisioningRepository.changes(state.profile(), id.name(), id.picture())) {
+            user = new ProvisionedUser(state.profile(), false);
+        } else {
+            trace.begin(LoginStage.USER_UPSERT);
+            user = new ProvisionedUser(upserts.refreshUser(state.profile(), id.name(), id.picture()), false);
+            trace.end(LoginStage.USER_UPSERT);
+        }
+
+        boolean linked = false;
+        // whether the identity is known to be linked to this user (a lost insert race leaves that open)
+        boolean owned = state != null && state.linked();
+        boolean linkEmailChanged = false;
+        if (!owned) {
+            trace.begin(LoginStage.LINK_UPSERT);
+            linked = upserts.insertLinkIfAbsent(user.profile().id(), id.provider(), id.providerUserId(),
+                    id.email());
+            owned = linked;
+            trace.end(LoginStage.LINK_UPSERT);
+        } else if (id.email() != null && !id.email().equals(state.linkedEmail())) {
+            trace.begin(LoginStage.LINK_UPSERT);
+            upserts.updateLinkEmail(id.provider(), id.providerUserId(), id.email());
+            linkEmailChanged = true;
+            trace.end(LoginStage.LINK_UPSERT);
+        }
+        lastLogins.touch(user.profile().id());
+
+        if (owned && (!indexed || linkEmailChanged)) {
+            long userId = user.profile().id();
+            String email = user.profile().email();
+            IdentityIndex.afterCommit(() -> {
+                identities.put(id.provider(), id.providerUserId(), id.email(), userId, seen);
+                identities.putEmail(email, userId, seen);
+            });
+        }
+
+        log.debug("Provisioned userId={} created={} provider={} newLink={}",
+                user.profile().id(), user.created(), id.provider(), linked);
+        return user;
+    }
+
+    /** Account e-mail for an identity without a verified one: unique to it, and not deliverable. */
+    static String standInEmail(ProviderIdentity id) {
+        return id.provider().name().toLowerCase(Locale.ROOT) + "-" + id.providerUserId() + "@unverified.invalid";
+    }
+
+    // the index knows the account and the profile is cached (or one primary-key read away)
+    private LoginState fromIndex(ProviderIdentity id) {
+        IdentityIndex.Hit hit = identities.find(id.provider(), id.providerUserId(), id.email());
+        if (hit == null) {
+            return null;
+        }
+        UserProfile profile = profiles.getIfPresent(hit.userId());
+        if (profile == null) {
+            profile = upserts.findProfile(hit.userId());
+        }
+        if (profile == null) {
+            return null; // merged away in the meantime; the database knows where the identity went
+        }
+        return new LoginState(profile, true, hit.emailCurrent() ? id.email() : null);
+    }
+}
@@ -1,8 +1,41 @@
 package ahito.bernadeth.oauth2integration.user;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
+
+    // batch lookups; callers chunk the keys (see UserDirectory)
+    List<User> findByIdIn(Collection<Long> ids);
+
+    List<User> findByEmailIn(Collection<String> emails);
+
+    // keyset page boundaries for the export: no OFFSET, so page N costs the same as page 1
+    @Query("select u.id from User u where u.id > :after order by u.id")
+    List<Long> findIdsAfter(long after, Limit limit);
+
+    // one row per (user, link); users without links come back once with null link columns.
+    // Must be consumed inside a transaction; MySQL additionally needs useCursorFetch=true to honour the fetch size
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("""
+            select new ahito.bernadeth.oauth2integration.user.UserExportRow(
+                u.id, u.email, u.displayName, u.avatarUrl, u.bio, u.createdAt, u.updatedAt,
+                ap.provider, ap.providerUserId, ap.providerEmail)
+            from User u left join AuthProvider ap on ap.user = u
+            where u.id > :after and u.id <= :last
+            order by u.id, ap.id""")
+    Stream<UserExportRow> streamExportRows(long after, long last);
 }
@@ -0,0 +1,91 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.security.AccountLinkIntent;
+import ahito.bernadeth.oauth2integration.user.AccountLinkRepository;
+import ahito.bernadeth.oauth2integration.user.AccountLinkService;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The signed-in user's provider links.
+ * <ul>
+ *   <li>{@code GET /api/account/links} lists them.</li>
+ *   <li>{@code POST /api/account/links/{registrationId}} starts linking another one. The SPA then sends the
+ *       browser to the returned {@code redirect}, the provider login. If that identity already belongs to
+ *       another account, the login is refused ({@code /profile?link-error=linked-elsewhere}) unless the
+ *       link was started with {@code ?merge=true}, which merges that account into this one.</li>
+ *   <li>{@code DELETE /api/account/links/{id}} removes one (never the last).</li>
+ * </ul>
+ */
+@RestController
+@RequestMapping(value = "/api/account/links", produces = MediaType.APPLICATION_JSON_VALUE)
+public class AccountLinkController {
+
+    private final AccountLinkService links;
+    private final ClientRegistrationRepository registrations;
+    private final boolean secureCookie;
+
+    public AccountLinkController(AccountLinkService links, ClientRegistrationRepository registrations,
+                                 @Value("${app.session.secure-cookie:false}") boolean secureCookie) {
+        this.links = links;
+        this.registrations = registrations;
+        this.secureCookie = secureCookie;
+    }
+
+    public record LinkResponse(long id, String provider, String email) {
+        static LinkResponse of(AccountLinkRepository.Link l) {
+            return new LinkResponse(l.id(), l.provider().name().toLowerCase(Locale.ROOT), l.providerEmail());
+        }
+    }
+
+    public record StartResponse(boolean ok, String redirect) {
+    }
+
+    public record UnlinkResponse(boolean ok) {
+    }
+
+    @GetMapping
+    public ResponseEntity<?> list(@CurrentUser UserProfile user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(ApiError.of("unauthorized"));
+        }
+        List<LinkResponse> body = links.links(user.id()).stream().map(LinkResponse::of).toList();
+        return ResponseEntity.ok(body);
+    }
+
+    @PostMapping("/{registrationId}")
+    public ResponseEntity<?> start(@CurrentUser UserProfile user, @PathVariable String registrationId,
+                                   @RequestParam(defaultValue = "false") boolean merge,
+                                   HttpServletResponse response) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(ApiError.of("unauthorized"));
+        }
+        if (registrations.findByRegistrationId(registrationId) == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiError.of("unknown-provider"));
+        }
+        new AccountLinkIntent(user.id(), registrationId, merge).write(response, secureCookie);
+        return ResponseEntity.ok(new StartResponse(true, "/oauth2/authorization/" + registrationId));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> unlink(@CurrentUser UserProfile user, @PathVariable long id) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(ApiError.of("unauthorized"));
+        }
+        return switch (links.unlink(user, id)) {
+            case UNLINKED -> ResponseEntity.ok(new UnlinkResponse(true));
+            case NOT_FOUND -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiError.of("link-not-found"));
+            case LAST_LINK -> ResponseEntity.status(HttpStatus.CONFLICT).body(ApiError.of("last-link"));
+            case SAME_EMAIL -> ResponseEntity.status(HttpStatus.CONFLICT).body(ApiError.of("same-email"));
+        };
+    }
+}
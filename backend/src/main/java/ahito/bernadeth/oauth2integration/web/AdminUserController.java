@@ -0,0 +1,49 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.user.BatchLookup;
+import ahito.bernadeth.oauth2integration.user.UserDirectory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+import java.util.Map;
+
+/** Bulk reads for admin tooling and downstream sync jobs (restricted to {@code app.admin-user-ids}). */
+@RestController
+@RequestMapping("/api/admin/users")
+public class AdminUserController {
+
+    static final int MAX_BATCH_KEYS = 5_000;
+    static final String NDJSON = "application/x-ndjson";
+
+    private final UserDirectory directory;
+
+    public AdminUserController(UserDirectory directory) {
+        this.directory = directory;
+    }
+
+    public record BatchRequest(List<Long> ids, List<String> emails) {
+        List<Long> idsOrEmpty() { return ids != null ? ids : List.of(); }
+        List<String> emailsOrEmpty() { return emails != null ? emails : List.of(); }
+    }
+
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> batch(@RequestBody BatchRequest body) {
+        if (body.idsOrEmpty().size() + body.emailsOrEmpty().size() > MAX_BATCH_KEYS) {
+            return ResponseEntity.badRequest().body(Map.of("ok", false, "error", "too-many-keys",
+                    "max", MAX_BATCH_KEYS));
+        }
+        BatchLookup result = directory.lookup(body.idsOrEmpty(), body.emailsOrEmpty());
+        return ResponseEntity.ok(result);
+    }
+
+    // streamed straight to the client; resume with ?after=<last id received>
+    @GetMapping(value = "/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "0") long after) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(out -> directory.export(after, out));
+    }
+}
@@ -0,0 +1,14 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+
+/** JSON error body for {@code /api} calls: {@code {"ok":false,"error":"<code>"}}, plus the offending fields if any. */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ApiError(boolean ok, String error, Map<String, String> fields) {
+
+    public static ApiError of(String error) {
+        return new ApiError(false, error, null);
+    }
+}
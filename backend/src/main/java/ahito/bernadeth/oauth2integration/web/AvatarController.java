@@ -0,0 +1,77 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.avatar.Avatar;
+import ahito.bernadeth.oauth2integration.avatar.AvatarService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+@RestController
+public class AvatarController {
+
+    // Tomcat's sendfile contract (NIO connector): set these and the file goes out after we return
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // content-addressed, so a changed picture gets a new ETag; an hour before the browser revalidates
+    private static final String CACHE_CONTROL = "private, max-age=3600";
+
+    private final AvatarService avatars;
+
+    public AvatarController(AvatarService avatars) {
+        this.avatars = avatars;
+    }
+
+    /**
+     * Resized copy of the user's provider picture, e.g. {@code /api/avatar/42?size=64}. 404 when the user
+     * has no picture or it can't be fetched; the SPA then falls back to generated initials.
+     */
+    @GetMapping("/api/avatar/{userId}")
+    public void avatar(@PathVariable long userId, @RequestParam(defaultValue = "128") int size,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<Avatar> found = avatars.avatar(userId, size);
+        if (found.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Avatar avatar = found.get();
+        response.setHeader(HttpHeaders.ETAG, avatar.etag());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.contains(avatar.etag()) || ifNoneMatch.trim().equals("*"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(MediaType.IMAGE_PNG_VALUE);
+        response.setContentLengthLong(avatar.length());
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILE, avatar.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, avatar.length());
+            return;
+        }
+        // no sendfile (TLS on the connector, another container, MockMvc): stream the channel instead
+        try (FileChannel file = FileChannel.open(avatar.file(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            while (position < avatar.length()) {
+                position += file.transferTo(position, avatar.length() - position, out);
+            }
+        }
+    }
+}
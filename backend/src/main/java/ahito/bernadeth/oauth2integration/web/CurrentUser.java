@@ -0,0 +1,17 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Injects the logged-in user's {@link ahito.bernadeth.oauth2integration.user.UserProfile}, or {@code null}
+ * when nobody is logged in or the row is gone. See {@link CurrentUserArgumentResolver}.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CurrentUser {
+}
@@ -0,0 +1,91 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import ahito.bernadeth.oauth2integration.user.UserRepository;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.core.MethodParameter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import java.io.Serializable;
+
+/**
+ * Resolves {@link CurrentUser @CurrentUser} {@link UserProfile} parameters by the DB id that
+ * {@code AppOAuth2UserService} puts on the principal, cheapest source first:
+ * <ol>
+ *   <li>this request, if something already asked;</li>
+ *   <li>the copy kept in the HttpSession, as long as {@link ProfileCache#version} still says it is current
+ *       (an edit on any node changes or drops the version);</li>
+ *   <li>the {@link ProfileCache}, loading by primary key on a miss.</li>
+ * </ol>
+ * So a browser session costs one profile load, not one per request. Without a session (stateless mode)
+ * it is one cache lookup per request.
+ */
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+    static final String ATTRIBUTE = CurrentUserArgumentResolver.class.getName() + ".profile";
+    private static final Object NONE = new Object();
+
+    // the ETag travels with the copy so checking it against the cache's version allocates nothing
+    private record Kept(UserProfile profile, String etag) implements Serializable {
+    }
+
+    private final ProfileCache profiles;
+    private final UserRepository users;
+
+    public CurrentUserArgumentResolver(ProfileCache profiles, UserRepository users) {
+        this.profiles = profiles;
+        this.users = users;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentUser.class)
+                && UserProfile.class.equals(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        return resolve(webRequest.getNativeRequest(HttpServletRequest.class));
+    }
+
+    public UserProfile resolve(HttpServletRequest request) {
+        Object resolved = request.getAttribute(ATTRIBUTE);
+        if (resolved == null) {
+            UserProfile u = load(request);
+            resolved = u != null ? u : NONE;
+            request.setAttribute(ATTRIBUTE, resolved);
+        }
+        return resolved == NONE ? null : (UserProfile) resolved;
+    }
+
+    private UserProfile load(HttpServletRequest request) {
+        if (!(request.getUserPrincipal() instanceof Authentication auth && auth.getPrincipal() instanceof OAuth2User principal)) {
+            return null;
+        }
+        if (!(principal.getAttribute("id") instanceof Number n)) {
+            // sessions from before the principal carried the id
+            String email = principal.getAttribute("email");
+            return email == null ? null : users.findByEmail(email).map(UserProfile::from).orElse(null);
+        }
+        Long id = n.longValue();
+
+        HttpSession session = request.getSession(false);
+        if (session != null && session.getAttribute(ATTRIBUTE) instanceof Kept kept && id.equals(kept.profile().id())
+                && kept.etag().equals(profiles.version(id))) {
+            return kept.profile();
+        }
+        UserProfile u = profiles.get(id, key -> users.findById(key).map(UserProfile::from)).orElse(null);
+        if (session != null && u != null) {
+            session.setAttribute(ATTRIBUTE, new Kept(u, u.etag()));
+        }
+        return u;
+    }
+}
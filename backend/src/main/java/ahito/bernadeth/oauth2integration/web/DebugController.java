@@ -1,14 +1,24 @@
 package ahito.bernadeth.oauth2integration.web;
 
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+/** Dev tooling; not created when {@code app.debug.enabled=false} (the prod profile). */
 @Controller
+@ConditionalOnProperty(name = "app.debug.enabled", havingValue = "true", matchIfMissing = true)
 public class DebugController {
 
+    private final ProfileCache profiles;
+
+    public DebugController(ProfileCache profiles) {
+        this.profiles = profiles;
+    }
+
     @GetMapping("/me")
     @ResponseBody
     public Object me(@AuthenticationPrincipal OAuth2User principal) {
@@ -16,4 +26,10 @@ public class DebugController {
         // This prints raw attributes as JSON so there’s no Thymeleaf involved.
         return principal.getAttributes();
     }
+
+    @GetMapping("/debug/profile-cache")
+    @ResponseBody
+    public ProfileCache.Stats profileCacheStats() {
+        return profiles.stats();
+    }
 }
@@ -1,10 +1,17 @@
 package ahito.bernadeth.oauth2integration.web;
 
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
 import org.springframework.ui.Model;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
@@ -16,6 +23,21 @@ public class GlobalExceptionHandler {
         return "error";
     }
 
+    // bad request bodies on the JSON API are the caller's fault: a 400 they can read, not the error page
+    @ExceptionHandler(MethodArgumentNotValidException.class)
+    public ResponseEntity<ApiError> handleInvalid(MethodArgumentNotValidException ex) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (FieldError e : ex.getBindingResult().getFieldErrors()) {
+            fields.putIfAbsent(e.getField(), e.getDefaultMessage());
+        }
+        return ResponseEntity.badRequest().body(new ApiError(false, "invalid-request", fields));
+    }
+
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity<ApiError> handleUnreadable(HttpMessageNotReadableException ex) {
+        return ResponseEntity.badRequest().body(ApiError.of("malformed-body"));
+    }
+
     @ExceptionHandler(Exception.class)
     public String handleAll(Exception ex, Model model) {
         model.addAttribute("status", 500);
@@ -0,0 +1,422 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.user.ProfileInvalidation;
+import ahito.bernadeth.oauth2integration.user.ProfileInvalidationBus;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Pushes the profile to a user's open {@code /api/me/stream} connections (one per browser tab) whenever it
+ * changes. Changes come off the {@link ProfileInvalidationBus}, so edits and logins on other nodes arrive
+ * too. A change to a user with no open stream costs one map lookup.
+ * <p>
+ * Everything is bounded:
+ * <ul>
+ *   <li>{@code maxSubscribers} per node (further streams are refused) and {@code maxPerUser} (the
+ *       oldest tab's stream is closed);</li>
+ *   <li>at most one unwritten event per connection: a newer profile replaces one not yet sent, so events
+ *       never pile up behind a slow client;</li>
+ *   <li>a connection whose write has been stuck for {@code slowConsumerTimeout} is ended, and the pool gets
+ *       a thread in place of the one stuck in that write (up to {@value #MAX_STUCK_WRITERS}), which the
+ *       container frees once its write timeout fails the write.</li>
+ * </ul>
+ * The profile is loaded and serialized once per change, on the {@code profile-stream} thread; a small pool
+ * of writer threads does the sends. A sink is only ever closed on a writer thread and never during a write
+ * to it, because closing an {@code SseEmitter} waits for its write to finish. Every {@code heartbeatInterval} idle connections get a comment line,
+ * which keeps proxies from timing them out and finds the ones that are gone. An interval of 0 turns the
+ * heartbeat (and the slow-consumer check) off.
+ */
+public class ProfileStream implements MeterBinder, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ProfileStream.class);
+
+    // stuck writes the pool makes up for with extra threads
+    static final int MAX_STUCK_WRITERS = 64;
+    // sendingSince of a write the heartbeat has given up on
+    private static final long ABANDONED = -1;
+
+    /**
+     * Where a connection's events are written. {@link #send} may block while the client is slow; {@link #close}
+     * is never called while a send is in progress.
+     */
+    public interface Sink {
+        void send(Event event) throws IOException;
+
+        void close();
+    }
+
+    /** An SSE event; {@link #HEARTBEAT} is sent as a comment. */
+    public record Event(String name, String id, String data) {
+        public static final Event HEARTBEAT = new Event(null, null, null);
+    }
+
+    private final Function<Long, Optional<UserProfile>> loader;
+    private final ObjectMapper mapper;
+    private final int maxSubscribers;
+    private final int maxPerUser;
+    private final long slowNanos;
+    private final LongSupplier clock;
+
+    private final ConcurrentHashMap<Long, Channel> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final ScheduledExecutorService dispatcher;
+    private final ThreadPoolExecutor writers;
+    private final int writerThreads;
+    private int stuckWriters;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder slowEvictions = new LongAdder();
+    private final LongAdder perUserEvictions = new LongAdder();
+
+    public ProfileStream(ProfileInvalidationBus bus, Function<Long, Optional<UserProfile>> loader, ObjectMapper mapper,
+                         int maxSubscribers, int maxPerUser, Duration heartbeatInterval,
+                         Duration slowConsumerTimeout, int writerThreads) {
+        this(bus, loader, mapper, maxSubscribers, maxPerUser, heartbeatInterval, slowConsumerTimeout, writerThreads,
+                System::nanoTime);
+    }
+
+    ProfileStream(ProfileInvalidationBus bus, Function<Long, Optional<UserProfile>> loader, ObjectMapper mapper,
+                  int maxSubscribers, int maxPerUser, Duration heartbeatInterval, Duration slowConsumerTimeout,
+                  int writerThreads, LongSupplier clock) {
+        this.loader = loader;
+        this.mapper = mapper;
+        this.maxSubscribers = maxSubscribers;
+        this.maxPerUser = Math.max(1, maxPerUser);
+        this.slowNanos = slowConsumerTimeout.toNanos();
+        this.clock = clock;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(daemon("profile-stream"));
+        this.writerThreads = writerThreads;
+        this.writers = new ThreadPoolExecutor(writerThreads, writerThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemon("profile-stream-writer"));
+        if (!heartbeatInterval.isZero() && !heartbeatInterval.isNegative()) {
+            long ms = heartbeatInterval.toMillis();
+            dispatcher.scheduleWithFixedDelay(this::heartbeat, ms, ms, TimeUnit.MILLISECONDS);
+        }
+        bus.subscribe(this::onInvalidation);
+    }
+
+    /**
+     * Opens a stream for the signed-in user; the current profile is its first event. The provider's name and
+     * picture stand in for a missing display name or avatar, as on {@code /api/me}.
+     *
+     * @return {@code null} if the node already holds {@code maxSubscribers} streams
+     */
+    public Subscription subscribe(UserProfile current, String providerName, String providerPicture, Sink sink) {
+        int n;
+        do {
+            n = subscribers.get();
+            if (n >= maxSubscribers) {
+                rejected.increment();
+                return null;
+            }
+        } while (!subscribers.compareAndSet(n, n + 1));
+
+        Subscription[] oldest = new Subscription[1];
+        Subscription subscription = new Subscription(current.id(), sink);
+        channels.compute(current.id(), (id, c) -> {
+            if (c == null) {
+                c = new Channel(id);
+            }
+            c.providerName = providerName;
+            c.providerPicture = providerPicture;
+            if (c.lastEtag == null) {
+                c.lastEtag = current.etag();
+            }
+            Subscription[] subs = c.subscriptions;
+            if (subs.length >= maxPerUser) {
+                oldest[0] = subs[0];
+                subs = Arrays.copyOfRange(subs, 1, subs.length);
+            }
+            subs = Arrays.copyOf(subs, subs.length + 1);
+            subs[subs.length - 1] = subscription;
+            c.subscriptions = subs;
+            return c;
+        });
+        if (oldest[0] != null && oldest[0].evict()) {
+            perUserEvictions.increment();
+        }
+        subscription.offer(profileEvent(current, providerName, providerPicture), true);
+        return subscription;
+    }
+
+    public int subscribers() {
+        return subscribers.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("profile.stream.subscribers", subscribers, AtomicInteger::get).register(registry);
+        FunctionCounter.builder("profile.stream.events", sent, LongAdder::sum)
+                .description("Profile events and heartbeats written").register(registry);
+        FunctionCounter.builder("profile.stream.rejected", rejected, LongAdder::sum)
+                .description("Streams refused because the node was full").register(registry);
+        FunctionCounter.builder("profile.stream.evictions", slowEvictions, LongAdder::sum)
+                .tag("reason", "slow").register(registry);
+        FunctionCounter.builder("profile.stream.evictions", perUserEvictions, LongAdder::sum)
+                .tag("reason", "per-user").register(registry);
+        Gauge.builder("profile.stream.stuck-writers", this, ProfileStream::stuckWriters)
+                .description("Writer threads held by writes to streams that were ended as stuck").register(registry);
+    }
+
+    @Override
+    public void close() {
+        dispatcher.shutdownNow();
+        writers.shutdownNow();
+        for (Channel c : channels.values()) {
+            for (Subscription s : c.subscriptions) {
+                // one still being written to goes with the container
+                if (s.end() && s.sendingSince.get() == 0) {
+                    s.sink.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Heartbeat to every idle connection; ends the ones whose write has been stuck too long. Their sinks are
+     * closed by the writer once the write returns, so this never waits on a client.
+     */
+    void heartbeat() {
+        long now = clock.getAsLong();
+        for (Channel c : channels.values()) {
+            for (Subscription s : c.subscriptions) {
+                long since = s.sendingSince.get();
+                if (since > 0 && now - since > slowNanos) {
+                    if (s.sendingSince.compareAndSet(since, ABANDONED)) {
+                        writerStuck(1);
+                        if (s.evict()) {
+                            slowEvictions.increment();
+                            log.debug("Ending the profile stream of user {}: a write has been stuck for {} ms",
+                                    c.userId, TimeUnit.NANOSECONDS.toMillis(now - since));
+                        }
+                    }
+                } else {
+                    s.offer(Event.HEARTBEAT, false);
+                }
+            }
+        }
+    }
+
+    private void onInvalidation(ProfileInvalidation invalidation) {
+        Channel c = channels.get(invalidation.userId());
+        // a burst of changes to one user is one load and one event
+        if (c != null && c.dirty.compareAndSet(false, true)) {
+            dispatcher.execute(() -> publish(c));
+        }
+    }
+
+    private void publish(Channel c) {
+        c.dirty.set(false);
+        Optional<UserProfile> profile;
+        try {
+            profile = loader.apply(c.userId);
+        } catch (RuntimeException e) {
+            log.warn("Could not load the profile of user {} for its streams", c.userId, e);
+            return;
+        }
+        if (profile.isEmpty()) {
+            // merged into another account: nothing left to stream
+            for (Subscription s : c.subscriptions) {
+                s.evict();
+            }
+            return;
+        }
+        UserProfile u = profile.get();
+        if (u.etag().equals(c.lastEtag)) {
+            return; // a login that changed nothing
+        }
+        c.lastEtag = u.etag();
+        Event event = profileEvent(u, c.providerName, c.providerPicture);
+        for (Subscription s : c.subscriptions) {
+            s.offer(event, true);
+        }
+    }
+
+    private Event profileEvent(UserProfile u, String providerName, String providerPicture) {
+        try {
+            return new Event("profile", u.etag(), mapper.writeValueAsString(
+                    UserController.MeResponse.of(u, providerName, providerPicture)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void remove(Subscription subscription) {
+        channels.computeIfPresent(subscription.userId, (id, c) -> {
+            Subscription[] subs = c.subscriptions;
+            for (int i = 0; i < subs.length; i++) {
+                if (subs[i] == subscription) {
+                    if (subs.length == 1) {
+                        return null;
+                    }
+                    Subscription[] rest = new Subscription[subs.length - 1];
+                    System.arraycopy(subs, 0, rest, 0, i);
+                    System.arraycopy(subs, i + 1, rest, i, subs.length - i - 1);
+                    c.subscriptions = rest;
+                    return c;
+                }
+            }
+            return c;
+        });
+    }
+
+    // a thread in place of each stuck one, so stuck clients don't take the pool from the others
+    private synchronized void writerStuck(int delta) {
+        stuckWriters += delta;
+        int size = writerThreads + Math.min(stuckWriters, MAX_STUCK_WRITERS);
+        if (size > writers.getMaximumPoolSize()) {
+            writers.setMaximumPoolSize(size);
+            writers.setCorePoolSize(size);
+        } else if (size < writers.getMaximumPoolSize()) {
+            writers.setCorePoolSize(size);
+            writers.setMaximumPoolSize(size);
+        }
+    }
+
+    synchronized int stuckWriters() {
+        return stuckWriters;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // one user's open streams; the array is replaced, never changed, so fan-out needs no lock
+    private static final class Channel {
+        final Long userId;
+        final AtomicBoolean dirty = new AtomicBoolean();
+        volatile Subscription[] subscriptions = new Subscription[0];
+        volatile String lastEtag;
+        volatile String providerName;
+        volatile String providerPicture;
+
+        Channel(Long userId) {
+            this.userId = userId;
+        }
+    }
+
+    /** One open stream. {@link #cancel} it once the connection is gone. */
+    public final class Subscription implements Runnable {
+
+        private final Long userId;
+        private final Sink sink;
+        // the one event waiting to be written; a newer profile replaces it
+        private final AtomicReference<Event> pending = new AtomicReference<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private final AtomicBoolean closeSink = new AtomicBoolean();
+        // when the write in progress started; 0 when none is, ABANDONED once the heartbeat gave up on it
+        private final AtomicLong sendingSince = new AtomicLong();
+
+        private Subscription(Long userId, Sink sink) {
+            this.userId = userId;
+            this.sink = sink;
+        }
+
+        public void cancel() {
+            end();
+        }
+
+        /** @return whether this call ended it (and so should close the sink) */
+        private boolean end() {
+            if (!ended.compareAndSet(false, true)) {
+                return false;
+            }
+            subscribers.decrementAndGet();
+            remove(this);
+            pending.set(null);
+            return true;
+        }
+
+        /** Ends it and has a writer close the sink once no write is in progress. */
+        private boolean evict() {
+            if (!end()) {
+                return false;
+            }
+            closeSink.set(true);
+            if (scheduled.compareAndSet(false, true)) {
+                writers.execute(this);
+            }
+            return true;
+        }
+
+        private void offer(Event event, boolean replace) {
+            if (event == null || ended.get()) {
+                return;
+            }
+            if (replace) {
+                pending.set(event);
+            } else if (!pending.compareAndSet(null, event)) {
+                return; // something is going out anyway
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                writers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Event event;
+                while (!ended.get() && (event = pending.getAndSet(null)) != null) {
+                    sendingSince.set(Math.max(1, clock.getAsLong()));
+                    try {
+                        sink.send(event);
+                    } finally {
+                        if (sendingSince.getAndSet(0) == ABANDONED) {
+                            writerStuck(-1);
+                        }
+                    }
+                    sent.increment();
+                }
+            } catch (IOException | RuntimeException e) {
+                end(); // the client is gone
+            } finally {
+                scheduled.set(false);
+            }
+            if (ended.get()) {
+                // no write is in progress now, and none starts once ended
+                if (closeSink.getAndSet(false)) {
+                    sink.close();
+                }
+                return;
+            }
+            // offered after the loop's last look
+            if (pending.get() != null && scheduled.compareAndSet(false, true)) {
+                writers.execute(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * {@code GET /api/me/stream}: server-sent {@code profile} events carrying the {@code /api/me} body, the
+ * current one first and then one per change (see {@link ProfileStream}). When the stream times out the
+ * browser's EventSource reconnects and gets the current profile again, so nothing is missed.
+ */
+@RestController
+public class ProfileStreamController {
+
+    private final ProfileStream stream;
+    private final long timeoutMillis;
+
+    public ProfileStreamController(ProfileStream stream,
+                                   @Value("${app.profile-stream.timeout:30m}") Duration timeout) {
+        this.stream = stream;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    @GetMapping(value = "/api/me/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(@AuthenticationPrincipal OAuth2User principal,
+                                             @CurrentUser UserProfile u) {
+        if (u == null) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        ProfileStream.Subscription subscription = stream.subscribe(u, principal.getAttribute("name"),
+                principal.getAttribute("picture"), new EmitterSink(emitter));
+        if (subscription == null) {
+            // the SPA falls back to fetching /api/me
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "60").build();
+        }
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .header("X-Accel-Buffering", "no") // nginx: pass events through as they come
+                .body(emitter);
+    }
+
+    private record EmitterSink(SseEmitter emitter) implements ProfileStream.Sink {
+
+        @Override
+        public void send(ProfileStream.Event event) throws IOException {
+            emitter.send(event == ProfileStream.Event.HEARTBEAT
+                    ? SseEmitter.event().comment("")
+                    : SseEmitter.event().name(event.name()).id(event.id()).data(event.data()));
+        }
+
+        @Override
+        public void close() {
+            emitter.complete();
+        }
+    }
+}
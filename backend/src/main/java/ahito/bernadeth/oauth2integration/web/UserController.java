@@ -1,7 +1,14 @@
 package ahito.bernadeth.oauth2integration.web;
 
-import ahito.bernadeth.oauth2integration.user.User;
-import ahito.bernadeth.oauth2integration.user.UserRepository;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import ahito.bernadeth.oauth2integration.user.UserProfileService;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Size;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -9,14 +16,50 @@ import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
+import java.util.Objects;
 
 @RestController
 public class UserController {
 
-    private final UserRepository users;
+    // the browser may keep /api/me, but must revalidate every time (the default is no-store)
+    private static final CacheControl ME_CACHE = CacheControl.noCache().cachePrivate();
 
-    public UserController(UserRepository users) {
-        this.users = users;
+    private final ProfileCache profiles;
+    private final UserProfileService profileEdits;
+
+    public UserController(ProfileCache profiles, UserProfileService profileEdits) {
+        this.profiles = profiles;
+        this.profileEdits = profileEdits;
+    }
+
+    /** Body of {@code GET /api/me}. Anonymous callers get {@code {"authenticated":false}} only. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record MeResponse(boolean authenticated, String email, String name, String picture, String avatar,
+                             String bio) {
+        static final MeResponse ANONYMOUS = new MeResponse(false, null, null, null, null, null);
+
+        /** The provider's name and picture stand in for a missing display name or avatar. */
+        static MeResponse of(UserProfile u, String provName, String provPicture) {
+            return new MeResponse(true,
+                    u.email(),
+                    u.displayName() != null ? u.displayName() : provName,
+                    u.avatarUrl() != null ? u.avatarUrl() : Objects.requireNonNullElse(provPicture, ""),
+                    // our cached copy of the picture (AvatarController); relative to the API base
+                    u.avatarUrl() != null ? "/api/avatar/" + u.id() : "",
+                    Objects.requireNonNullElse(u.bio(), ""));
+        }
+    }
+
+    /** Body of {@code POST /api/profile}; a missing field leaves that value as it is. Sizes match the columns. */
+    public record ProfileUpdate(@Size(min = 1, max = 255) String displayName,
+                                @Size(max = 1000) String bio) {
+    }
+
+    public record ProfileResponse(boolean ok, String email, String displayName, String bio, String avatarUrl) {
+        static ProfileResponse of(UserProfile u) {
+            return new ProfileResponse(true, u.email(), u.displayName(), Objects.requireNonNullElse(u.bio(), ""),
+                    Objects.requireNonNullElse(u.avatarUrl(), ""));
+        }
     }
 
     @GetMapping("/")
@@ -29,76 +72,66 @@ public class UserController {
         return Map.of("status", "ok");
     }
 
+    /**
+     * Carries the profile's ETag; the browser revalidates with {@code If-None-Match} and an unchanged
+     * profile is a 304 with no JSON. Within a session the profile comes from the session copy (see
+     * {@link CurrentUserArgumentResolver}), so that is no repository or cache call either.
+     */
     @GetMapping(value = "/api/me", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Map<String, Object>> me(@AuthenticationPrincipal OAuth2User principal) {
+    public ResponseEntity<MeResponse> me(@AuthenticationPrincipal OAuth2User principal,
+                                         @CurrentUser UserProfile u,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                         String ifNoneMatch) {
         if (principal == null) {
-            return ResponseEntity.ok(Map.of("authenticated", false));
+            return ResponseEntity.ok(MeResponse.ANONYMOUS);
         }
 
-        String email = principal.getAttribute("email");
         String provName = principal.getAttribute("name");
         String provPicture = principal.getAttribute("picture");
 
-        if (email != null) {
-            User u = users.findByEmail(email).orElse(null);
-            if (u != null) {
-                return ResponseEntity.ok(Map.of(
-                        "authenticated", true,
-                        "email", u.getEmail(),
-                        "name",  u.getDisplayName() != null ? u.getDisplayName() : provName,
-                        "picture", u.getAvatarUrl() != null ? u.getAvatarUrl() : provPicture,
-                        "bio", u.getBio() != null ? u.getBio() : ""
-                ));
+        if (u != null) {
+            String etag = u.etag();
+            if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(ME_CACHE).build();
             }
+            return ResponseEntity.ok().eTag(etag).cacheControl(ME_CACHE).body(MeResponse.of(u, provName, provPicture));
         }
 
-        return ResponseEntity.ok(Map.of(
-                "authenticated", true,
-                "email", email,
-                "name", provName,
-                "picture", provPicture,
-                "bio", ""
-        ));
+        return ResponseEntity.ok(new MeResponse(true,
+                Objects.requireNonNullElse(principal.getAttribute("email"), ""),
+                Objects.requireNonNullElse(provName, ""),
+                Objects.requireNonNullElse(provPicture, ""),
+                null,
+                ""));
     }
 
     @PostMapping(value = "/api/profile", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Map<String, Object>> updateProfile(
-            @AuthenticationPrincipal OAuth2User principal,
-            @RequestBody Map<String, String> body) {
+    public ResponseEntity<?> updateProfile(@AuthenticationPrincipal OAuth2User principal,
+                                           @CurrentUser UserProfile current,
+                                           @Valid @RequestBody ProfileUpdate body) {
 
         if (principal == null) {
-            return ResponseEntity.status(401).body(Map.of("ok", false, "error", "unauthorized"));
+            return ResponseEntity.status(401).body(ApiError.of("unauthorized"));
         }
 
-        String email = principal.getAttribute("email");
+        String email = current != null ? current.email() : principal.getAttribute("email");
         if (email == null) {
-            return ResponseEntity.badRequest().body(Map.of("ok", false, "error", "no-email"));
-        }
-
-        // Find user; if missing (rare), initialize from principal so avatar/name are set
-        User u = users.findByEmail(email).orElse(null);
-        if (u == null) {
-            u = new User();
-            u.setEmail(email);
-            String provName = principal.getAttribute("name");
-            String provPicture = principal.getAttribute("picture");
-            u.setDisplayName(provName);
-            u.setAvatarUrl(provPicture); // initialize avatar for Google/GitHub-created users
+            return ResponseEntity.badRequest().body(ApiError.of("no-email"));
         }
 
-        String displayName = body.getOrDefault("displayName", u.getDisplayName());
-        String bio = body.getOrDefault("bio", u.getBio());
+        String displayName = body.displayName();
+        String bio = body.bio();
 
-        u.setDisplayName(displayName);
-        u.setBio(bio);
-        users.save(u);
+        // Re-submitting unchanged values is answered from the resolved profile: no SQL at all
+        if (current != null && UserProfileService.unchanged(current, displayName, bio)) {
+            return ResponseEntity.ok(ProfileResponse.of(current));
+        }
 
-        return ResponseEntity.ok(Map.of(
-                "ok", true,
-                "email", u.getEmail(),
-                "displayName", u.getDisplayName(),
-                "bio", u.getBio(),
-                "avatarUrl", u.getAvatarUrl()
-        ));
+        UserProfileService.Edit edit = profileEdits.edit(current != null ? current.id() : null, email,
+                principal.getAttribute("name"), principal.getAttribute("picture"), displayName, bio);
+        if (edit.changed()) {
+            profiles.put(edit.profile());
+        }
+        return ResponseEntity.ok(ProfileResponse.of(edit.profile()));
     }
 }
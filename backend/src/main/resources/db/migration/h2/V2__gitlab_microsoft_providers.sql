@@ -0,0 +1,2 @@
+-- GitLab and Microsoft logins (one value per ProviderAdapter)
+alter table auth_provider alter column provider enum ('GITHUB', 'GITLAB', 'GOOGLE', 'MICROSOFT') not null;
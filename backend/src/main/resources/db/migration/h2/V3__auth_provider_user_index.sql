@@ -0,0 +1,2 @@
+-- "all links of a user" lookups
+create index idx_auth_provider_user_id on auth_provider (user_id);
@@ -0,0 +1,2 @@
+-- "all links of a user" lookups; takes over from the index InnoDB made for the foreign key
+create index idx_auth_provider_user_id on auth_provider (user_id);
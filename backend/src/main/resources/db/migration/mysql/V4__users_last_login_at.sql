@@ -0,0 +1,2 @@
+-- written in batches by LastLoginRecorder; null until the first login after this migration
+alter table users add column last_login_at datetime(6);
@@ -0,0 +1,9 @@
+-- login audit trail, appended in batches by LoginEventJournal
+create table login_event (
+    id          bigint      not null auto_increment primary key,
+    user_id     bigint      not null,
+    provider    enum ('GITHUB', 'GITLAB', 'GOOGLE', 'MICROSOFT') not null,
+    occurred_at datetime(6) not null,
+    new_user    bit         not null
+) engine = InnoDB;
+create index idx_login_event_user_time on login_event (user_id, occurred_at);
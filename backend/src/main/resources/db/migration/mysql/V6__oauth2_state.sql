@@ -0,0 +1,8 @@
+-- In-flight authorization requests and authorized clients (app.oauth2-store.type=jdbc)
+
+create table oauth2_state (
+    id         varchar(255)    not null primary key,
+    payload    varbinary(8192) not null,
+    expires_at datetime(6)     not null
+) engine = InnoDB;
+create index idx_oauth2_state_expires_at on oauth2_state (expires_at);
@@ -0,0 +1,24 @@
+-- The schema Hibernate created (ddl-auto=update) before Flyway took over: users and their Google and GitHub
+-- links. Databases from that time are baselined at this version; everything after it is a migration.
+
+create table users (
+    id           bigint generated by default as identity primary key,
+    email        varchar(255)             not null,
+    display_name varchar(255)             not null,
+    avatar_url   varchar(255),
+    bio          varchar(1000),
+    created_at   timestamp(6) with time zone not null,
+    updated_at   timestamp(6) with time zone not null,
+    constraint uk_users_email unique (email)
+);
+
+create table auth_provider (
+    id               bigint generated by default as identity primary key,
+    user_id          bigint       not null,
+    -- inline, so it gets the same name as Hibernate's: auth_provider_provider_check
+    provider         varchar(16)  not null check (provider in ('GOOGLE', 'GITHUB')),
+    provider_user_id varchar(255) not null,
+    provider_email   varchar(255),
+    constraint uk_auth_provider_identity unique (provider, provider_user_id),
+    constraint fk_auth_provider_user foreign key (user_id) references users (id)
+);
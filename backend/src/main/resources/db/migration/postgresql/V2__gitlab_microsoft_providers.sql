@@ -0,0 +1,4 @@
+-- GitLab and Microsoft logins (one value per ProviderAdapter)
+alter table auth_provider drop constraint auth_provider_provider_check;
+alter table auth_provider add constraint auth_provider_provider_check
+    check (provider in ('GOOGLE', 'GITHUB', 'GITLAB', 'MICROSOFT'));
@@ -0,0 +1,9 @@
+-- login audit trail, appended in batches by LoginEventJournal
+create table login_event (
+    id          bigint generated by default as identity primary key,
+    user_id     bigint      not null,
+    provider    varchar(16) not null check (provider in ('GOOGLE', 'GITHUB', 'GITLAB', 'MICROSOFT')),
+    occurred_at timestamp(6) with time zone not null,
+    new_user    boolean     not null
+);
+create index idx_login_event_user_time on login_event (user_id, occurred_at);
@@ -0,0 +1,8 @@
+-- In-flight authorization requests and authorized clients (app.oauth2-store.type=jdbc)
+
+create table oauth2_state (
+    id         varchar(255)                not null primary key,
+    payload    bytea                       not null,
+    expires_at timestamp(6) with time zone not null
+);
+create index idx_oauth2_state_expires_at on oauth2_state (expires_at);
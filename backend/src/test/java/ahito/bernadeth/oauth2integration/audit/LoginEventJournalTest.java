@@ -0,0 +1,92 @@
+package ahito.bernadeth.oauth2integration.audit;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class LoginEventJournalTest {
+
+    @Autowired JdbcTemplate jdbc;
+
+    // fake user ids well above anything the other tests create, so counts are ours alone
+    private final long base = ThreadLocalRandom.current().nextLong(1L << 40, 1L << 50);
+
+    @Test
+    void concurrentLoginsAreAllWrittenByTheTimeStopReturns() throws Exception {
+        LoginEventJournal journal = new LoginEventJournal(jdbc, true, 32_768, 100, Duration.ofMillis(50));
+        journal.start();
+
+        int threads = 8, perThread = 2_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long userId = base + t;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    journal.record(userId, AuthProvider.Provider.GITHUB, i == 0);
+                }
+            }));
+        }
+        for (Future<?> f : done) f.get();
+        pool.shutdown();
+        journal.stop(); // graceful: drains the ring and flushes the last partial batch
+
+        assertThat(journal.dropped()).isZero();
+        assertThat(journal.written()).isEqualTo(threads * perThread);
+        assertThat(count("user_id >= ? AND user_id < ?", base, base + threads)).isEqualTo(threads * perThread);
+        assertThat(count("user_id >= ? AND user_id < ? AND new_user", base, base + threads)).isEqualTo(threads);
+    }
+
+    @Test
+    void fullJournalDropsNewEventsInsteadOfBlocking() {
+        LoginEventJournal journal = new LoginEventJournal(jdbc, true, 4, 100, Duration.ofSeconds(1));
+        // writer not started yet, as if the database had stalled
+
+        for (int i = 0; i < 6; i++) {
+            journal.record(base, AuthProvider.Provider.GOOGLE, false);
+        }
+        assertThat(journal.dropped()).isEqualTo(2);
+
+        journal.start();
+        journal.stop();
+        assertThat(journal.written()).isEqualTo(4);
+        assertThat(count("user_id = ?", base)).isEqualTo(4);
+    }
+
+    @Test
+    void stoppedJournalDropsEventsNothingWouldWrite() {
+        LoginEventJournal journal = new LoginEventJournal(jdbc, true, 4, 100, Duration.ofSeconds(1));
+        journal.start();
+        journal.stop();
+
+        assertThat(journal.record(base, AuthProvider.Provider.GOOGLE, false)).isFalse();
+        assertThat(journal.dropped()).isEqualTo(1);
+        assertThat(count("user_id = ?", base)).isZero();
+    }
+
+    @Test
+    void disabledJournalRecordsNothing() {
+        LoginEventJournal journal = new LoginEventJournal(jdbc, false, 4, 100, Duration.ofSeconds(1));
+        journal.start();
+
+        assertThat(journal.record(base, AuthProvider.Provider.GOOGLE, true)).isFalse();
+        assertThat(journal.isRunning()).isFalse();
+    }
+
+    private long count(String where, Object... args) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM login_event WHERE " + where, Long.class, args);
+    }
+}
@@ -0,0 +1,59 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.PropertySourcesPlaceholdersResolver;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// no PostgreSQL or MySQL here: bind the profiles the way Boot binds spring.datasource.hikari onto the pool
+class DatabaseProfilesTest {
+
+    @Test
+    void postgresqlProfileRewritesBatchesAndPreparesOnTheServer() throws IOException {
+        HikariConfig pool = bind("application-postgresql.properties");
+
+        Properties driver = pool.getDataSourceProperties();
+        assertThat(driver.getProperty("reWriteBatchedInserts")).isEqualTo("true");
+        assertThat(driver.getProperty("prepareThreshold")).isEqualTo("3");
+        assertThat(driver.getProperty("preparedStatementCacheQueries")).isEqualTo("256");
+        assertThat(pool.getDriverClassName()).isEqualTo("org.postgresql.Driver");
+        assertThat(pool.getMaximumPoolSize()).isEqualTo(10);
+        assertThat(pool.getMaxLifetime()).isEqualTo(Duration.ofMinutes(30).toMillis());
+    }
+
+    @Test
+    void mysqlProfileRewritesBatchesAndCachesServerPreparedStatements() throws IOException {
+        HikariConfig pool = bind("application-mysql.properties");
+
+        Properties driver = pool.getDataSourceProperties();
+        assertThat(driver.getProperty("rewriteBatchedStatements")).isEqualTo("true");
+        assertThat(driver.getProperty("useServerPrepStmts")).isEqualTo("true");
+        assertThat(driver.getProperty("cachePrepStmts")).isEqualTo("true");
+        assertThat(driver.getProperty("prepStmtCacheSqlLimit")).isEqualTo("2048");
+        assertThat(driver.getProperty("useAffectedRows")).isEqualTo("true");
+        assertThat(pool.getDriverClassName()).isEqualTo("com.mysql.cj.jdbc.Driver");
+        assertThat(pool.getKeepaliveTime()).isEqualTo(Duration.ofMinutes(5).toMillis());
+    }
+
+    private static HikariConfig bind(String file) throws IOException {
+        MutablePropertySources sources = new MutablePropertySources();
+        new PropertiesPropertySourceLoader().load(file, new ClassPathResource(file)).forEach(sources::addLast);
+        Binder binder = new Binder(ConfigurationPropertySources.from(sources),
+                new PropertySourcesPlaceholdersResolver(sources));
+        HikariConfig pool = new HikariConfig();
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+        pool.setDriverClassName(binder.bind("spring.datasource.driver-class-name", String.class).get());
+        return pool;
+    }
+}
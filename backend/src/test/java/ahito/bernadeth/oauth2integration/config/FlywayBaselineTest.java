@@ -0,0 +1,64 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import ahito.bernadeth.oauth2integration.user.ProviderIdentity;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the prod profile started on a database that ddl-auto=update created from the entities before Flyway
+@SpringBootTest
+@ActiveProfiles("prod")
+class FlywayBaselineTest {
+
+    // PostgreSQL mode for the H2 upserts of the login
+    private static final String URL = "jdbc:h2:mem:pre-flyway;MODE=PostgreSQL;DB_CLOSE_DELAY=-1";
+
+    @Autowired JdbcTemplate jdbc;
+    @Autowired UserProvisioningService provisioning;
+
+    @DynamicPropertySource
+    static void databaseFromBeforeFlyway(DynamicPropertyRegistry registry) throws SQLException {
+        try (Connection c = DriverManager.getConnection(URL, "sa", ""); Statement s = c.createStatement()) {
+            ScriptUtils.executeSqlScript(c, new ClassPathResource("db/pre-flyway-h2.sql"));
+            s.execute("INSERT INTO users (email, display_name, created_at, updated_at)"
+                    + " VALUES ('ada@example.com', 'Ada', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)");
+            s.execute("INSERT INTO auth_provider (user_id, provider, provider_user_id, provider_email)"
+                    + " SELECT id, 'GITHUB', '583231', 'ada@example.com' FROM users");
+        }
+        registry.add("spring.datasource.url", () -> URL);
+    }
+
+    @Test
+    void isBaselinedAtV1AndMigratedFromThere() {
+        // ddl-auto=validate would have failed the context on any mismatch
+        assertThat(jdbc.queryForList("SELECT \"version\" || ':' || \"type\" FROM \"flyway_schema_history\""
+                + " WHERE \"success\" AND \"version\" IS NOT NULL ORDER BY \"installed_rank\"", String.class))
+                .containsExactly("1:BASELINE", "2:SQL", "3:SQL", "4:SQL", "5:SQL", "6:SQL");
+    }
+
+    @Test
+    void existingUsersKeepTheirAccountAndCanAddTheNewProviders() {
+        Long ada = jdbc.queryForObject("SELECT id FROM users WHERE email = 'ada@example.com'", Long.class);
+
+        assertThat(provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GITLAB, "1234567",
+                "ada@example.com", true, "Ada", null), LoginTrace.NOOP).profile().id()).isEqualTo(ada);
+        assertThat(jdbc.queryForList("SELECT provider FROM auth_provider WHERE user_id = ? ORDER BY provider",
+                String.class, ada)).containsExactly("GITHUB", "GITLAB");
+    }
+}
@@ -0,0 +1,37 @@
+package ahito.bernadeth.oauth2integration.config;
+
+import ahito.bernadeth.oauth2integration.security.AuthenticationDebugFilter;
+import ahito.bernadeth.oauth2integration.web.DebugController;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// a database of its own: the schema must come from the migrations, not from the other tests' ddl-auto
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:prod-profile;DB_CLOSE_DELAY=-1")
+@ActiveProfiles("prod")
+class ProdProfileTest {
+
+    @Autowired ApplicationContext context;
+    @Autowired JdbcTemplate jdbc;
+
+    @Test
+    void schemaIsMigratedByFlywayAndValidatedAgainstTheEntities() {
+        // ddl-auto=validate would have failed the context on any mismatch
+        assertThat(jdbc.queryForList("SELECT \"version\" FROM \"flyway_schema_history\" WHERE \"success\"",
+                String.class)).contains("1", "2", "3", "4", "5", "6");
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM users", Long.class)).isZero();
+    }
+
+    @Test
+    void devToolingIsNotCreated() {
+        assertThat(context.getBeanNamesForType(DebugController.class)).isEmpty();
+        assertThat(context.getBeanNamesForType(AuthenticationDebugFilter.class)).isEmpty();
+        assertThat(context.containsBean("thymeleafViewResolver")).isFalse();
+        assertThat(context.containsBean("h2Console")).isFalse();
+    }
+}
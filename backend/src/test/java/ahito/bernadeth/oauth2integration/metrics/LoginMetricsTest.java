@@ -0,0 +1,33 @@
+package ahito.bernadeth.oauth2integration.metrics;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoginMetricsTest {
+
+    @Test
+    void recordsStagesAndOutcomesPerProvider() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LoginMetrics metrics = new LoginMetrics(registry);
+
+        long started = metrics.start();
+        metrics.record(AuthProvider.Provider.GITHUB, LoginMetrics.Stage.EMAIL_FETCH, started);
+        metrics.loggedIn(AuthProvider.Provider.GITHUB, true);
+        metrics.loggedIn(AuthProvider.Provider.GOOGLE, false);
+        metrics.noreplyFallback(AuthProvider.Provider.GITHUB);
+
+        assertThat(registry.get("login.stage").tags("provider", "github", "stage", "email_fetch").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.get("login.stage").tags("provider", "google", "stage", "email_fetch").timer().count())
+                .isZero();
+        assertThat(registry.get("login.users").tags("provider", "github", "outcome", "new").counter().count())
+                .isEqualTo(1);
+        assertThat(registry.get("login.users").tags("provider", "google", "outcome", "returning").counter().count())
+                .isEqualTo(1);
+        assertThat(registry.get("login.email.noreply_fallback").tags("provider", "github").counter().count())
+                .isEqualTo(1);
+    }
+}
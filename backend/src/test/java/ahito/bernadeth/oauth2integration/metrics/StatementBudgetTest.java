@@ -0,0 +1,128 @@
+package ahito.bernadeth.oauth2integration.metrics;
+
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.ProviderIdentity;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Statement budgets of the hot paths. A failure here usually means a new query in a loop or a cache that
+ * stopped being used; raise a budget only together with the reason.
+ */
+@SpringBootTest(properties = {"app.admin-user-ids=900000001", "app.rate-limit.enabled=false"})
+@AutoConfigureMockMvc
+class StatementBudgetTest {
+
+    @Autowired MockMvc mvc;
+    @Autowired UserProvisioningService provisioning;
+    @Autowired ProfileCache profiles;
+    @Autowired MeterRegistry meters;
+    @Autowired ObjectMapper mapper;
+
+    private final String tag = UUID.randomUUID().toString().substring(0, 8);
+
+    @Test
+    void loginProvisioningOfANewAndAReturningUser() {
+        ProviderIdentity identity = new ProviderIdentity(AuthProvider.Provider.GITHUB, "gh-" + tag,
+                tag + "@example.com", true, "Ada", null);
+        try (SqlStatements.Scope sql = SqlStatements.open()) {
+            assertThat(provisioning.provision(identity, LoginTrace.NOOP).created()).isTrue();
+            assertThat(sql.statements()).isLessThanOrEqualTo(4);
+        }
+        try (SqlStatements.Scope sql = SqlStatements.open()) {
+            assertThat(provisioning.provision(identity, LoginTrace.NOOP).created()).isFalse();
+            assertThat(sql.statements()).isLessThanOrEqualTo(1);
+        }
+    }
+
+    @Test
+    void meLoadsTheProfileOncePerSessionAndAnEditReadsAndWritesOnce() throws Exception {
+        Long id = provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + tag,
+                tag + "@example.com", true, "Ada", null), LoginTrace.NOOP).profile().id();
+        profiles.evict(id);
+        MockHttpSession session = new MockHttpSession();
+
+        // counted by SqlStatementsFilter, per endpoint
+        assertThat(statements("me", () -> me(id, session))).isEqualTo(1);
+        assertThat(statements("me", () -> me(id, session))).isZero();
+        assertThat(statements("profile", () -> editBio(id, session, "Countess"))).isLessThanOrEqualTo(2);
+        assertThat(statements("profile", () -> editBio(id, session, "Countess"))).isZero(); // unchanged
+    }
+
+    @Test
+    void batchLookupRunsTheSameStatementsForThreeIdsAsForThreeHundred() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            ids.add(provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, tag + "-g" + i,
+                    tag + "-" + i + "@example.com", true, "User " + i, null), LoginTrace.NOOP).profile().id());
+        }
+        int few = batchLookup(ids.subList(0, 3));
+        assertThat(few).isLessThanOrEqualTo(1);
+        assertThat(batchLookup(ids)).isEqualTo(few);
+    }
+
+    private int batchLookup(List<Long> ids) throws Exception {
+        try (SqlStatements.Scope sql = SqlStatements.open()) {
+            mvc.perform(post("/api/admin/users/batch")
+                            .with(oauth2Login().attributes(a -> a.put("id", 900_000_001L)))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(mapper.writeValueAsString(Map.of("ids", ids))))
+                    .andExpect(status().isOk());
+            return sql.statements();
+        }
+    }
+
+    private void me(Long id, MockHttpSession session) throws Exception {
+        mvc.perform(get("/api/me").session(session).with(user(id))).andExpect(status().isOk());
+    }
+
+    private void editBio(Long id, MockHttpSession session, String bio) throws Exception {
+        mvc.perform(post("/api/profile").session(session).with(user(id)).contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(Map.of("bio", bio))))
+                .andExpect(status().isOk());
+    }
+
+    // what the one request made in between recorded on db.statements for the endpoint
+    private double statements(String endpoint, Request request) throws Exception {
+        DistributionSummary summary = meters.get("db.statements").tag("endpoint", endpoint).summary();
+        long count = summary.count();
+        double total = summary.totalAmount();
+        request.run();
+        assertThat(summary.count()).isEqualTo(count + 1);
+        return summary.totalAmount() - total;
+    }
+
+    private interface Request {
+        void run() throws Exception;
+    }
+
+    private RequestPostProcessor user(Long id) {
+        return oauth2Login().attributes(a -> {
+            a.put("id", id);
+            a.put("email", tag + "@example.com");
+        });
+    }
+}
@@ -0,0 +1,89 @@
+package ahito.bernadeth.oauth2integration.provider;
+
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProviderAdaptersTest {
+
+    private final ProviderAdapters adapters = new ProviderAdapters(List.of(new GoogleAdapter(), new GitlabAdapter(),
+            new MicrosoftAdapter(List.of("contoso.com"))), registrations("google", "gitlab"));
+
+    @Test
+    void gitlabUserIsNormalizedWithNumericIdAndUsernameFallback() {
+        ProviderAdapter gitlab = adapters.forRegistration("gitlab");
+        ProviderAccount account = gitlab.extract(Map.of(
+                "id", 1234567, "username", "ada", "email", "ada@example.com",
+                "avatar_url", "https://gitlab.com/uploads/avatar.png"));
+
+        assertThat(gitlab.provider()).isEqualTo(AuthProvider.Provider.GITLAB);
+        assertThat(gitlab.needsEmailFetch()).isFalse();
+        assertThat(account).isEqualTo(new ProviderAccount("1234567", "ada@example.com", false, "ada",
+                "https://gitlab.com/uploads/avatar.png", null));
+        assertThat(gitlab.extract(Map.of("id", 1234567, "email", "ada@example.com",
+                "confirmed_at", "2024-05-01T09:00:00.000Z")).emailVerified()).isTrue();
+    }
+
+    @Test
+    void microsoftFallsBackToTheSignInNameOnlyWhenItIsAnAddress() {
+        ProviderAdapter microsoft = adapters.forRegistration("microsoft");
+
+        ProviderAccount noMail = microsoft.extract(Map.of("id", "87d3-oid", "displayName", "Ada Lovelace",
+                "userPrincipalName", "ada@contoso.onmicrosoft.com"));
+        assertThat(noMail).isEqualTo(new ProviderAccount("87d3-oid", "ada@contoso.onmicrosoft.com", false,
+                "Ada Lovelace", null, null));
+
+        ProviderAccount mail = microsoft.extract(Map.of("id", "87d3-oid", "mail", "ada@contoso.com",
+                "userPrincipalName", "ada@contoso.onmicrosoft.com"));
+        assertThat(mail.email()).isEqualTo("ada@contoso.com");
+        assertThat(mail.emailVerified()).isTrue(); // a trusted tenant domain
+        assertThat(mail.name()).isEqualTo("ada@contoso.com");
+        assertThat(microsoft.extract(Map.of("id", "87d3-oid", "mail", "ada@example.com"))
+                .emailVerified()).isFalse();
+
+        assertThat(microsoft.extract(Map.of("id", "87d3-oid", "userPrincipalName", "ada")).email()).isNull();
+    }
+
+    @Test
+    void unknownRegistrationIsRejectedInsteadOfTreatedAsGoogle() {
+        assertThatThrownBy(() -> adapters.forRegistration("okta"))
+                .isInstanceOf(OAuth2AuthenticationException.class)
+                .satisfies(e -> assertThat(((OAuth2AuthenticationException) e).getError().getErrorCode())
+                        .isEqualTo("unsupported_provider"));
+    }
+
+    @Test
+    void configuredRegistrationWithoutAnAdapterFailsAtStartup() {
+        assertThatThrownBy(() -> new ProviderAdapters(List.of(new GoogleAdapter()), registrations("google", "okta")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("[okta]");
+    }
+
+    private static ObjectProvider<ClientRegistrationRepository> registrations(String... ids) {
+        List<ClientRegistration> list = Arrays.stream(ids)
+                .map(id -> ClientRegistration.withRegistrationId(id)
+                        .clientId("test")
+                        .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                        .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                        .authorizationUri("http://localhost/authorize")
+                        .tokenUri("http://localhost/token")
+                        .build())
+                .toList();
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("registrations", new InMemoryClientRegistrationRepository(list));
+        return beans.getBeanProvider(ClientRegistrationRepository.class);
+    }
+}
@@ -0,0 +1,55 @@
+package ahito.bernadeth.oauth2integration.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalRateLimitStoreTest {
+
+    private static final RateLimit FIVE_PER_SECOND = new RateLimit(5, Duration.ofSeconds(1));
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    @Test
+    void fullBucketAllowsABurstThenRefillsOneTokenPerInterval() {
+        LocalRateLimitStore store = new LocalRateLimitStore(100, clock::get);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(store.tryAcquire("k", FIVE_PER_SECOND)).isZero();
+        }
+        assertThat(store.tryAcquire("k", FIVE_PER_SECOND)).isEqualTo(Duration.ofMillis(200).toNanos());
+        assertThat(store.tryAcquire("other", FIVE_PER_SECOND)).isZero();
+
+        clock.addAndGet(Duration.ofMillis(200).toNanos());
+        assertThat(store.tryAcquire("k", FIVE_PER_SECOND)).isZero();
+        assertThat(store.tryAcquire("k", FIVE_PER_SECOND)).isPositive();
+
+        // idle long enough to be full again, but no fuller
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        for (int i = 0; i < 5; i++) {
+            assertThat(store.tryAcquire("k", FIVE_PER_SECOND)).isZero();
+        }
+        assertThat(store.tryAcquire("k", FIVE_PER_SECOND)).isPositive();
+    }
+
+    @Test
+    void idleKeysAreSweptAndASprayOfKeysCannotGrowTheMapPastItsBound() {
+        LocalRateLimitStore store = new LocalRateLimitStore(1_000, clock::get);
+
+        for (int i = 0; i < 1_000; i++) {
+            store.tryAcquire("idle-" + i, FIVE_PER_SECOND);
+        }
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        store.tryAcquire("new", FIVE_PER_SECOND);
+        assertThat(store.size()).isEqualTo(1);
+
+        for (int i = 0; i < 50_000; i++) {
+            store.tryAcquire("spray-" + i, FIVE_PER_SECOND);
+        }
+        assertThat(store.size()).isLessThanOrEqualTo(1_000);
+        assertThat(store.evictions()).isGreaterThanOrEqualTo(49_000);
+    }
+}
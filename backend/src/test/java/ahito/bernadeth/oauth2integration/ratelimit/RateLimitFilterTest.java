@@ -0,0 +1,83 @@
+package ahito.bernadeth.oauth2integration.ratelimit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitFilterTest {
+
+    private static final Map<String, RateLimitRule> RULES = Map.of(
+            "login-start", new RateLimitRule(List.of("/oauth2/authorization/*"), List.of(),
+                    List.of(RateLimitRule.Key.IP, RateLimitRule.Key.PROVIDER), 3, Duration.ofMinutes(1)),
+            "profile-update", new RateLimitRule(List.of("/api/profile"), List.of("post"),
+                    List.of(RateLimitRule.Key.USER), 2, Duration.ofMinutes(1)));
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void nodesSharingAStoreShareTheBudgetPerIpAndProvider() throws Exception {
+        LocalRateLimitStore shared = new LocalRateLimitStore(1_000);
+        RateLimitFilter nodeA = new RateLimitFilter(new RateLimiter(RULES, shared));
+        RateLimitFilter nodeB = new RateLimitFilter(new RateLimiter(RULES, shared));
+
+        assertThat(send(nodeA, "GET", "/oauth2/authorization/github", "10.0.0.1").getStatus()).isEqualTo(200);
+        assertThat(send(nodeB, "GET", "/oauth2/authorization/github", "10.0.0.1").getStatus()).isEqualTo(200);
+        assertThat(send(nodeA, "GET", "/oauth2/authorization/github", "10.0.0.1").getStatus()).isEqualTo(200);
+
+        MockHttpServletResponse refused = send(nodeB, "GET", "/oauth2/authorization/github", "10.0.0.1");
+        assertThat(refused.getStatus()).isEqualTo(429);
+        assertThat(refused.getHeader("Retry-After")).isEqualTo("20");
+        assertThat(refused.getContentAsString()).contains("\"rate-limited\"");
+
+        // separate buckets: another provider, another client, and routes no rule covers
+        assertThat(send(nodeB, "GET", "/oauth2/authorization/google", "10.0.0.1").getStatus()).isEqualTo(200);
+        assertThat(send(nodeB, "GET", "/oauth2/authorization/github", "10.0.0.2").getStatus()).isEqualTo(200);
+        assertThat(send(nodeB, "GET", "/api/me", "10.0.0.1").getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void profileUpdatesAreLimitedPerUserWhicheverAddressTheyComeFrom() throws Exception {
+        RateLimitFilter filter = new RateLimitFilter(new RateLimiter(RULES, new LocalRateLimitStore(1_000)));
+        loggedIn(7L);
+
+        assertThat(send(filter, "POST", "/api/profile", "10.0.0.1").getStatus()).isEqualTo(200);
+        assertThat(send(filter, "POST", "/api/profile", "10.0.0.2").getStatus()).isEqualTo(200);
+        assertThat(send(filter, "POST", "/api/profile", "10.0.0.3").getStatus()).isEqualTo(429);
+        assertThat(send(filter, "GET", "/api/profile", "10.0.0.3").getStatus()).isEqualTo(200);
+
+        loggedIn(8L);
+        assertThat(send(filter, "POST", "/api/profile", "10.0.0.3").getStatus()).isEqualTo(200);
+    }
+
+    private static MockHttpServletResponse send(RateLimitFilter filter, String method, String uri, String ip)
+            throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setRemoteAddr(ip);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    private static void loggedIn(long id) {
+        DefaultOAuth2User user = new DefaultOAuth2User(Set.of(new SimpleGrantedAuthority("ROLE_USER")),
+                Map.of("id", id, "email", id + "@example.com"), "email");
+        SecurityContextHolder.getContext().setAuthentication(
+                new OAuth2AuthenticationToken(user, user.getAuthorities(), "github"));
+    }
+}
@@ -0,0 +1,172 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import ahito.bernadeth.oauth2integration.audit.LoginEventJournal;
+import ahito.bernadeth.oauth2integration.avatar.AvatarService;
+import ahito.bernadeth.oauth2integration.metrics.LoginMetrics;
+import ahito.bernadeth.oauth2integration.provider.ProviderAdapters;
+import ahito.bernadeth.oauth2integration.trace.LoginTracer;
+import ahito.bernadeth.oauth2integration.user.AccountLinkService;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import ahito.bernadeth.oauth2integration.user.AuthProviderRepository;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Logins through the registry with the provider's userinfo answered locally. */
+@SpringBootTest(properties = "app.microsoft.verified-email-domains=contoso.onmicrosoft.com")
+class AppOAuth2UserServiceTest {
+
+    @Autowired UserProvisioningService provisioning;
+    @Autowired ProfileCache profiles;
+    @Autowired ProviderAdapters adapters;
+    @Autowired LoginTracer tracer;
+    @Autowired LoginMetrics metrics;
+    @Autowired LoginEventJournal events;
+    @Autowired AvatarService avatars;
+    @Autowired AccountLinkService accountLinks;
+    @Autowired AuthProviderRepository links;
+    @Autowired TransactionTemplate tx;
+
+    private final String tag = UUID.randomUUID().toString().substring(0, 8);
+
+    @Test
+    void gitlabLoginIsProvisionedAsAGitlabLink() {
+        String email = "gitlab-" + tag + "@example.com";
+        OAuth2User principal = service(Map.of("id", Math.abs(tag.hashCode()), "username", "ada-" + tag,
+                "email", email, "confirmed_at", "2024-05-01T09:00:00.000Z",
+                "avatar_url", "https://gitlab.example.com/avatar.png"))
+                .loadUser(request("gitlab"));
+
+        assertThat(principal.<String>getAttribute("email")).isEqualTo(email);
+        assertThat(principal.<String>getAttribute("name")).isEqualTo("ada-" + tag);
+        assertLinked(AuthProvider.Provider.GITLAB, String.valueOf(Math.abs(tag.hashCode())), email);
+    }
+
+    @Test
+    void microsoftLoginWithoutMailUsesTheSignInName() {
+        String upn = "ms-" + tag + "@contoso.onmicrosoft.com";
+        OAuth2User principal = service(Map.of("id", "oid-" + tag, "displayName", "Ada Lovelace",
+                "userPrincipalName", upn))
+                .loadUser(request("microsoft"));
+
+        assertThat(principal.<String>getAttribute("email")).isEqualTo(upn);
+        assertThat(principal.<String>getAttribute("picture")).isEmpty();
+        assertLinked(AuthProvider.Provider.MICROSOFT, "oid-" + tag, upn);
+    }
+
+    @Test
+    void unverifiedMicrosoftIdentityDoesNotJoinTheAccountWithItsAddress() {
+        String email = "victim-" + tag + "@example.com";
+        OAuth2User victim = service(Map.of("sub", "g-" + tag, "email", email, "email_verified", true, "name", "Ada"))
+                .loadUser(request("google"));
+
+        // any tenant admin can put someone else's address into mail
+        OAuth2User principal = service(Map.of("id", "oid-" + tag, "displayName", "Mallory", "mail", email))
+                .loadUser(request("microsoft"));
+
+        assertThat(principal.<Long>getAttribute("id")).isNotEqualTo(victim.<Long>getAttribute("id"));
+        assertThat(principal.<String>getAttribute("email")).isEqualTo("microsoft-oid-" + tag + "@unverified.invalid");
+        tx.executeWithoutResult(status -> {
+            AuthProvider link = links.findByProviderAndProviderUserId(AuthProvider.Provider.MICROSOFT, "oid-" + tag)
+                    .orElseThrow();
+            assertThat(link.getUser().getId()).isEqualTo(principal.<Long>getAttribute("id"));
+            assertThat(link.getProviderEmail()).isEqualTo(email);
+        });
+
+        // and coming back doesn't either
+        OAuth2User again = service(Map.of("id", "oid-" + tag, "displayName", "Mallory", "mail", email))
+                .loadUser(request("microsoft"));
+        assertThat(again.<Long>getAttribute("id")).isEqualTo(principal.<Long>getAttribute("id"));
+    }
+
+    @Test
+    void unknownRegistrationFailsTheLogin() {
+        assertThatThrownBy(() -> service(Map.of("sub", "x", "email", "x@example.com")).loadUser(request("okta")))
+                .isInstanceOf(OAuth2AuthenticationException.class);
+    }
+
+    @Test
+    void linkIntentOfTheSignedInUserAttachesTheIdentityToThem() {
+        String email = "ada-" + tag + "@example.com";
+        OAuth2User ada = service(Map.of("sub", "g-" + tag, "email", email, "email_verified", true, "name", "Ada"))
+                .loadUser(request("google"));
+        long adaId = ada.<Long>getAttribute("id");
+        int gitlabId = 9_000_000 + Math.abs(tag.hashCode() % 1_000_000);
+
+        MockHttpServletRequest callback = new MockHttpServletRequest("GET", "/login/oauth2/code/gitlab");
+        callback.setCookies(new Cookie(AccountLinkIntent.COOKIE_NAME, adaId + ".gitlab.0"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(callback, response));
+        SecurityContextHolder.getContext().setAuthentication(
+                new OAuth2AuthenticationToken(ada, ada.getAuthorities(), "google"));
+        try {
+            OAuth2User principal = service(Map.of("id", gitlabId, "username", "octo",
+                    "email", "octo-" + tag + "@example.com")).loadUser(request("gitlab"));
+
+            assertThat(principal.<Long>getAttribute("id")).isEqualTo(adaId);
+            assertThat(principal.<String>getAttribute("email")).isEqualTo(email);
+            assertThat(response.getHeader(HttpHeaders.SET_COOKIE)).startsWith(AccountLinkIntent.COOKIE_NAME + "=;");
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+            SecurityContextHolder.clearContext();
+        }
+        tx.executeWithoutResult(status -> assertThat(links.findByProviderAndProviderUserId(
+                AuthProvider.Provider.GITLAB, String.valueOf(gitlabId)).orElseThrow().getUser().getId()).isEqualTo(adaId));
+    }
+
+    private void assertLinked(AuthProvider.Provider provider, String providerUserId, String email) {
+        tx.executeWithoutResult(status -> {
+            AuthProvider link = links.findByProviderAndProviderUserId(provider, providerUserId).orElseThrow();
+            assertThat(link.getProviderEmail()).isEqualTo(email);
+            assertThat(link.getUser().getEmail()).isEqualTo(email);
+        });
+    }
+
+    private AppOAuth2UserService service(Map<String, Object> userinfo) {
+        return new AppOAuth2UserService(provisioning, profiles, adapters, tracer, metrics, events, avatars, accountLinks) {
+            @Override
+            protected OAuth2User fetchUserInfo(OAuth2UserRequest req) {
+                return new DefaultOAuth2User(Set.of(), userinfo, userinfo.containsKey("id") ? "id" : "sub");
+            }
+        };
+    }
+
+    private static OAuth2UserRequest request(String registrationId) {
+        ClientRegistration registration = ClientRegistration.withRegistrationId(registrationId)
+                .clientId("test")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("http://localhost/authorize")
+                .tokenUri("http://localhost/token")
+                .build();
+        OAuth2AccessToken token = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "token-" + registrationId,
+                Instant.now(), Instant.now().plusSeconds(60));
+        return new OAuth2UserRequest(registration, token);
+    }
+}
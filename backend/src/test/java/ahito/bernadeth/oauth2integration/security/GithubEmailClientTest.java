@@ -0,0 +1,145 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GithubEmailClientTest {
+
+    private static final String EMAILS = """
+            [{"email":"old@example.com","primary":false,"verified":true},
+             {"email":"me@example.com","primary":true,"verified":true}]""";
+
+    private HttpServer stub;
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile long latencyMillis;
+    private volatile int status = 200;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/user/emails", ex -> {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = EMAILS.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Content-Type", "application/json");
+            ex.sendResponseHeaders(status, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    private GithubEmailClient client(Duration readTimeout, int failureThreshold) {
+        return new GithubEmailClient("http://127.0.0.1:" + stub.getAddress().getPort(),
+                Duration.ofSeconds(1), readTimeout, Duration.ofMinutes(1),
+                failureThreshold, Duration.ofMinutes(1), false, new ObjectMapper());
+    }
+
+    @Test
+    void picksPrimaryVerifiedEmail() {
+        assertThat(client(Duration.ofSeconds(2), 5).fetchPrimaryEmail("t1").join()).isEqualTo("me@example.com");
+    }
+
+    @Test
+    void lookupsForDifferentTokensOverlap() {
+        latencyMillis = 300;
+        GithubEmailClient client = client(Duration.ofSeconds(2), 5);
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] all = new CompletableFuture<?>[8];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = client.fetchPrimaryEmail("token-" + i);
+        }
+        CompletableFuture.allOf(all).join();
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(300L * 4));
+    }
+
+    @Test
+    void sameTokenIsServedFromCache() {
+        GithubEmailClient client = client(Duration.ofSeconds(2), 5);
+
+        client.fetchPrimaryEmail("t1").join();
+        client.fetchPrimaryEmail("t1").join();
+
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void concurrentLoginsWithTheSameTokenShareOneCall() throws Exception {
+        latencyMillis = 200;
+        GithubEmailClient client = client(Duration.ofSeconds(2), 5);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<CompletableFuture<String>>> lookups = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            lookups.add(pool.submit(() -> {
+                start.await();
+                return client.fetchPrimaryEmail("t1");
+            }));
+        }
+        start.countDown();
+        for (Future<CompletableFuture<String>> lookup : lookups) {
+            assertThat(lookup.get().join()).isEqualTo("me@example.com");
+        }
+        pool.shutdown();
+
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void slowGithubTimesOutAndOpensTheBreaker() {
+        latencyMillis = 500;
+        GithubEmailClient client = client(Duration.ofMillis(100), 2);
+
+        assertThat(client.fetchPrimaryEmail("a").join()).isNull();
+        assertThat(client.fetchPrimaryEmail("b").join()).isNull();
+        assertThat(client.isCircuitOpen()).isTrue();
+
+        long start = System.nanoTime();
+        assertThat(client.fetchPrimaryEmail("c").join()).isNull();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(50));
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void errorResponseIsNotCached() {
+        status = 502;
+        GithubEmailClient client = client(Duration.ofSeconds(2), 5);
+        assertThat(client.fetchPrimaryEmail("t1").join()).isNull();
+
+        status = 200;
+        assertThat(client.fetchPrimaryEmail("t1").join()).isEqualTo("me@example.com");
+    }
+}
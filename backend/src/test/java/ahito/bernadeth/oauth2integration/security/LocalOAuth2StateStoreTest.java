@@ -0,0 +1,72 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalOAuth2StateStoreTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    private Instant in(long millis) {
+        return Instant.ofEpochMilli(clock.get() + millis);
+    }
+
+    @Test
+    void entriesExpireAndTakeWorksOnce() {
+        LocalOAuth2StateStore store = new LocalOAuth2StateStore(100, clock::get);
+        store.put("a", new byte[]{1}, in(1_000));
+        store.put("b", new byte[]{2}, in(1_000));
+
+        assertThat(store.get("a")).containsExactly(1);
+        assertThat(store.take("a")).containsExactly(1);
+        assertThat(store.take("a")).isNull();
+        assertThat(store.get("a")).isNull();
+
+        clock.addAndGet(1_000);
+        assertThat(store.get("b")).isNull();
+        assertThat(store.take("b")).isNull();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void aFloodOfLoginStartsCannotGrowTheStorePastItsBound() {
+        LocalOAuth2StateStore store = new LocalOAuth2StateStore(640, clock::get);
+        for (int i = 0; i < 10_000; i++) {
+            store.put("k" + i, new byte[]{1}, in(60_000));
+        }
+        assertThat(store.size()).isLessThanOrEqualTo(640);
+        assertThat(store.evictions()).isEqualTo(10_000 - store.size());
+        // the newest entries survive
+        assertThat(store.get("k9999")).containsExactly(1);
+
+        // expired entries make room before anything live is evicted
+        clock.addAndGet(60_000);
+        long evicted = store.evictions();
+        for (int i = 0; i < 100; i++) {
+            store.put("n" + i, new byte[]{2}, in(60_000));
+        }
+        assertThat(store.evictions()).isEqualTo(evicted);
+        assertThat(store.get("n0")).containsExactly(2);
+    }
+
+    @Test
+    void aFloodOfLoginStartsDoesNotEvictAuthorizedClients() {
+        LocalOAuth2StateStore store = new LocalOAuth2StateStore(640, clock::get);
+        for (int i = 0; i < 100; i++) {
+            store.put("client:github:" + i, new byte[]{1}, in(8 * 3_600_000L));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            store.put("authz:" + i + ":b", new byte[]{2}, in(180_000));
+        }
+
+        assertThat(store.size()).isLessThanOrEqualTo(640 + 100);
+        for (int i = 0; i < 100; i++) {
+            assertThat(store.get("client:github:" + i)).containsExactly(1);
+        }
+        assertThat(store.get("authz:9999:b")).containsExactly(2);
+    }
+}
@@ -0,0 +1,136 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import ahito.bernadeth.oauth2integration.audit.LoginEventJournal;
+import ahito.bernadeth.oauth2integration.avatar.AvatarService;
+import ahito.bernadeth.oauth2integration.metrics.LoginMetrics;
+import ahito.bernadeth.oauth2integration.provider.ProviderAdapters;
+import ahito.bernadeth.oauth2integration.trace.LoginTracer;
+import ahito.bernadeth.oauth2integration.user.AccountLinkService;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Login burst against a stubbed provider: the number of pooled connections in use must not grow with
+ * provider latency, because no connection is held while we wait on the provider.
+ */
+@SpringBootTest
+class LoginConnectionPoolTest {
+
+    private static final int CONCURRENT_LOGINS = 40;
+
+    @Autowired UserProvisioningService provisioning;
+    @Autowired ProfileCache profiles;
+    @Autowired ProviderAdapters adapters;
+    @Autowired LoginTracer tracer;
+    @Autowired LoginMetrics metrics;
+    @Autowired LoginEventJournal events;
+    @Autowired AvatarService avatars;
+    @Autowired AccountLinkService accountLinks;
+    @Autowired DataSource dataSource;
+
+    @Test
+    void poolUsageStaysFlatAsProviderLatencyGrows() throws Exception {
+        HikariPoolMXBean pool = dataSource.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+
+        int fast = peakActiveConnections(pool, 0, "fast");
+        int slow = peakActiveConnections(pool, 250, "slow");
+
+        assertThat(slow).isLessThanOrEqualTo(Math.max(fast, 2) + 2);
+        assertThat(pool.getThreadsAwaitingConnection()).isZero();
+    }
+
+    private int peakActiveConnections(HikariPoolMXBean pool, long latencyMillis, String run) throws Exception {
+        AtomicInteger txDuringFetch = new AtomicInteger();
+        AppOAuth2UserService service = new AppOAuth2UserService(provisioning, profiles, adapters, tracer, metrics,
+                events, avatars, accountLinks) {
+            @Override
+            protected OAuth2User fetchUserInfo(OAuth2UserRequest req) {
+                if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                    txDuringFetch.incrementAndGet();
+                }
+                // jitter, so the burst doesn't wake up and hit the DB in lock-step
+                sleep(latencyMillis / 2 + ThreadLocalRandom.current().nextLong(latencyMillis + 1));
+                String sub = req.getAccessToken().getTokenValue();
+                return new DefaultOAuth2User(Set.of(), Map.of(
+                        "sub", sub, "email", sub + "@example.com", "email_verified", true, "name", "User " + sub), "sub");
+            }
+        };
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger peak = new AtomicInteger();
+        Thread sampler = new Thread(() -> {
+            while (running.get()) {
+                peak.accumulateAndGet(pool.getActiveConnections(), Math::max);
+                Thread.onSpinWait();
+            }
+        });
+        sampler.start();
+
+        ExecutorService logins = Executors.newFixedThreadPool(CONCURRENT_LOGINS);
+        try {
+            List<Future<OAuth2User>> results = new ArrayList<>();
+            for (int i = 0; i < CONCURRENT_LOGINS; i++) {
+                OAuth2UserRequest req = googleRequest(run + "-" + i);
+                results.add(logins.submit(() -> service.loadUser(req)));
+            }
+            for (Future<OAuth2User> r : results) {
+                assertThat(r.get().<Object>getAttribute("id")).isNotNull();
+            }
+        } finally {
+            logins.shutdown();
+            running.set(false);
+            sampler.join();
+        }
+
+        assertThat(txDuringFetch).hasValue(0);
+        return peak.get();
+    }
+
+    private static OAuth2UserRequest googleRequest(String token) {
+        ClientRegistration google = ClientRegistration.withRegistrationId("google")
+                .clientId("test")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("http://localhost/authorize")
+                .tokenUri("http://localhost/token")
+                .build();
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, token,
+                Instant.now(), Instant.now().plusSeconds(60));
+        return new OAuth2UserRequest(google, accessToken);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
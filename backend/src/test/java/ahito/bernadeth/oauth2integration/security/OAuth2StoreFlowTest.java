@@ -0,0 +1,156 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.web.OAuth2AuthorizationRequestRedirectFilter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+
+/**
+ * Two nodes on one database: "node A" is a redirect filter and store of its own, sharing nothing with this
+ * application context ("node B") but the {@code oauth2_state} table.
+ */
+@SpringBootTest(properties = {"app.oauth2-store.type=jdbc", "app.oauth2-store.sweep-interval=0",
+        "app.rate-limit.enabled=false"})
+@AutoConfigureMockMvc
+class OAuth2StoreFlowTest {
+
+    // GitHub's token and user endpoints; /user answers for the user whose code was exchanged
+    private static HttpServer github;
+
+    @Autowired MockMvc nodeB;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired ClientRegistrationRepository registrations;
+
+    private final String tag = UUID.randomUUID().toString().substring(0, 8);
+
+    @DynamicPropertySource
+    static void github(DynamicPropertyRegistry registry) throws IOException {
+        github = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        github.createContext("/login/oauth/access_token", ex -> {
+            String form = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String code = form.replaceAll(".*code=([^&]*).*", "$1");
+            json(ex, "{\"access_token\":\"tok-" + code + "\",\"token_type\":\"bearer\",\"scope\":\"read:user\"}");
+        });
+        github.createContext("/user", ex -> {
+            String code = ex.getRequestHeaders().getFirst("Authorization").substring("Bearer tok-".length());
+            json(ex, "{\"id\":" + Math.abs(code.hashCode()) + ",\"login\":\"" + code + "\",\"name\":\"Ada\","
+                    + "\"email\":\"" + code + "@example.com\"}");
+        });
+        github.start();
+        String base = "http://127.0.0.1:" + github.getAddress().getPort();
+        registry.add("spring.security.oauth2.client.registration.github.client-id", () -> "test");
+        registry.add("spring.security.oauth2.client.registration.github.client-secret", () -> "test");
+        registry.add("spring.security.oauth2.client.provider.github.token-uri", () -> base + "/login/oauth/access_token");
+        registry.add("spring.security.oauth2.client.provider.github.user-info-uri", () -> base + "/user");
+        registry.add("app.github.api-base-url", () -> base);
+    }
+
+    @AfterAll
+    static void stopGithub() {
+        github.stop(0);
+    }
+
+    @Test
+    void loginStartedOnNodeAFinishesOnNodeB() throws Exception {
+        JdbcOAuth2StateStore nodeAStore = new JdbcOAuth2StateStore(jdbc, Duration.ZERO);
+        Started started = startOnNodeA(nodeAStore);
+
+        nodeB.perform(get("/login/oauth2/code/github").param("code", tag).param("state", started.state)
+                        .cookie(started.binding))
+                .andExpect(redirectedUrl("http://localhost:5173/profile"));
+
+        // the token is there for node A as well
+        OAuth2AuthorizedClient client = new StoredOAuth2AuthorizedClientService(nodeAStore, registrations,
+                Duration.ofHours(1)).loadAuthorizedClient("github", tag + "@example.com");
+        assertThat(client.getAccessToken().getTokenValue()).isEqualTo("tok-" + tag);
+        assertThat(client.getClientRegistration().getRegistrationId()).isEqualTo("github");
+
+        // single use: replaying the callback finds no authorization request
+        nodeB.perform(get("/login/oauth2/code/github").param("code", tag).param("state", started.state)
+                        .cookie(started.binding))
+                .andExpect(redirectedUrl("http://localhost:5173/?error=oauth"));
+    }
+
+    @Test
+    void callbackFromAnotherBrowserFindsNothing() throws Exception {
+        Started started = startOnNodeA(new JdbcOAuth2StateStore(jdbc, Duration.ZERO));
+
+        nodeB.perform(get("/login/oauth2/code/github").param("code", tag).param("state", started.state)
+                        .cookie(new Cookie(StoredAuthorizationRequestRepository.COOKIE_NAME, "someone-else")))
+                .andExpect(redirectedUrl("http://localhost:5173/?error=oauth"));
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM users WHERE email = ?", Long.class,
+                tag + "@example.com")).isZero();
+    }
+
+    @Test
+    void sweepDeletesExpiredRowsInBatches() {
+        JdbcOAuth2StateStore store = new JdbcOAuth2StateStore(jdbc, Duration.ZERO);
+        int expired = JdbcOAuth2StateStore.SWEEP_BATCH * 2 + 17;
+        for (int i = 0; i < expired; i++) {
+            jdbc.update("INSERT INTO oauth2_state (id, payload, expires_at) VALUES (?, ?, ?)",
+                    "sweep:" + tag + ":" + i, new byte[]{1}, Timestamp.from(Instant.now().minusSeconds(1)));
+        }
+        store.put("sweep:" + tag + ":live", new byte[]{2}, Instant.now().plusSeconds(60));
+
+        assertThat(store.sweepExpired()).isGreaterThanOrEqualTo(expired);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM oauth2_state WHERE id LIKE ?", Long.class,
+                "sweep:" + tag + ":%")).isEqualTo(1);
+        assertThat(store.get("sweep:" + tag + ":live")).containsExactly(2);
+    }
+
+    private Started startOnNodeA(OAuth2StateStore store) throws Exception {
+        OAuth2AuthorizationRequestRedirectFilter nodeA = new OAuth2AuthorizationRequestRedirectFilter(registrations);
+        nodeA.setAuthorizationRequestRepository(new StoredAuthorizationRequestRepository(store, false));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/oauth2/authorization/github");
+        request.setServletPath("/oauth2/authorization/github");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        nodeA.doFilter(request, response, new MockFilterChain());
+
+        String state = UriComponentsBuilder.fromUriString(response.getRedirectedUrl()).build()
+                .getQueryParams().getFirst("state");
+        Cookie binding = response.getCookie(StoredAuthorizationRequestRepository.COOKIE_NAME);
+        assertThat(binding).isNotNull();
+        return new Started(URLDecoder.decode(state, StandardCharsets.UTF_8), binding);
+    }
+
+    private record Started(String state, Cookie binding) {
+    }
+
+    private static void json(HttpExchange ex, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
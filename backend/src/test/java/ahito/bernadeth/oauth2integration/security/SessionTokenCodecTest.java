@@ -0,0 +1,85 @@
+package ahito.bernadeth.oauth2integration.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+
+import jakarta.servlet.http.Cookie;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionTokenCodecTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void issuedTokenVerifies() {
+        SessionTokenCodec codec = new SessionTokenCodec("secret", List.of(), Duration.ofHours(1), mapper);
+
+        SessionClaims claims = codec.verify(codec.issue(7L, "a@example.com", "Ann", null, "github"));
+
+        assertThat(claims.id()).isEqualTo(7L);
+        assertThat(claims.email()).isEqualTo("a@example.com");
+        assertThat(claims.registrationId()).isEqualTo("github");
+    }
+
+    @Test
+    void rejectsTamperedForgedAndExpiredTokens() {
+        Clock t0 = Clock.fixed(Instant.parse("2025-01-01T00:00:00Z"), ZoneOffset.UTC);
+        SessionTokenCodec codec = new SessionTokenCodec("secret", List.of(), Duration.ofHours(1), mapper, t0);
+        String token = codec.issue(7L, "a@example.com", "Ann", null, "github");
+
+        String otherUser = codec.issue(8L, "b@example.com", "Bob", null, "github");
+        String spliced = otherUser.substring(0, otherUser.indexOf('.')) + token.substring(token.indexOf('.'));
+        assertThat(codec.verify(spliced)).isNull();
+        assertThat(new SessionTokenCodec("other", List.of(), Duration.ofHours(1), mapper, t0).verify(token)).isNull();
+        assertThat(codec.verify("garbage")).isNull();
+
+        SessionTokenCodec later = new SessionTokenCodec("secret", List.of(), Duration.ofHours(1), mapper,
+                Clock.offset(t0, Duration.ofHours(2)));
+        assertThat(later.verify(token)).isNull();
+    }
+
+    @Test
+    void previousSecretStillVerifiesAfterRotation() {
+        String token = new SessionTokenCodec("old", List.of(), Duration.ofHours(1), mapper)
+                .issue(7L, "a@example.com", "Ann", null, "google");
+
+        SessionTokenCodec rotated = new SessionTokenCodec("new", List.of("old"), Duration.ofHours(1), mapper);
+
+        assertThat(rotated.verify(token)).isNotNull();
+    }
+
+    @Test
+    void authorizationRequestRoundTripsThroughSignedCookie() {
+        SessionTokenCodec codec = new SessionTokenCodec("secret", List.of(), Duration.ofHours(1), mapper);
+        HttpCookieOAuth2AuthorizationRequestRepository repo = new HttpCookieOAuth2AuthorizationRequestRepository(codec, false);
+        OAuth2AuthorizationRequest authRequest = OAuth2AuthorizationRequest.authorizationCode()
+                .authorizationUri("https://github.com/login/oauth/authorize")
+                .clientId("client")
+                .redirectUri("http://localhost:8080/login/oauth2/code/github")
+                .state("xyz")
+                .attributes(Map.of("registration_id", "github"))
+                .build();
+
+        MockHttpServletResponse saved = new MockHttpServletResponse();
+        repo.saveAuthorizationRequest(authRequest, new MockHttpServletRequest(), saved);
+        Cookie cookie = saved.getCookie(HttpCookieOAuth2AuthorizationRequestRepository.COOKIE_NAME);
+
+        MockHttpServletRequest callback = new MockHttpServletRequest();
+        callback.setCookies(cookie);
+        callback.setParameter("state", "xyz");
+        assertThat(repo.removeAuthorizationRequest(callback, new MockHttpServletResponse()).getState()).isEqualTo("xyz");
+
+        callback.setParameter("state", "other");
+        assertThat(repo.loadAuthorizationRequest(callback)).isNull();
+    }
+}
@@ -0,0 +1,64 @@
+package ahito.bernadeth.oauth2integration.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MpscRingBufferTest {
+
+    static final class Slot {
+        long value;
+    }
+
+    @Test
+    void rejectsWhenFullAndReusesSlotsAfterDrain() {
+        MpscRingBuffer<Slot> ring = new MpscRingBuffer<>(4, Slot::new);
+        for (int i = 0; i < 4; i++) {
+            assertThat(offer(ring, i)).isTrue();
+        }
+        assertThat(offer(ring, 99)).isFalse();
+
+        List<Long> seen = new ArrayList<>();
+        assertThat(ring.drain(s -> seen.add(s.value), 10)).isEqualTo(4);
+        assertThat(seen).containsExactly(0L, 1L, 2L, 3L);
+        assertThat(offer(ring, 4)).isTrue();
+    }
+
+    @Test
+    void concurrentProducersLoseNothingTheRingAccepted() throws Exception {
+        MpscRingBuffer<Slot> ring = new MpscRingBuffer<>(1024, Slot::new);
+        int producers = 8;
+        int perProducer = 50_000;
+        AtomicLong acceptedSum = new AtomicLong();
+        AtomicLong drainedSum = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(producers);
+
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                for (int i = 1; i <= perProducer; i++) {
+                    if (offer(ring, i)) acceptedSum.addAndGet(i);
+                }
+                done.countDown();
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            ring.drain(s -> drainedSum.addAndGet(s.value), 256);
+        }
+        ring.drain(s -> drainedSum.addAndGet(s.value), Integer.MAX_VALUE);
+
+        assertThat(drainedSum.get()).isEqualTo(acceptedSum.get()).isPositive();
+    }
+
+    private static boolean offer(MpscRingBuffer<Slot> ring, long value) {
+        long pos = ring.claim();
+        if (pos < 0) return false;
+        ring.slot(pos).value = value;
+        ring.publish(pos);
+        return true;
+    }
+}
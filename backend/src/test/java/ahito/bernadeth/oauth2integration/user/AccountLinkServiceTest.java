@@ -0,0 +1,107 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.UUID;
+
+import static ahito.bernadeth.oauth2integration.user.AuthProvider.Provider.GITHUB;
+import static ahito.bernadeth.oauth2integration.user.AuthProvider.Provider.GOOGLE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class AccountLinkServiceTest {
+
+    @Autowired AccountLinkService links;
+    @Autowired UserProvisioningService provisioning;
+    @Autowired IdentityIndex identities;
+    @Autowired JdbcTemplate jdbc;
+
+    private final String tag = UUID.randomUUID().toString().substring(0, 8);
+
+    @Test
+    void linkedIdentityLogsIntoItsAccountWhateverItsEmail() {
+        UserProfile ada = login(GOOGLE, "g-" + tag, "ada-" + tag + "@example.com");
+        ProviderIdentity github = identity(GITHUB, "gh-" + tag, "octo-" + tag + "@example.com");
+
+        assertThat(links.link(ada.id(), github, false).result()).isEqualTo(AccountLinkService.LinkResult.LINKED);
+
+        ProvisionedUser viaGithub = provisioning.provision(github, LoginTrace.NOOP);
+        assertThat(viaGithub.created()).isFalse();
+        assertThat(viaGithub.profile().id()).isEqualTo(ada.id());
+        assertThat(identities.find(GITHUB, "gh-" + tag, github.email()).userId()).isEqualTo(ada.id());
+        assertThat(count("SELECT COUNT(*) FROM users WHERE email = ?", github.email())).isZero();
+    }
+
+    @Test
+    void identityOfAnotherAccountIsOnlyTakenOverByAMerge() {
+        UserProfile ada = login(GOOGLE, "g-" + tag, "ada-" + tag + "@example.com");
+        UserProfile duplicate = login(GITHUB, "gh-" + tag, "octo-" + tag + "@example.com");
+        ProviderIdentity github = identity(GITHUB, "gh-" + tag, duplicate.email());
+        jdbc.update("INSERT INTO login_event (user_id, provider, occurred_at, new_user) VALUES (?, 'GITHUB', ?, TRUE)",
+                duplicate.id(), Timestamp.from(Instant.now()));
+
+        assertThat(links.link(ada.id(), github, false).result())
+                .isEqualTo(AccountLinkService.LinkResult.LINKED_ELSEWHERE);
+        assertThat(provisioning.provision(github, LoginTrace.NOOP).profile().id()).isEqualTo(duplicate.id());
+
+        assertThat(links.link(ada.id(), github, true).result()).isEqualTo(AccountLinkService.LinkResult.MERGED);
+
+        assertThat(count("SELECT COUNT(*) FROM users WHERE id = ?", duplicate.id())).isZero();
+        assertThat(count("SELECT COUNT(*) FROM login_event WHERE user_id = ?", ada.id())).isEqualTo(1);
+        assertThat(links.links(ada.id())).extracting(AccountLinkRepository.Link::provider)
+                .containsExactly(GOOGLE, GITHUB);
+        assertThat(identities.userIdForEmail(duplicate.email())).isEqualTo(IdentityIndex.UNKNOWN);
+        assertThat(provisioning.provision(github, LoginTrace.NOOP).profile().id()).isEqualTo(ada.id());
+    }
+
+    @Test
+    void unlinkKeepsTheLastAndTheSameEmailLink() {
+        String email = "ada-" + tag + "@example.com";
+        UserProfile ada = login(GOOGLE, "g-" + tag, email);
+        ProviderIdentity github = identity(GITHUB, "gh-" + tag, "octo-" + tag + "@example.com");
+        links.link(ada.id(), github, false);
+        long googleLink = links.links(ada.id()).get(0).id();
+        long githubLink = links.links(ada.id()).get(1).id();
+
+        assertThat(links.unlink(ada, googleLink)).isEqualTo(AccountLinkService.UnlinkResult.SAME_EMAIL);
+        assertThat(links.unlink(ada, githubLink)).isEqualTo(AccountLinkService.UnlinkResult.UNLINKED);
+        assertThat(identities.find(GITHUB, "gh-" + tag, github.email())).isNull();
+        assertThat(links.unlink(ada, googleLink)).isEqualTo(AccountLinkService.UnlinkResult.LAST_LINK);
+        assertThat(links.unlink(ada, githubLink)).isEqualTo(AccountLinkService.UnlinkResult.NOT_FOUND);
+
+        // unlinked, so its next login is a new account of its own
+        ProvisionedUser again = provisioning.provision(github, LoginTrace.NOOP);
+        assertThat(again.created()).isTrue();
+        assertThat(again.profile().id()).isNotEqualTo(ada.id());
+    }
+
+    @Test
+    void warmUpLoadsWhatIsInTheTables() {
+        UserProfile ada = login(GOOGLE, "g-" + tag, "ada-" + tag + "@example.com");
+        identities.clear();
+
+        links.warmIdentityIndex();
+
+        assertThat(identities.find(GOOGLE, "g-" + tag, ada.email()))
+                .isEqualTo(new IdentityIndex.Hit(ada.id(), true));
+        assertThat(identities.userIdForEmail(ada.email())).isEqualTo(ada.id());
+    }
+
+    private UserProfile login(AuthProvider.Provider provider, String providerUserId, String email) {
+        return provisioning.provision(identity(provider, providerUserId, email), LoginTrace.NOOP).profile();
+    }
+
+    private static ProviderIdentity identity(AuthProvider.Provider provider, String providerUserId, String email) {
+        return new ProviderIdentity(provider, providerUserId, email, true, "Ada", null);
+    }
+
+    private long count(String sql, Object arg) {
+        return jdbc.queryForObject(sql, Long.class, arg);
+    }
+}
@@ -0,0 +1,113 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static ahito.bernadeth.oauth2integration.user.AuthProvider.Provider.GITHUB;
+import static ahito.bernadeth.oauth2integration.user.AuthProvider.Provider.GOOGLE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdentityIndexTest {
+
+    private final LocalProfileInvalidationBus bus = new LocalProfileInvalidationBus();
+    private final IdentityIndex index = new IdentityIndex(bus);
+
+    @Test
+    void numericAndTextIdsResolveWithTheLinkEmail() {
+        index.put(GITHUB, "583231", "octo@example.com", 7, index.generation());
+        index.put(GOOGLE, "109876543210987654321", "ada@example.com", 8, index.generation());
+
+        assertThat(index.find(GITHUB, "583231", "octo@example.com")).isEqualTo(new IdentityIndex.Hit(7, true));
+        assertThat(index.find(GITHUB, "583231", "new@example.com")).isEqualTo(new IdentityIndex.Hit(7, false));
+        assertThat(index.find(GOOGLE, "109876543210987654321", "ada@example.com").userId()).isEqualTo(8);
+        // same id, other provider; and "0583231" is not the number 583231
+        assertThat(index.find(GOOGLE, "583231", null)).isNull();
+        assertThat(index.find(GITHUB, "0583231", null)).isNull();
+    }
+
+    @Test
+    void putFromAQueryThatRacedWithARemovalIsDropped() {
+        long seen = index.generation();
+        index.put(GITHUB, "1", null, 1, seen);
+        index.unlinked(GITHUB, "1", 1);
+
+        assertThat(index.put(GITHUB, "1", null, 1, seen)).isFalse();
+        assertThat(index.find(GITHUB, "1", null)).isNull();
+    }
+
+    @Test
+    void warmUpDoesNotOverwriteWhatALoginPut() {
+        index.put(GITHUB, "1", null, 2, index.generation());
+        index.load(GITHUB, "1", null, 1);
+
+        assertThat(index.find(GITHUB, "1", null).userId()).isEqualTo(2);
+    }
+
+    @Test
+    void mergeMovesIdentitiesAndForgetsTheMergedEmail() {
+        long g = index.generation();
+        index.put(GITHUB, "10", null, 1, g);
+        index.put(GOOGLE, "g-10", null, 1, g);
+        index.putEmail("one@example.com", 1, g);
+        index.put(GITHUB, "20", null, 2, g);
+        index.putEmail("two@example.com", 2, g);
+
+        index.merged(1, 2);
+
+        assertThat(index.find(GITHUB, "10", null).userId()).isEqualTo(2);
+        assertThat(index.find(GOOGLE, "g-10", null).userId()).isEqualTo(2);
+        assertThat(index.userIdForEmail("one@example.com")).isEqualTo(IdentityIndex.UNKNOWN);
+        assertThat(index.userIdForEmail("two@example.com")).isEqualTo(2);
+    }
+
+    @Test
+    void linkChangeOnAnotherNodeDropsThatUsersEntries() {
+        IdentityIndex other = new IdentityIndex(bus);
+        long g = index.generation();
+        index.put(GITHUB, "10", null, 1, g);
+        index.put(GOOGLE, "g-10", null, 1, g);
+        index.put(GITHUB, "20", null, 2, g);
+        other.put(GITHUB, "10", null, 1, other.generation());
+
+        other.unlinked(GITHUB, "10", 1);
+
+        assertThat(index.find(GITHUB, "10", null)).isNull();
+        assertThat(index.find(GOOGLE, "g-10", null)).isNull();
+        assertThat(index.find(GITHUB, "20", null).userId()).isEqualTo(2);
+        // plain profile edits don't touch the index
+        bus.publish(new ProfileInvalidation("elsewhere", 2L));
+        assertThat(index.find(GITHUB, "20", null).userId()).isEqualTo(2);
+    }
+
+    @Test
+    void staysConsistentWithAHashMapThroughGrowthAndRemovals() {
+        Map<String, Long> expected = new HashMap<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 50_000; i++) {
+            // numeric and text keys, with collisions in the low bits
+            String id = random.nextBoolean() ? Long.toString(random.nextLong(1, 20_000) * 1024)
+                    : "u-" + random.nextInt(20_000);
+            long user = random.nextLong(1, 1000);
+            if (random.nextInt(4) == 0) {
+                index.unlinked(GITHUB, id, user);
+                expected.remove(id);
+            } else {
+                index.put(GITHUB, id, null, user, index.generation());
+                expected.put(id, user);
+            }
+        }
+        long victim = expected.values().iterator().next();
+        bus.publish(new ProfileInvalidation("elsewhere", victim, true));
+        expected.values().removeIf(u -> u == victim);
+
+        assertThat(index.stats().identities()).isEqualTo(expected.size());
+        expected.forEach((id, user) -> assertThat(index.find(GITHUB, id, null).userId()).isEqualTo(user));
+        for (int i = 0; i < 20_000; i++) {
+            String id = "u-" + i;
+            assertThat(index.find(GITHUB, id, null) != null).isEqualTo(expected.containsKey(id));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class LastLoginRecorderTest {
+
+    @Autowired UserProvisioningService provisioning;
+    @Autowired JdbcTemplate jdbc;
+
+    @Test
+    void repeatedLoginsInOneWindowBecomeOneUpdateThatLeavesUpdatedAtAlone() {
+        String email = "last-login-" + UUID.randomUUID() + "@example.com";
+        Long id = provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + email, email, true,
+                "Repeat", null), LoginTrace.NOOP).profile().id();
+        Timestamp updatedAt = jdbc.queryForObject("SELECT updated_at FROM users WHERE id = ?", Timestamp.class, id);
+
+        LastLoginRecorder recorder = new LastLoginRecorder(jdbc, Duration.ofHours(1)); // flushed by hand below
+        for (int i = 0; i < 50; i++) {
+            recorder.touch(id);
+        }
+        assertThat(recorder.flush()).isEqualTo(1);
+        assertThat(recorder.flush()).isZero();
+
+        Map<String, Object> row = jdbc.queryForMap("SELECT updated_at, last_login_at FROM users WHERE id = ?", id);
+        assertThat(row.get("last_login_at")).isNotNull();
+        assertThat(jdbc.queryForObject("SELECT updated_at FROM users WHERE id = ?", Timestamp.class, id))
+                .isEqualTo(updatedAt);
+    }
+}
@@ -0,0 +1,51 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import org.flywaydb.core.Flyway;
+import org.h2.Driver;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the login-state query is the same on every database; run it against the MySQL schema in H2's MySQL mode
+class LoginStateQueryTest {
+
+    private static final SimpleDriverDataSource mysql = new SimpleDriverDataSource(new Driver(),
+            "jdbc:h2:mem:login-state-mysql;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+    private static final JdbcTemplate jdbc = new JdbcTemplate(mysql);
+
+    @BeforeAll
+    static void schema() {
+        Flyway.configure().dataSource(mysql).locations("classpath:db/migration/mysql").load().migrate();
+    }
+
+    @Test
+    void findsTheEmailOwnerUntilTheIdentityIsLinkedAndThenTheLinkedUser() throws Exception {
+        UserProvisioningRepository repository = new UserProvisioningRepository(jdbc, mysql);
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbc.update("INSERT INTO users (email, display_name, created_at, updated_at) VALUES (?, ?, ?, ?)",
+                "ada@example.com", "Ada", now, now);
+        long id = jdbc.queryForObject("SELECT id FROM users WHERE email = 'ada@example.com'", Long.class);
+
+        UserProvisioningRepository.LoginState byEmail =
+                repository.findLoginState("ada@example.com", AuthProvider.Provider.GITHUB, "583231");
+        assertThat(byEmail.profile().id()).isEqualTo(id);
+        assertThat(byEmail.linked()).isFalse();
+        assertThat(byEmail.linkedEmail()).isNull();
+
+        jdbc.update("INSERT INTO auth_provider (user_id, provider, provider_user_id, provider_email) VALUES (?, ?, ?, ?)",
+                id, "GITHUB", "583231", "octo@example.com");
+        UserProvisioningRepository.LoginState linked =
+                repository.findLoginState("someone-else@example.com", AuthProvider.Provider.GITHUB, "583231");
+        assertThat(linked.profile().displayName()).isEqualTo("Ada");
+        assertThat(linked.linked()).isTrue();
+        assertThat(linked.linkedEmail()).isEqualTo("octo@example.com");
+
+        assertThat(repository.findLoginState("nobody@example.com", AuthProvider.Provider.GOOGLE, "g-1")).isNull();
+    }
+}
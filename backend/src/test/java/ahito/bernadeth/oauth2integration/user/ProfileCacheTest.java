@@ -0,0 +1,111 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProfileCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Optional<UserProfile> load(Long id) {
+        loads.incrementAndGet();
+        return Optional.of(profile(id, "loaded", Instant.EPOCH));
+    }
+
+    @Test
+    void readThroughHitsAfterFirstLoad() {
+        ProfileCache cache = new ProfileCache(10, Duration.ofMinutes(1), new LocalProfileInvalidationBus(), now::get);
+
+        cache.get(1L, this::load);
+        cache.get(1L, this::load);
+        cache.get(1L, this::load);
+
+        assertThat(loads).hasValue(1);
+        assertThat(cache.stats().hits()).isEqualTo(2);
+        assertThat(cache.stats().misses()).isEqualTo(1);
+    }
+
+    @Test
+    void expiresAfterTtl() {
+        ProfileCache cache = new ProfileCache(10, Duration.ofSeconds(5), new LocalProfileInvalidationBus(), now::get);
+
+        cache.get(1L, this::load);
+        now.addAndGet(Duration.ofSeconds(6).toNanos());
+        cache.get(1L, this::load);
+
+        assertThat(loads).hasValue(2);
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        ProfileCache cache = new ProfileCache(2, Duration.ofMinutes(1), new LocalProfileInvalidationBus(), now::get);
+
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+        cache.get(1L, this::load); // 2 is now the eldest
+        cache.get(3L, this::load);
+
+        assertThat(cache.getIfPresent(1L)).isNotNull();
+        assertThat(cache.getIfPresent(2L)).isNull();
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void staleLoadDoesNotOverwriteWriteThrough() {
+        ProfileCache cache = new ProfileCache(10, Duration.ofMinutes(1), new LocalProfileInvalidationBus(), now::get);
+
+        // updateProfile lands while the /api/me miss is still reading the old row
+        cache.get(1L, id -> {
+            cache.put(profile(id, "fresh", Instant.ofEpochSecond(10)));
+            return Optional.of(profile(id, "stale", Instant.ofEpochSecond(5)));
+        });
+
+        assertThat(cache.getIfPresent(1L).displayName()).isEqualTo("fresh");
+    }
+
+    @Test
+    void writeOnOneNodeInvalidatesTheOthers() {
+        LocalProfileInvalidationBus bus = new LocalProfileInvalidationBus();
+        ProfileCache nodeA = new ProfileCache(10, Duration.ofMinutes(1), bus, now::get);
+        ProfileCache nodeB = new ProfileCache(10, Duration.ofMinutes(1), bus, now::get);
+        nodeB.get(1L, this::load);
+
+        nodeA.put(profile(1L, "renamed", Instant.ofEpochSecond(20)));
+
+        assertThat(nodeA.getIfPresent(1L).displayName()).isEqualTo("renamed");
+        assertThat(nodeB.getIfPresent(1L)).isNull();
+    }
+
+    @Test
+    void loadThatRacedWithAnInvalidationIsNotCached() {
+        LocalProfileInvalidationBus bus = new LocalProfileInvalidationBus();
+        ProfileCache nodeA = new ProfileCache(10, Duration.ofMinutes(1), bus, now::get);
+        ProfileCache nodeB = new ProfileCache(10, Duration.ofMinutes(1), bus, now::get);
+
+        // an edit on node A lands while node B's miss is still reading the old row
+        UserProfile read = nodeB.get(1L, id -> {
+            Optional<UserProfile> old = load(id);
+            nodeA.put(profile(id, "renamed", Instant.ofEpochSecond(20)));
+            return old;
+        }).orElseThrow();
+
+        assertThat(read.displayName()).isEqualTo("loaded");
+        assertThat(nodeB.getIfPresent(1L)).isNull();
+        assertThat(nodeB.version(1L)).isNull();
+        assertThat(nodeB.get(1L, id -> Optional.of(profile(id, "renamed", Instant.ofEpochSecond(20))))
+                .orElseThrow().displayName()).isEqualTo("renamed");
+    }
+
+    private static UserProfile profile(Long id, String name, Instant updatedAt) {
+        return new UserProfile(id, "u" + id + "@example.com", name, null, null, updatedAt);
+    }
+}
@@ -0,0 +1,64 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Thousands of parallel logins for a small set of overlapping identities (the same person via Google
+ * and GitHub): every login must succeed and each e-mail / provider identity must end up exactly once.
+ */
+@SpringBootTest
+class ProvisioningConcurrencyTest {
+
+    private static final int LOGINS = 2000;
+    private static final int PEOPLE = 25;
+
+    @Autowired UserProvisioningService provisioning;
+    @Autowired JdbcTemplate jdbc;
+
+    @Test
+    void parallelFirstLoginsDoNotRaceOnUniqueConstraints() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        List<Future<ProvisionedUser>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < LOGINS; i++) {
+                int person = i % PEOPLE;
+                boolean viaGithub = (i / PEOPLE) % 2 == 1;
+                ProviderIdentity id = viaGithub
+                        ? new ProviderIdentity(AuthProvider.Provider.GITHUB, "gh-" + person,
+                                "race" + person + "@example.com", true, "GitHub " + person, "https://gh/" + person)
+                        : new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + person,
+                                "race" + person + "@example.com", true, "Google " + person, null);
+                results.add(pool.submit(() -> provisioning.provision(id, LoginTrace.NOOP)));
+            }
+            long created = 0;
+            for (Future<ProvisionedUser> r : results) {
+                if (r.get().created()) created++;
+            }
+            assertThat(created).isEqualTo(PEOPLE);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(jdbc.queryForObject(
+                "SELECT COUNT(*) FROM users WHERE email LIKE 'race%@example.com'", Long.class)).isEqualTo(PEOPLE);
+        assertThat(jdbc.queryForObject("""
+                SELECT COUNT(*) FROM auth_provider a JOIN users u ON u.id = a.user_id
+                 WHERE u.email LIKE 'race%@example.com'""", Long.class)).isEqualTo(2L * PEOPLE);
+        // avatar only ever comes from GitHub here, and a null picture never wipes it
+        assertThat(jdbc.queryForObject("""
+                SELECT COUNT(*) FROM users WHERE email LIKE 'race%@example.com' AND avatar_url IS NULL""",
+                Long.class)).isZero();
+    }
+}
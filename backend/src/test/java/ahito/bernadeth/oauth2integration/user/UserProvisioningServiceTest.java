@@ -0,0 +1,79 @@
+package ahito.bernadeth.oauth2integration.user;
+
+import ahito.bernadeth.oauth2integration.trace.LoginStage;
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.trace.LoginTracer;
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class UserProvisioningServiceTest {
+
+    @Autowired UserProvisioningService provisioning;
+    @Autowired AuthProviderRepository links;
+    @Autowired TransactionTemplate tx;
+
+    // records which stages ran; it reuses one trace per thread, so check each before starting the next
+    private final LoginTracer tracer = new LoginTracer(true, 1.0, 16);
+
+    private final String email = "lookup-" + UUID.randomUUID() + "@example.com";
+
+    @Test
+    void returningLoginWithUnchangedProfileOnlyReads() {
+        ProviderIdentity id = new ProviderIdentity(AuthProvider.Provider.GITHUB, "gh-" + email, email, true,
+                "Octo Cat", "https://gh/octo");
+        ProvisionedUser first = provisioning.provision(id, LoginTrace.NOOP);
+
+        LoginTrace trace = tracer.start("github");
+        ProvisionedUser again = provisioning.provision(id, trace);
+
+        assertThat(first.created()).isTrue();
+        assertThat(again.created()).isFalse();
+        assertThat(again.profile()).isEqualTo(first.profile());
+        assertThat(stagesRun(trace)).containsExactly(LoginStage.ACCOUNT_LOOKUP);
+    }
+
+    @Test
+    void onlyTheStalePartIsWritten() {
+        provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + email, email, true,
+                "Ada", null), LoginTrace.NOOP);
+
+        // same user via a new provider: link only
+        LoginTrace newLink = tracer.start("github");
+        provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GITHUB, "gh-" + email, email, true,
+                "Ada", null), newLink);
+        assertThat(stagesRun(newLink)).containsExactly(LoginStage.ACCOUNT_LOOKUP, LoginStage.LINK_UPSERT);
+
+        // renamed at the provider: user row only
+        LoginTrace renamed = tracer.start("github");
+        ProvisionedUser user = provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GITHUB,
+                "gh-" + email, email, true, "Ada Lovelace", null), renamed);
+        assertThat(stagesRun(renamed)).containsExactly(LoginStage.ACCOUNT_LOOKUP, LoginStage.USER_UPSERT);
+        assertThat(user.profile().displayName()).isEqualTo("Ada Lovelace");
+    }
+
+    @Test
+    void linkLookupDoesNotLoadTheUser() {
+        provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + email, email, true,
+                "Lazy", null), LoginTrace.NOOP);
+
+        tx.executeWithoutResult(status -> {
+            AuthProvider link = links.findByProviderAndProviderUserId(AuthProvider.Provider.GOOGLE, "g-" + email)
+                    .orElseThrow();
+            assertThat(Hibernate.isInitialized(link.getUser())).isFalse();
+            assertThat(link.getUser().getEmail()).isEqualTo(email);
+        });
+    }
+
+    private static LoginStage[] stagesRun(LoginTrace trace) {
+        return Arrays.stream(LoginStage.values()).filter(s -> trace.nanos(s) >= 0).toArray(LoginStage[]::new);
+    }
+}
@@ -0,0 +1,114 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import ahito.bernadeth.oauth2integration.user.ProviderIdentity;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "app.admin-user-ids=" + AdminUserControllerTest.ADMIN_ID)
+@AutoConfigureMockMvc
+class AdminUserControllerTest {
+
+    static final long ADMIN_ID = 900_000_001L;
+    private static final int USERS = 1200; // more than two IN chunks
+
+    @Autowired MockMvc mvc;
+    @Autowired UserProvisioningService provisioning;
+    @Autowired ObjectMapper mapper;
+
+    private final String tag = "bulk-" + UUID.randomUUID().toString().substring(0, 8);
+    private final List<Long> ids = new ArrayList<>();
+
+    @BeforeEach
+    void seed() {
+        for (int i = 0; i < USERS; i++) {
+            String email = tag + "-" + i + "@example.com";
+            ids.add(provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, tag + "-g" + i,
+                    email, true, "User " + i, null), LoginTrace.NOOP).profile().id());
+            if (i % 2 == 0) {
+                provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GITHUB, tag + "-gh" + i,
+                        email, true, "User " + i, "https://gh/" + i), LoginTrace.NOOP);
+            }
+        }
+    }
+
+    @Test
+    void batchResolvesIdsAndEmailsAcrossChunksAndReportsMissingKeys() throws Exception {
+        List<Long> wantedIds = new ArrayList<>(ids.subList(0, 1000));
+        wantedIds.add(-1L);
+        List<String> wantedEmails = List.of(tag + "-1100@example.com", tag + "-1101@example.com", "nobody@example.com");
+
+        MvcResult res = mvc.perform(post("/api/admin/users/batch").with(admin())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(Map.of("ids", wantedIds, "emails", wantedEmails))))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        JsonNode body = mapper.readTree(res.getResponse().getContentAsString());
+        assertThat(body.get("users")).hasSize(1002);
+        assertThat(body.get("missingIds").toString()).isEqualTo("[-1]");
+        assertThat(body.get("missingEmails").toString()).isEqualTo("[\"nobody@example.com\"]");
+    }
+
+    @Test
+    void exportStreamsOneLinePerUserWithLinksAndResumesAfterAnId() throws Exception {
+        List<JsonNode> all = export(0);
+        List<JsonNode> ours = all.stream().filter(n -> n.get("email").asText().startsWith(tag)).toList();
+        assertThat(ours).hasSize(USERS);
+        assertThat(ours.get(0).get("providers")).hasSize(2);
+        assertThat(ours.get(1).get("providers")).hasSize(1);
+        assertThat(all).extracting(n -> n.get("id").asLong()).isSorted();
+
+        long resumeAfter = ids.get(599);
+        List<JsonNode> rest = export(resumeAfter);
+        assertThat(rest).allMatch(n -> n.get("id").asLong() > resumeAfter);
+        assertThat(rest.stream().filter(n -> n.get("email").asText().startsWith(tag))).hasSize(USERS - 600);
+    }
+
+    @Test
+    void nonAdminsAreForbidden() throws Exception {
+        mvc.perform(get("/api/admin/users/export").with(oauth2Login().attributes(a -> a.put("id", 7L))))
+                .andExpect(status().isForbidden());
+    }
+
+    private List<JsonNode> export(long after) throws Exception {
+        MvcResult started = mvc.perform(get("/api/admin/users/export").param("after", String.valueOf(after)).with(admin()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String ndjson = mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : ndjson.split("\n")) {
+            lines.add(mapper.readTree(line));
+        }
+        return lines;
+    }
+
+    private static org.springframework.test.web.servlet.request.RequestPostProcessor admin() {
+        return oauth2Login().attributes(a -> a.put("id", ADMIN_ID));
+    }
+}
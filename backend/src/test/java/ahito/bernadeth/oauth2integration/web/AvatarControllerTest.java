@@ -0,0 +1,207 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.avatar.AvatarService;
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.ProviderIdentity;
+import ahito.bernadeth.oauth2integration.user.ProvisionedUser;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"app.avatar.allowed-hosts=localhost", "app.avatar.cache-dir=target/test-avatars",
+        "app.avatar.refresh-after=2s"})
+@AutoConfigureMockMvc
+class AvatarControllerTest {
+
+    // stand-in for the provider CDN: /img/<name> serves a generated PNG and counts requests
+    private static HttpServer cdn;
+    private static final Map<String, byte[]> images = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    @Autowired MockMvc mvc;
+    @Autowired UserProvisioningService provisioning;
+    @Autowired ProfileCache profiles;
+    @Autowired AvatarService avatars;
+
+    private final String tag = UUID.randomUUID().toString().substring(0, 8);
+
+    @BeforeAll
+    static void startCdn() throws IOException {
+        cdn = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        cdn.createContext("/img/", exchange -> {
+            String name = exchange.getRequestURI().getPath().substring("/img/".length());
+            hits.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+            byte[] body = images.get(name);
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                exchange.getResponseHeaders().set("Content-Type", "image/png");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        cdn.start();
+    }
+
+    @AfterAll
+    static void stopCdn() {
+        cdn.stop(0);
+    }
+
+    @Test
+    void servesResizedCopiesWithEtagAndFetchesTheSourceOnce() throws Exception {
+        String name = image(300, 200);
+        long userId = user("http://localhost:" + cdn.getAddress().getPort() + "/img/" + name).profile().id();
+
+        MvcResult small = mvc.perform(get("/api/avatar/{id}", userId).param("size", "64").with(viewer()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "private, max-age=3600"))
+                .andReturn();
+        assertThat(dimensions(small)).isEqualTo("64x64");
+        String etag = small.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get("/api/avatar/{id}", userId).param("size", "64").header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .with(viewer()))
+                .andExpect(status().isNotModified());
+
+        // odd sizes snap to the nearest rendered one
+        MvcResult large = mvc.perform(get("/api/avatar/{id}", userId).param("size", "300").with(viewer()))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertThat(dimensions(large)).isEqualTo("256x256");
+        assertThat(large.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+
+        assertThat(hits.get(name)).hasValue(1);
+    }
+
+    @Test
+    void newPictureSeenAtLoginIsFetchedInTheBackground() throws Exception {
+        String base = "http://localhost:" + cdn.getAddress().getPort() + "/img/";
+        String before = image(100, 100);
+        long userId = user(base + before).profile().id();
+        String oldEtag = mvc.perform(get("/api/avatar/{id}", userId).with(viewer()))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        String after = image(120, 120);
+        ProvisionedUser renamed = user(base + after);
+        profiles.put(renamed.profile());
+        avatars.prefetch(renamed.profile().avatarUrl()); // what loadUser does after provisioning
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (hits.getOrDefault(after, new AtomicInteger()).get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        mvc.perform(get("/api/avatar/{id}", userId).header(HttpHeaders.IF_NONE_MATCH, oldEtag).with(viewer()))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG));
+        assertThat(hits.get(after)).hasValue(1);
+    }
+
+    @Test
+    void newPictureBehindTheSameUrlIsPickedUpOnceTheCopyIsStale() throws Exception {
+        String name = image(100, 100);
+        long userId = user("http://localhost:" + cdn.getAddress().getPort() + "/img/" + name).profile().id();
+        String oldEtag = mvc.perform(get("/api/avatar/{id}", userId).with(viewer()))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // GitHub-style: the user changes their picture, the URL stays
+        images.put(name, images.get(image(120, 120)));
+        Thread.sleep(2_100);
+
+        // the old copy is served while the new one is fetched
+        mvc.perform(get("/api/avatar/{id}", userId).header(HttpHeaders.IF_NONE_MATCH, oldEtag).with(viewer()))
+                .andExpect(status().isNotModified());
+        long deadline = System.currentTimeMillis() + 5_000;
+        String etag = oldEtag;
+        while (etag.equals(oldEtag) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            etag = mvc.perform(get("/api/avatar/{id}", userId).with(viewer()))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        }
+        assertThat(etag).isNotEqualTo(oldEtag);
+        assertThat(hits.get(name)).hasValue(2);
+    }
+
+    @Test
+    void hostsOutsideTheAllowlistAreNeverFetched() throws Exception {
+        String name = image(50, 50);
+        long userId = user("http://127.0.0.1:" + cdn.getAddress().getPort() + "/img/" + name).profile().id();
+
+        mvc.perform(get("/api/avatar/{id}", userId).with(viewer())).andExpect(status().isNotFound());
+
+        // user info in the authority: the real host is 127.0.0.1
+        profiles.put(user("http://localhost@127.0.0.1:" + cdn.getAddress().getPort() + "/img/" + name).profile());
+        mvc.perform(get("/api/avatar/{id}", userId).with(viewer())).andExpect(status().isNotFound());
+
+        assertThat(hits).doesNotContainKey(name);
+    }
+
+    @Test
+    void userWithoutPictureIs404() throws Exception {
+        long userId = user(null).profile().id();
+        mvc.perform(get("/api/avatar/{id}", userId).with(viewer())).andExpect(status().isNotFound());
+    }
+
+    private ProvisionedUser user(String picture) {
+        String email = "avatar-" + tag + "@example.com";
+        return provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + tag, email, true,
+                "Avatar " + tag, picture), LoginTrace.NOOP);
+    }
+
+    // a random solid color per image, so no two tests (or runs) share content
+    private static String image(int width, int height) throws IOException {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(ThreadLocalRandom.current().nextInt(0x1000000)));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        String name = UUID.randomUUID() + ".png";
+        images.put(name, out.toByteArray());
+        return name;
+    }
+
+    private static String dimensions(MvcResult result) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()));
+        return img.getWidth() + "x" + img.getHeight();
+    }
+
+    private static RequestPostProcessor viewer() {
+        return oauth2Login().attributes(a -> a.put("email", "viewer@example.com"));
+    }
+}
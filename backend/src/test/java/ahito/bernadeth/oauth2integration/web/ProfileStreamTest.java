@@ -0,0 +1,227 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.user.LocalProfileInvalidationBus;
+import ahito.bernadeth.oauth2integration.user.ProfileInvalidation;
+import ahito.bernadeth.oauth2integration.user.UserProfile;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProfileStreamTest {
+
+    private static final int USERS = 2_000;
+    private static final int TABS = 5;
+
+    private final LocalProfileInvalidationBus bus = new LocalProfileInvalidationBus();
+    private final Map<Long, UserProfile> rows = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    private final AtomicInteger loads = new AtomicInteger();
+    private ProfileStream stream;
+
+    @AfterEach
+    void close() {
+        stream.close();
+    }
+
+    @Test
+    void tenThousandStreamsGetEveryChangeAndHeartbeat() throws Exception {
+        stream = newStream(USERS * TABS, TABS);
+        List<RecordingSink> sinks = new ArrayList<>();
+        for (long id = 1; id <= USERS; id++) {
+            UserProfile u = profile(id, "v1");
+            rows.put(id, u);
+            for (int tab = 0; tab < TABS; tab++) {
+                RecordingSink sink = new RecordingSink();
+                assertThat(stream.subscribe(u, "Ada", null, sink)).isNotNull();
+                sinks.add(sink);
+            }
+        }
+        assertThat(stream.subscribers()).isEqualTo(USERS * TABS);
+        assertThat(stream.subscribe(profile(USERS + 1L, "v1"), null, null, new RecordingSink())).isNull();
+        await(() -> sinks.stream().allMatch(s -> s.last != null && s.last.data().contains("\"bio\":\"v1\"")));
+
+        // every user changes; each change is loaded once, however many tabs it goes to
+        for (long id = 1; id <= USERS; id++) {
+            rows.put(id, profile(id, "v2"));
+            bus.publish(new ProfileInvalidation("elsewhere", id));
+        }
+        await(() -> sinks.stream().allMatch(s -> s.last.data().contains("\"bio\":\"v2\"")));
+        assertThat(loads.get()).isEqualTo(USERS);
+        assertThat(sinks.get(0).last.name()).isEqualTo("profile");
+        assertThat(sinks.get(0).last.id()).isEqualTo(rows.get(1L).etag());
+
+        // nothing changed (a returning login): no event
+        bus.publish(new ProfileInvalidation("elsewhere", 1L));
+        stream.heartbeat();
+        await(() -> sinks.stream().allMatch(s -> s.last == ProfileStream.Event.HEARTBEAT));
+        assertThat(sinks.stream().mapToInt(s -> s.events.get()).sum()).isEqualTo(USERS * TABS * 3);
+
+        // a change to a user without streams costs nothing
+        bus.publish(new ProfileInvalidation("elsewhere", USERS + 1L));
+        Thread.sleep(50);
+        assertThat(loads.get()).isEqualTo(USERS + 1); // user 1's unchanged one above
+    }
+
+    @Test
+    void aStuckClientHoldsOneEventAndIsEndedAfterTheTimeout() throws Exception {
+        stream = newStream(100, TABS);
+        rows.put(1L, profile(1L, "v0"));
+        StuckSink stuck = new StuckSink();
+        RecordingSink other = new RecordingSink();
+        ProfileStream.Subscription subscription = stream.subscribe(rows.get(1L), null, null, stuck);
+        stream.subscribe(rows.get(1L), null, null, other);
+        assertThat(stuck.entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        for (int i = 1; i <= 100; i++) {
+            rows.put(1L, profile(1L, "v" + i));
+            bus.publish(new ProfileInvalidation("elsewhere", 1L));
+        }
+        await(() -> other.last != null && other.last.data().contains("\"bio\":\"v100\""));
+        assertThat(stuck.sent.get()).isZero();
+
+        heartbeat(); // not stuck for long yet
+        assertThat(stream.subscribers()).isEqualTo(2);
+        clock.addAndGet(Duration.ofSeconds(11).toNanos());
+        heartbeat(); // returns although closing the sink would wait for the write
+        assertThat(stream.subscribers()).isEqualTo(1);
+        assertThat(stuck.closed).isFalse();
+        subscription.cancel(); // the container reports the closed connection; counted once
+        assertThat(stream.subscribers()).isEqualTo(1);
+
+        stuck.release.countDown();
+        await(() -> stuck.closed);
+        assertThat(stuck.sent.get()).isLessThanOrEqualTo(1); // whatever was in flight, nothing queued behind it
+    }
+
+    @Test
+    void stuckClientsDoNotTakeTheWritersFromTheOthers() throws Exception {
+        stream = newStream(100, TABS);
+        List<StuckSink> stuck = new ArrayList<>();
+        for (long id = 1; id <= 6; id++) {
+            rows.put(id, profile(id, "v0"));
+            StuckSink sink = new StuckSink();
+            stream.subscribe(rows.get(id), null, null, sink);
+            stuck.add(sink);
+        }
+        for (StuckSink sink : stuck.subList(0, 4)) {
+            assertThat(sink.entered.await(5, TimeUnit.SECONDS)).isTrue(); // every writer is stuck
+        }
+        RecordingSink healthy = new RecordingSink();
+        stream.subscribe(profile(7L, "v0"), null, null, healthy);
+
+        clock.addAndGet(Duration.ofSeconds(11).toNanos());
+        heartbeat();
+        await(() -> healthy.last != null);
+        assertThat(stream.stuckWriters()).isEqualTo(4);
+
+        stuck.forEach(sink -> sink.release.countDown());
+        await(() -> stuck.subList(0, 4).stream().allMatch(sink -> sink.closed));
+        await(() -> stream.stuckWriters() == 0);
+        assertThat(stream.subscribers()).isEqualTo(3);
+    }
+
+    @Test
+    void aNewTabPastThePerUserLimitClosesTheOldest() throws Exception {
+        stream = newStream(100, 2);
+        UserProfile u = profile(1L, "v1");
+        RecordingSink first = new RecordingSink();
+        stream.subscribe(u, null, null, first);
+        stream.subscribe(u, null, null, new RecordingSink());
+        stream.subscribe(u, null, null, new RecordingSink());
+
+        assertThat(stream.subscribers()).isEqualTo(2);
+        await(() -> first.closed); // on a writer thread
+    }
+
+    private ProfileStream newStream(int maxSubscribers, int maxPerUser) {
+        return new ProfileStream(bus, id -> {
+            loads.incrementAndGet();
+            return Optional.ofNullable(rows.get(id));
+        }, new ObjectMapper(), maxSubscribers, maxPerUser, Duration.ZERO, Duration.ofSeconds(10), 4, clock::get);
+    }
+
+    private static UserProfile profile(long id, String bio) {
+        return new UserProfile(id, "u" + id + "@example.com", "User " + id, null, bio,
+                Instant.ofEpochSecond(1_700_000_000L, bio.hashCode()));
+    }
+
+    private void heartbeat() throws Exception {
+        CompletableFuture.runAsync(stream::heartbeat).get(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("timed out").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class RecordingSink implements ProfileStream.Sink {
+        final AtomicInteger events = new AtomicInteger();
+        volatile ProfileStream.Event last;
+        volatile boolean closed;
+
+        @Override
+        public void send(ProfileStream.Event event) {
+            last = event;
+            events.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    // a client that stopped reading: the first write never returns until released, and, as with SseEmitter,
+    // closing waits for the write in progress
+    private static class StuckSink implements ProfileStream.Sink {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger sent = new AtomicInteger();
+        final ReentrantLock writeLock = new ReentrantLock();
+        volatile boolean closed;
+
+        @Override
+        public void send(ProfileStream.Event event) {
+            writeLock.lock();
+            try {
+                entered.countDown();
+                release.await();
+                sent.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            writeLock.lock();
+            try {
+                closed = true;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ahito.bernadeth.oauth2integration.web;
+
+import ahito.bernadeth.oauth2integration.trace.LoginTrace;
+import ahito.bernadeth.oauth2integration.user.AuthProvider;
+import ahito.bernadeth.oauth2integration.user.ProfileCache;
+import ahito.bernadeth.oauth2integration.user.ProviderIdentity;
+import ahito.bernadeth.oauth2integration.user.UserProvisioningService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class UserControllerTest {
+
+    @Autowired MockMvc mvc;
+    @Autowired UserProvisioningService provisioning;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired ProfileCache profiles;
+    @Autowired MeterRegistry meters;
+
+    @Test
+    void resubmittingAnUnchangedProfileDoesNotTouchTheRow() throws Exception {
+        String email = "edit-" + UUID.randomUUID() + "@example.com";
+        Long id = provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + email, email, true,
+                "Ada", null), LoginTrace.NOOP).profile().id();
+
+        submit(id, email, "{\"displayName\":\"Ada\",\"bio\":\"Countess\"}");
+        Timestamp afterEdit = updatedAt(id);
+
+        submit(id, email, "{\"displayName\":\"Ada\",\"bio\":\"Countess\"}");
+        submit(id, email, "{\"bio\":\"Countess\"}");
+        assertThat(updatedAt(id)).isEqualTo(afterEdit);
+
+        submit(id, email, "{\"displayName\":\"Ada Lovelace\"}")
+                .andExpect(jsonPath("$.displayName").value("Ada Lovelace"))
+                .andExpect(jsonPath("$.bio").value("Countess"));
+        assertThat(updatedAt(id)).isAfter(afterEdit);
+    }
+
+    @Test
+    void unchangedProfileIsA304WithoutLoadingItAndAnEditChangesTheEtag() throws Exception {
+        String email = "etag-" + UUID.randomUUID() + "@example.com";
+        Long id = provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + email, email, true,
+                "Grace", null), LoginTrace.NOOP).profile().id();
+
+        MockHttpSession session = new MockHttpSession();
+        String etag = mvc.perform(get("/api/me").session(session).with(user(id, email)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).startsWith("\"" + id + "-");
+
+        ProfileCache.Stats before = profiles.stats();
+        mvc.perform(get("/api/me").session(session).header(HttpHeaders.IF_NONE_MATCH, etag).with(user(id, email)))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().string(""));
+        ProfileCache.Stats after = profiles.stats();
+        assertThat(after.hits() + after.misses()).isEqualTo(before.hits() + before.misses());
+
+        submit(id, email, "{\"bio\":\"Admiral\"}");
+        mvc.perform(get("/api/me").header(HttpHeaders.IF_NONE_MATCH, etag).with(user(id, email)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.bio").value("Admiral"))
+                .andExpect(header().string(HttpHeaders.ETAG, not(etag)));
+    }
+
+    @Test
+    void aSessionLoadsItsProfileOnceAndSeesEditsMadeElsewhere() throws Exception {
+        String email = "session-" + UUID.randomUUID() + "@example.com";
+        Long id = provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GITHUB, "gh-" + email, email, true,
+                "Ada", null), LoginTrace.NOOP).profile().id();
+        profiles.evict(id); // start cold: the first request has to go to the database
+
+        MockHttpSession tab = new MockHttpSession();
+        double queries = findByIdCalls();
+        ProfileCache.Stats before = profiles.stats();
+        for (int i = 0; i < 5; i++) {
+            mvc.perform(get("/api/me").session(tab).with(user(id, email))).andExpect(status().isOk());
+        }
+        submit(id, email, "{\"bio\":\"Countess\"}", tab); // unchanged check and edit reuse the profile too
+        assertThat(findByIdCalls() - queries).isEqualTo(2); // the first load, and the edit's own read
+        ProfileCache.Stats after = profiles.stats();
+        assertThat(after.hits() + after.misses()).isEqualTo(before.hits() + before.misses() + 1);
+
+        // another session: served from the cache, no query; then it sees the first session's next edit
+        MockHttpSession otherTab = new MockHttpSession();
+        queries = findByIdCalls();
+        mvc.perform(get("/api/me").session(otherTab).with(user(id, email)))
+                .andExpect(jsonPath("$.bio").value("Countess"));
+        submit(id, email, "{\"bio\":\"Analyst\"}", tab);
+        mvc.perform(get("/api/me").session(otherTab).with(user(id, email)))
+                .andExpect(jsonPath("$.bio").value("Analyst"));
+        assertThat(findByIdCalls() - queries).isEqualTo(1); // the edit's read only
+    }
+
+    @Test
+    void anEditInOneTabIsPushedToTheStreamOfAnother() throws Exception {
+        String email = "stream-" + UUID.randomUUID() + "@example.com";
+        Long id = provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + email, email, true,
+                "Ada", null), LoginTrace.NOOP).profile().id();
+
+        MockHttpServletResponse stream = mvc.perform(get("/api/me/stream").with(user(id, email)))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string("X-Accel-Buffering", "no"))
+                .andReturn().getResponse();
+        awaitContent(stream, "event:profile");
+        assertThat(stream.getContentAsString()).contains("\"email\":\"" + email + "\"");
+
+        submit(id, email, "{\"bio\":\"Countess\"}");
+        awaitContent(stream, "\"bio\":\"Countess\"");
+    }
+
+    @Test
+    void invalidProfileIsAJson400AndLeavesTheRowAlone() throws Exception {
+        String email = "invalid-" + UUID.randomUUID() + "@example.com";
+        Long id = provisioning.provision(new ProviderIdentity(AuthProvider.Provider.GOOGLE, "g-" + email, email, true,
+                "Ada", null), LoginTrace.NOOP).profile().id();
+        Timestamp before = updatedAt(id);
+
+        mvc.perform(post("/api/profile").with(user(id, email)).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"displayName\":\"\",\"bio\":\"" + "x".repeat(1001) + "\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.ok").value(false))
+                .andExpect(jsonPath("$.error").value("invalid-request"))
+                .andExpect(jsonPath("$.fields.displayName").exists())
+                .andExpect(jsonPath("$.fields.bio").exists());
+
+        mvc.perform(post("/api/profile").with(user(id, email)).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"bio\":"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("malformed-body"));
+
+        assertThat(updatedAt(id)).isEqualTo(before);
+    }
+
+    private ResultActions submit(Long id, String email, String json) throws Exception {
+        return submit(id, email, json, new MockHttpSession());
+    }
+
+    private ResultActions submit(Long id, String email, String json, MockHttpSession session) throws Exception {
+        return mvc.perform(post("/api/profile")
+                        .session(session)
+                        .with(user(id, email))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk());
+    }
+
+    private static RequestPostProcessor user(Long id, String email) {
+        return oauth2Login().attributes(a -> {
+            a.put("id", id);
+            a.put("email", email);
+        });
+    }
+
+    private double findByIdCalls() {
+        Timer t = meters.find("spring.data.repository.invocations")
+                .tags("repository", "UserRepository", "method", "findById").timer();
+        return t == null ? 0 : t.count();
+    }
+
+    private static void awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!response.getContentAsString().contains(expected)) {
+            assertThat(System.nanoTime()).as("no %s in %s", expected, response.getContentAsString())
+                    .isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private Timestamp updatedAt(Long id) {
+        return jdbc.queryForObject("SELECT updated_at FROM users WHERE id = ?", Timestamp.class, id);
+    }
+}
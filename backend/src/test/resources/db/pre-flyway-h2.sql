@@ -0,0 +1,4 @@
+-- What ddl-auto=update created on H2 from the entities before Flyway (Hibernate's DDL, names and all)
+create table auth_provider (id bigint generated by default as identity, user_id bigint not null, provider_email varchar(255), provider_user_id varchar(255) not null, provider enum ('GITHUB','GOOGLE') not null, primary key (id), unique (provider, provider_user_id));
+create table users (created_at timestamp(6) with time zone not null, id bigint generated by default as identity, updated_at timestamp(6) with time zone not null, bio varchar(1000), avatar_url varchar(255), display_name varchar(255) not null, email varchar(255) not null unique, primary key (id));
+alter table if exists auth_provider add constraint FKfmbe5muuuch6scekfn7ovd7kv foreign key (user_id) references users;
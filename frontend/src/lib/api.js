@@ -3,7 +3,7 @@ const API_BASE = import.meta.env.VITE_API_BASE ?? "http://localhost:8080";
 
 /**
  * Get the current authenticated user.
- * Returns JSON: { authenticated, email, name, picture }
+ * Returns JSON: { authenticated, email, name, picture, avatar }
  */
 export async function getMe() {
   const res = await fetch(`${API_BASE}/api/me`, { credentials: "include" });
@@ -11,6 +11,25 @@ export async function getMe() {
   return res.json();
 }
 
+/**
+ * Follow the signed-in user's profile: onProfile gets the /api/me body now and after every change,
+ * including edits made in other tabs or on other devices. The browser reconnects by itself; if the
+ * server refuses the stream, onProfile is not called again. Returns a function that closes the stream.
+ */
+export function subscribeMe(onProfile) {
+  const source = new EventSource(`${API_BASE}/api/me/stream`, { withCredentials: true });
+  source.addEventListener("profile", (e) => onProfile(JSON.parse(e.data)));
+  return () => source.close();
+}
+
+/**
+ * Avatar to show for /api/me data: our cached copy when the backend has one, else the provider URL.
+ */
+export function avatarSrc(me, size = 128) {
+  if (me?.avatar) return `${API_BASE}${me.avatar}?size=${size}`;
+  return me?.picture || null;
+}
+
 /**
  * Update user profile info in the backend.
  * payload = { displayName, bio }
@@ -26,6 +45,43 @@ export async function updateProfile(payload) {
   return res.json();
 }
 
+/**
+ * Provider accounts linked to the signed-in user: [{ id, provider, email }]
+ */
+export async function getLinks() {
+  const res = await fetch(`${API_BASE}/api/account/links`, { credentials: "include" });
+  if (!res.ok) throw new Error("Failed to fetch linked accounts");
+  return res.json();
+}
+
+/**
+ * Link another provider account: the backend remembers the request, then the browser goes
+ * through that provider's login. merge=true takes over the account it currently belongs to.
+ */
+export async function startLink(registrationId, merge = false) {
+  const res = await fetch(
+    `${API_BASE}/api/account/links/${encodeURIComponent(registrationId)}?merge=${merge}`,
+    { method: "POST", credentials: "include" }
+  );
+  if (!res.ok) throw new Error("Could not start linking");
+  const { redirect } = await res.json();
+  window.location.href = `${API_BASE}${redirect}`;
+}
+
+/**
+ * Remove a linked account. Rejects with the backend's error code (e.g. "last-link", "same-email").
+ */
+export async function unlink(id) {
+  const res = await fetch(`${API_BASE}/api/account/links/${id}`, {
+    method: "DELETE",
+    credentials: "include",
+  });
+  if (!res.ok) {
+    const body = await res.json().catch(() => ({}));
+    throw new Error(body.error || "unlink-failed");
+  }
+}
+
 /**
  * Logout and redirect to home with ?logout=1 flag.
  * Backend redirects the session there automatically.
@@ -1,5 +1,25 @@
-import { useEffect, useState } from "react";
-import { getMe, updateProfile, logout } from "../lib/api";
+import { useEffect, useRef, useState } from "react";
+import {
+  getMe,
+  subscribeMe,
+  updateProfile,
+  logout,
+  avatarSrc,
+  getLinks,
+  startLink,
+  unlink,
+} from "../lib/api";
+
+// providers the backend has registrations for
+const PROVIDERS = [
+  { id: "google", label: "Google" },
+  { id: "github", label: "GitHub" },
+];
+
+const UNLINK_ERRORS = {
+  "last-link": "That's your only sign-in method, so it stays linked.",
+  "same-email": "That account uses your profile's e-mail, so its next sign-in would link it again.",
+};
 
 export default function Profile() {
   const [loading, setLoading] = useState(true);
@@ -9,8 +29,20 @@ export default function Profile() {
   const [displayName, setDisplayName] = useState("");
   const [bio, setBio] = useState("");
   const [msg, setMsg] = useState(null);
+  // the values as last received from the server; fields still holding them haven't been edited here
+  const server = useRef({ name: "", bio: "" });
+
+  const [links, setLinks] = useState([]);
+  const [linkMsg, setLinkMsg] = useState(null);
+  // set when the provider account we tried to link belongs to another of our accounts
+  const [mergeOffer, setMergeOffer] = useState(null);
 
   useEffect(() => {
+    const params = new URLSearchParams(window.location.search);
+    if (params.get("link-error") === "linked-elsewhere") {
+      setMergeOffer(params.get("provider"));
+    }
+
     (async () => {
       try {
         const data = await getMe();
@@ -20,6 +52,8 @@ export default function Profile() {
           setMe(data);
           setDisplayName(data.name || "");
           setBio(data.bio || "");
+          server.current = { name: data.name || "", bio: data.bio || "" };
+          setLinks(await getLinks().catch(() => []));
         }
       } catch {
         setMe(null);
@@ -29,6 +63,19 @@ export default function Profile() {
     })();
   }, []);
 
+  // changes made in another tab or on another device; unsaved edits in this tab are left alone
+  const signedIn = !!me;
+  useEffect(() => {
+    if (!signedIn) return undefined;
+    return subscribeMe((data) => {
+      const before = server.current;
+      server.current = { name: data.name || "", bio: data.bio || "" };
+      setMe(data);
+      setDisplayName((v) => (v === before.name ? server.current.name : v));
+      setBio((v) => (v === before.bio ? server.current.bio : v));
+    });
+  }, [signedIn]);
+
   const onSave = async (e) => {
     e.preventDefault();
     if (saving) return;
@@ -36,6 +83,7 @@ export default function Profile() {
     setSaving(true);
     try {
       const res = await updateProfile({ displayName, bio });
+      server.current = { name: res.displayName ?? displayName, bio: res.bio ?? bio };
       setMe((m) => (m ? { ...m, name: res.displayName ?? displayName } : m));
       setBio(res.bio ?? bio);
       setMsg({ type: "ok", text: "Saved successfully." });
@@ -46,6 +94,21 @@ export default function Profile() {
     }
   };
 
+  const onUnlink = async (link) => {
+    setLinkMsg(null);
+    try {
+      await unlink(link.id);
+      setLinks((ls) => ls.filter((l) => l.id !== link.id));
+    } catch (err) {
+      setLinkMsg({ type: "err", text: UNLINK_ERRORS[err.message] || "Unlink failed. Please try again." });
+    }
+  };
+
+  const onLink = (provider, merge = false) =>
+    startLink(provider, merge).catch(() =>
+      setLinkMsg({ type: "err", text: "Could not start linking. Please try again." })
+    );
+
   if (loading) {
     return (
       <div className="page">
@@ -71,11 +134,10 @@ export default function Profile() {
     );
   }
 
-  const avatar =
-    me.picture ||
-    `https://ui-avatars.com/api/?name=${encodeURIComponent(
-      me.name || me.email || "User"
-    )}&background=E5E7EB&color=111827`;
+  const initials = `https://ui-avatars.com/api/?name=${encodeURIComponent(
+    me.name || me.email || "User"
+  )}&background=E5E7EB&color=111827`;
+  const avatar = avatarSrc(me, 128) || initials;
 
   return (
     <div className="page">
@@ -85,7 +147,16 @@ export default function Profile() {
         <div className="profile-container">
           {/* Left: Avatar and Email */}
           <div className="profile-left">
-            <img className="avatar" src={avatar} alt="avatar" />
+            <img
+              className="avatar"
+              src={avatar}
+              alt="avatar"
+              // proxy 404s when the provider picture can't be fetched
+              onError={(e) => {
+                e.currentTarget.onerror = null;
+                e.currentTarget.src = initials;
+              }}
+            />
             <div className="meta">
               <strong>Email</strong>
               {me.email}
@@ -103,6 +174,8 @@ export default function Profile() {
                     value={displayName}
                     onChange={(e) => setDisplayName(e.target.value)}
                     placeholder="Your display name"
+                    required
+                    maxLength={255}
                   />
                 </div>
 
@@ -113,6 +186,7 @@ export default function Profile() {
                     value={bio}
                     onChange={(e) => setBio(e.target.value)}
                     placeholder="Tell something about yourself..."
+                    maxLength={1000}
                   />
                 </div>
               </div>
@@ -129,6 +203,43 @@ export default function Profile() {
                 {msg.text}
               </div>
             )}
+
+            <div className="linked-accounts">
+              <h2>Linked accounts</h2>
+              <ul>
+                {links.map((l) => (
+                  <li key={l.id}>
+                    <span>
+                      <strong>{PROVIDERS.find((p) => p.id === l.provider)?.label || l.provider}</strong>
+                      {l.email && <span className="muted"> {l.email}</span>}
+                    </span>
+                    {links.length > 1 && (
+                      <button className="btn light" onClick={() => onUnlink(l)}>
+                        Unlink
+                      </button>
+                    )}
+                  </li>
+                ))}
+              </ul>
+              <div className="form-actions">
+                {PROVIDERS.map((p) => (
+                  <button key={p.id} className="btn light" onClick={() => onLink(p.id)}>
+                    Link {p.label}
+                  </button>
+                ))}
+              </div>
+
+              {mergeOffer && (
+                <div className="notice error">
+                  That {PROVIDERS.find((p) => p.id === mergeOffer)?.label || mergeOffer} account
+                  already has its own profile here.{" "}
+                  <button className="btn link-inline" onClick={() => onLink(mergeOffer, true)}>
+                    Merge it into this one
+                  </button>
+                </div>
+              )}
+              {linkMsg && <div className="notice error">{linkMsg.text}</div>}
+            </div>
           </div>
         </div>
       </div>